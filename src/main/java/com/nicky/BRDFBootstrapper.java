@@ -2,6 +2,7 @@ package com.nicky;
 
 import com.google.gson.JsonObject;
 import com.nicky.brdfs.BRDF;
+import com.nicky.definitions.ComponentDefinition;
 import com.nicky.factories.BRDFFactory;
 
 /**
@@ -39,4 +40,15 @@ public class BRDFBootstrapper {
             throw e;
         }
     }
+
+    /**
+     * Sets the properties of the BRDF from a parsed definition and creates a new instance of the appropriate BRDF
+     *
+     * @param definition The parsed component definition
+     * @return BRDF BRDF instance.
+     */
+    public BRDF setupBRDF(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        brdfFactory.setProperties(definition);
+        return brdfFactory.createBRDF();
+    }
 }
@@ -1,8 +1,25 @@
 package com.nicky;
 
+import com.nicky.batch.MappedFileEvaluator;
+import com.nicky.brdfs.BRDF;
+import com.nicky.render.BRDFRenderer;
+import com.nicky.render.RenderImage;
+import com.nicky.server.BRDFServer;
+
+import java.nio.file.Paths;
+import java.util.Map;
+
 /**
  * <h1>BRDF Framework</h1>
  * Main program
+ * <p>
+ * Usage:
+ * <pre>
+ *   (no arguments)                               Registers and validates all BRDFs
+ *   render &lt;alias&gt; &lt;outputPrefix&gt; [size] [passes]  Renders a lit sphere and a BRDF slice as PFM and PPM
+ *   serve [port]                                 Serves evaluation requests for all BRDFs on a loopback port
+ *   evaluate &lt;alias&gt; &lt;input&gt; &lt;output&gt; [chunkSize]  Evaluates a binary file of direction pairs into RGB results
+ * </pre>
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -12,7 +29,103 @@ public class BRDFFramework {
 
     public static void main(String[] args) throws Exception {
         BRDFManager brdfManager = new BRDFManager();
-        brdfManager.init();
+
+        if (args.length == 0) {
+            brdfManager.init();
+            return;
+        }
+
+        switch (args[0]) {
+            case "render":
+                render(brdfManager, args);
+                break;
+            case "serve":
+                serve(brdfManager, args);
+                break;
+            case "evaluate":
+                evaluate(brdfManager, args);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + args[0]);
+        }
     }
 
+    /**
+     * Renders the sphere and slice preview images of a registered BRDF
+     *
+     * @param brdfManager The BRDF Manager
+     * @param args        render alias outputPrefix [size] [passes]
+     * @throws Exception On unknown alias or write failure.
+     */
+    private static void render(BRDFManager brdfManager, String[] args) throws Exception {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Usage: render <alias> <outputPrefix> [size] [passes]");
+        }
+        String alias = args[1];
+        String prefix = args[2];
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int passes = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+
+        BRDF brdf = lookup(brdfManager, alias);
+        BRDFRenderer renderer = new BRDFRenderer();
+
+        RenderImage sphere = renderer.renderSphere(brdf, size, passes);
+        sphere.writePFM(prefix + "_sphere.pfm");
+        sphere.writePPM(prefix + "_sphere.ppm", 2.2f);
+
+        RenderImage slice = renderer.renderSlice(brdf, size, passes);
+        slice.writePFM(prefix + "_slice.pfm");
+        slice.writePPM(prefix + "_slice.ppm", 2.2f);
+    }
+
+    /**
+     * Hosts the registry in a local evaluation server until the process is stopped
+     *
+     * @param brdfManager The BRDF Manager
+     * @param args        serve [port]
+     * @throws Exception On registration or bind failure.
+     */
+    private static void serve(BRDFManager brdfManager, String[] args) throws Exception {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7878;
+
+        Map<String, BRDF> brdfs = brdfManager.init();
+        if (brdfs == null) {
+            throw new Exception("BRDF registration failed");
+        }
+        try (BRDFServer server = new BRDFServer(brdfs, port)) {
+            server.serve();
+        }
+    }
+
+    /**
+     * Evaluates a memory-mapped file of direction pairs, see MappedFileEvaluator for the file formats
+     *
+     * @param brdfManager The BRDF Manager
+     * @param args        evaluate alias input output [chunkSize]
+     * @throws Exception On unknown alias or read/write failure.
+     */
+    private static void evaluate(BRDFManager brdfManager, String[] args) throws Exception {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Usage: evaluate <alias> <input> <output> [chunkSize]");
+        }
+        BRDF brdf = lookup(brdfManager, args[1]);
+        MappedFileEvaluator evaluator = args.length > 4 ? new MappedFileEvaluator(Integer.parseInt(args[4])) : new MappedFileEvaluator();
+        evaluator.evaluate(brdf, Paths.get(args[2]), Paths.get(args[3]));
+    }
+
+    /**
+     * Registers all BRDFs and looks one up by alias
+     *
+     * @param brdfManager The BRDF Manager
+     * @param alias       BRDF Alias
+     * @return BRDF The registered BRDF.
+     * @throws Exception On BRDF not found.
+     */
+    private static BRDF lookup(BRDFManager brdfManager, String alias) throws Exception {
+        Map<String, BRDF> brdfs = brdfManager.init();
+        if (brdfs == null || brdfs.get(alias) == null) {
+            throw new Exception("BRDF not found: " + alias);
+        }
+        return brdfs.get(alias);
+    }
 }
@@ -0,0 +1,74 @@
+package com.nicky;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>BRDF Interner</h1>
+ * Canonicalises leaf BRDFs by model and parameter values, so definitions that repeat the same component share one
+ * instance and its Spectrum objects. Anything keyed by BRDF instance, such as composite components or per-material
+ * caches, then scales with the number of unique components rather than definitions.
+ * Composites are never interned, since each is named after its own alias. Interned BRDFs are shared, so they must
+ * not be modified after registration (e.g. through LambertianBRDF.setReflectivity).
+ * Thread-safe.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFInterner {
+
+    private final ConcurrentHashMap<String, BRDF> leaves = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * Returns the canonical instance of a leaf BRDF
+     *
+     * @param brdf The BRDF
+     * @return BRDF Returns the first registered BRDF with the same model and parameters, or brdf itself.
+     */
+    public BRDF intern(BRDF brdf) {
+        if (brdf instanceof CompositeBRDF) {
+            return brdf;
+        }
+        requests.increment();
+        BRDF existing = leaves.putIfAbsent(key(brdf), brdf);
+        return existing != null ? existing : brdf;
+    }
+
+    /**
+     * Identity of a leaf BRDF: its class and serialised parameters
+     */
+    private static String key(BRDF brdf) {
+        return brdf.getClass().getName() + ":" + brdf.serialise();
+    }
+
+    /**
+     * @return int Number of unique leaf BRDFs.
+     */
+    public int getUniqueCount() {
+        return leaves.size();
+    }
+
+    /**
+     * @return long Number of leaf BRDFs interned.
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return long Number of leaf BRDFs replaced by a shared instance.
+     */
+    public long getSharedCount() {
+        return requests.sum() - leaves.size();
+    }
+
+    public void clear() {
+        leaves.clear();
+        requests.reset();
+    }
+}
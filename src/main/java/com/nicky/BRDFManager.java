@@ -1,15 +1,19 @@
 package com.nicky;
 
-import com.google.gson.JsonObject;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.definitions.BRDFDefinition;
+import com.nicky.definitions.ComponentDefinition;
+import com.nicky.definitions.DefinitionGraph;
+import com.nicky.definitions.DefinitionParser;
 import com.nicky.factories.*;
-import com.nicky.resources.Utils;
 import org.joml.Vector3f;
 
 import java.io.*;
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * <h1>BRDF Manager</h1>
@@ -22,12 +26,23 @@ import java.util.logging.Logger;
 public class BRDFManager {
 
     private static final Logger LOGGER = Logger.getLogger(BRDFManager.class.getName());
-    private BRDFBootstrapper brdfBootstrapper;
     private BRDFVerifier brdfVerifier;
     /**
-     * Stores the Name and Properties of each BRDF
+     * Shares identical leaf BRDFs between definitions
      */
-    private Map<String, JsonObject> brdfProperties; // Stores Name and JsonObject
+    private BRDFInterner brdfInterner;
+    /**
+     * Rewrites composites into equivalent forms with fewer lobes
+     */
+    private CompositeOptimiser compositeOptimiser;
+    /**
+     * Whether composites are optimised as they are created
+     */
+    private boolean optimiseComposites = true;
+    /**
+     * Stores the Alias and parsed Definition of each BRDF
+     */
+    private Map<String, BRDFDefinition> brdfProperties;
     /**
      * Stores the Alias and BRDF
      */
@@ -43,11 +58,12 @@ public class BRDFManager {
 
 
     public BRDFManager() {
-        brdfBootstrapper = new BRDFBootstrapper();
-        brdfProperties = new HashMap<String, JsonObject>();
+        brdfProperties = new HashMap<String, BRDFDefinition>();
         brdfs = new HashMap<String, BRDF>();
         brdfNameList = new ArrayList<>();
         brdfVerifier = new BRDFVerifier();
+        brdfInterner = new BRDFInterner();
+        compositeOptimiser = new CompositeOptimiser(brdfInterner);
     }
 
     /**
@@ -61,7 +77,6 @@ public class BRDFManager {
             LOGGER.info("Parsing BRDF Definition files...");
             getAvailableDefinitions("default");
             getAvailableDefinitions("custom");
-            brdfProperties = sortBRDFMap(brdfProperties);
             getBRDFs();
             LOGGER.info("Finished registering BRDFs...");
             LOGGER.info("Checking if BRDFs are physically plausible...");
@@ -125,78 +140,151 @@ public class BRDFManager {
             throw new IOException("No BRDF Definitions found at path: " + path);
         }
 
-        for (File defaultDefinition : Objects.requireNonNull(files)) {
-            if (defaultDefinition.isFile()) {
-                String fileContent = Utils.loadResource(defaultDefinition.getPath());
-                JsonObject fileContentJson = Utils.deserialiseJSON(fileContent);
-                brdfProperties.put(fileContentJson.get("alias").getAsString(), fileContentJson);
-            }
+        // Stream each file straight into a typed definition, in parallel
+        List<BRDFDefinition> definitions;
+        try {
+            definitions = Arrays.stream(files).parallel().filter(File::isFile).map(file -> {
+                try {
+                    return DefinitionParser.parse(file.toPath());
+                } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                    throw new UncheckedIOException(new IOException("Invalid BRDF Definition file: " + file.getPath() + " (" + e.getMessage() + ")", e));
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (BRDFDefinition definition : definitions) {
+            brdfProperties.put(definition.getAlias(), definition);
         }
     }
 
     /**
      * Creates a factory for each BRDF and registers them
-     * Handles both simple and composite BRDFs
+     * Handles both simple and composite BRDFs. Definitions are resolved through their dependency graph, so composites
+     * may reference other definitions by alias; each level of the graph is constructed in parallel.
      *
-     * @throws Exception On invalid BRDF definition structure.
+     * @throws Exception On invalid BRDF definition structure, missing references or cycles.
      */
     private void getBRDFs() throws Exception {
-        BRDF newBRDF;
-
-        for (Map.Entry<String, JsonObject> entry : brdfProperties.entrySet()) {
-            try {
-                // Simple BRDF
-                if (entry.getValue().get("type").getAsString().equals("simple")) {
-                    JsonObject components = entry.getValue().getAsJsonArray("components").get(0).getAsJsonObject();
-                    String name = components.get("name").getAsString();
-                    BRDFFactory brdfFactory = mapNameToFactory(name);
-
-                    // If a factory does not exist for definition file
-                    if (brdfFactory == null) {
-                        throw new Exception("Invalid BRDF Found:" + entry.getKey());
-                    }
+        List<List<BRDFDefinition>> levels = new DefinitionGraph(brdfProperties,
+                name -> searchDefaultBRDF(name) != null || brdfs.containsKey(name)).getLevels();
+
+        for (List<BRDFDefinition> level : levels) {
+            BRDF[] created = new BRDF[level.size()];
+            Exception[] errors = new Exception[level.size()];
+
+            // Earlier levels are registered before this one starts, so brdfs is only read here
+            IntStream.range(0, level.size()).parallel().forEach(i -> {
+                try {
+                    created[i] = createBRDF(level.get(i));
+                } catch (Exception e) {
+                    errors[i] = e;
+                }
+            });
+
+            for (int i = 0; i < level.size(); i++) {
+                String alias = level.get(i).getAlias();
+                // Add BRDF name to brdfNameList
+                brdfNameList.add(alias);
+                if (errors[i] != null) {
+                    throw errors[i];
+                }
+                brdfs.put(alias, created[i]);
+                LOGGER.info("BRDF Registered: " + alias);
+            }
+        }
+        LOGGER.info("Shared " + brdfInterner.getSharedCount() + " of " + brdfInterner.getRequestCount() + " leaf BRDFs, "
+                + brdfInterner.getUniqueCount() + " unique.");
+        for (CompositeOptimiser.Report report : compositeOptimiser.getReports().values()) {
+            if (report.getEvaluationsSaved() > 0) {
+                LOGGER.info("Optimised " + report);
+            }
+        }
+        LOGGER.info("Composite optimisation saves " + compositeOptimiser.getEvaluationsSaved() + " evaluations per call across all composites.");
+    }
+
+    /**
+     * Creates the BRDF of one definition
+     *
+     * @param definition The parsed definition
+     * @return BRDF The new BRDF.
+     * @throws Exception On invalid BRDF definition structure.
+     */
+    private BRDF createBRDF(BRDFDefinition definition) throws Exception {
+        String alias = definition.getAlias();
+        BRDFBootstrapper bootstrapper = new BRDFBootstrapper();
 
-                    brdfBootstrapper.setBrdfFactory(brdfFactory);
-                    newBRDF = brdfBootstrapper.setupBRDF(components);
-                    brdfs.put(entry.getKey(), newBRDF);
+        try {
+            // Simple BRDF
+            if (definition.getType().equals("simple")) {
+                ComponentDefinition component = definition.getComponents().get(0);
+                BRDF referenced = findReference(component);
+                if (referenced != null) {
+                    return referenced;
+                }
+                BRDFFactory brdfFactory = mapNameToFactory(component.getName());
 
+                // If a factory does not exist for definition file
+                if (brdfFactory == null) {
+                    throw new Exception("Invalid BRDF Found:" + alias);
                 }
-                // Composite BRDF
-                else if (entry.getValue().get("type").getAsString().equals("composite")) {
-                    int numComponents = entry.getValue().getAsJsonArray("components").size();
-                    LinkedHashMap<BRDF, Float> components = new LinkedHashMap<BRDF, Float>();
 
-                    for (int i = 0; i < numComponents; i++) {
-                        String componentName = entry.getValue().getAsJsonArray("components").get(i).getAsJsonObject().get("name").getAsString();
+                bootstrapper.setBrdfFactory(brdfFactory);
+                return brdfInterner.intern(bootstrapper.setupBRDF(component));
+            }
+            // Composite BRDF
+            else if (definition.isComposite()) {
+                List<ComponentDefinition> componentDefinitions = definition.getComponents();
+                BRDF[] components = new BRDF[componentDefinitions.size()];
+                float[] weightings = new float[componentDefinitions.size()];
+
+                for (int i = 0; i < components.length; i++) {
+                    ComponentDefinition component = componentDefinitions.get(i);
+                    String componentName = component.getName();
+                    if (!component.has("weighting")) {
+                        throw new IllegalArgumentException("Missing weighting of " + componentName);
+                    }
+
+                    BRDF componentBRDF = findReference(component);
+                    if (componentBRDF == null) {
                         BRDFFactory brdfFactory = mapNameToFactory(componentName);
 
                         // If a factory does not exist for definition file
                         if (brdfFactory == null) {
-                            throw new Exception("Invalid BRDF Found:" + entry.getKey() + ", " + componentName);
+                            throw new Exception("Invalid BRDF Found:" + alias + ", " + componentName);
                         }
 
-                        double weighting = entry.getValue().getAsJsonArray("components").get(i).getAsJsonObject().get("weighting").getAsFloat();
-
-                        brdfBootstrapper.setBrdfFactory(brdfFactory);
-                        components.put(brdfBootstrapper.setupBRDF(entry.getValue().getAsJsonArray("components").get(i).getAsJsonObject()), (float) weighting);
+                        bootstrapper.setBrdfFactory(brdfFactory);
+                        componentBRDF = brdfInterner.intern(bootstrapper.setupBRDF(component));
                     }
-
-                    newBRDF = new CompositeBRDF(entry.getKey(), components);
-                    brdfs.put(newBRDF.getName(), newBRDF);
-
-                    // Add BRDF name to brdfNameList
-                    brdfNameList.add(newBRDF.getName());
+                    // The same BRDF twice (referenced or interned) stays two components
+                    components[i] = componentBRDF;
+                    weightings[i] = component.getWeighting();
                 }
-                LOGGER.info("BRDF Registered: " + entry.getKey());
-            } catch (NullPointerException | IndexOutOfBoundsException e) {
-                throw new Exception("BRDF Definition incorrect: " + entry.getKey());
-            } catch (IllegalArgumentException e) {
-                throw new Exception(e + " [" + entry.getKey() + "]");
-            } finally {
-                // Add BRDF name to brdfNameList
-                brdfNameList.add(entry.getKey());
+
+                CompositeBRDF composite = new CompositeBRDF(alias, components, weightings);
+                return optimiseComposites ? compositeOptimiser.optimise(composite) : composite;
             }
+            throw new Exception("BRDF Definition incorrect: " + alias);
+        } catch (NullPointerException | IndexOutOfBoundsException e) {
+            throw new Exception("BRDF Definition incorrect: " + alias);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e + " [" + alias + "]");
+        }
+    }
+
+    /**
+     * Finds the registered BRDF a component refers to by alias, when the component has no properties of its own
+     *
+     * @param component The component definition
+     * @return BRDF The registered BRDF, or null if the component defines its own BRDF.
+     */
+    private BRDF findReference(ComponentDefinition component) {
+        if (!component.isReference() || searchDefaultBRDF(component.getName()) != null) {
+            return null;
         }
+        return brdfs.get(component.getName());
     }
 
     /**
@@ -234,47 +322,44 @@ public class BRDFManager {
                 return new PhongSpecularBRDFFactory();
             case "ShinyDiffuseBRDF":
                 return new ShinyDiffuseBRDFFactory();
+            case "GGXBRDF":
+                return new GGXBRDFFactory();
+            case "ExpressionBRDF":
+                return new ExpressionBRDFFactory();
         }
         return null;
     }
 
+    public BRDFInterner getInterner() {
+        return brdfInterner;
+    }
+
     /**
-     * Get the names of all registered BRDFs
+     * Gets the composite optimiser, e.g. to change its pruning threshold or turn pruning off before init
      *
-     * @return List<String> Returns a list with BRDF names.
+     * @return CompositeOptimiser Returns the optimiser.
      */
-    public List<String> getBrdfNameList() {
-        brdfNameList.sort(String::compareToIgnoreCase);
-        return brdfNameList;
+    public CompositeOptimiser getCompositeOptimiser() {
+        return compositeOptimiser;
     }
 
     /**
-     * Sorts the Map of BRDFs by 'simple' BRDFs first
+     * Turns composite optimisation on or off for BRDFs created after this call
      *
-     * @param map Map storing BRDFs
-     * @return Map<String ,   JsonObject> Returns an Ordered map
+     * @param optimiseComposites Whether to optimise composites
      */
-    public Map<String, JsonObject> sortBRDFMap(Map<String, JsonObject> map) {
-        List<Map.Entry<String, JsonObject>> list = new LinkedList<Map.Entry<String, JsonObject>>(map.entrySet());
-
-        // Sort the list, with type=simple before type=composite
-        Collections.sort(list, new Comparator<Map.Entry<String, JsonObject>>() {
-            @Override
-            public int compare(Map.Entry<String, JsonObject> o1, Map.Entry<String, JsonObject> o2) {
-                if (o1.getValue().get("type").getAsString().equals("composite")) {
-                    return 1;
-                } else {
-                    return -1;
-                }
-            }
-        });
-
-        Map<String, JsonObject> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<String, JsonObject> entry : list) {
-            sortedMap.put(entry.getKey(), entry.getValue());
-        }
+    public void setOptimiseComposites(boolean optimiseComposites) {
+        this.optimiseComposites = optimiseComposites;
+    }
 
-        return sortedMap;
+    /**
+     * Get the names of all registered BRDFs
+     *
+     * @return List<String> Returns a list with BRDF names.
+     */
+    public List<String> getBrdfNameList() {
+        brdfNameList.sort(String::compareToIgnoreCase);
+        return brdfNameList;
     }
 
     /**
@@ -287,7 +372,7 @@ public class BRDFManager {
         int samplesPerTest = (int) Math.pow(4, 5);
 
         for (Map.Entry<String, BRDF> brdf : brdfs.entrySet()) {
-            if (!brdfVerifier.isPhysicallyBased(brdf.getValue(), numTests, samplesPerTest, false)) {
+            if (!brdfVerifier.isPhysicallyBased(brdf.getValue(), numTests, samplesPerTest, BRDFVerifier.Heuristic.POWER)) {
                 LOGGER.warning("[" + brdf.getKey() + "] is not physically based.");
             } else {
                 LOGGER.info("[" + brdf.getKey() + "] is physically plausible.");
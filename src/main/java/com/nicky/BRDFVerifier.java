@@ -1,14 +1,23 @@
 package com.nicky;
 
 import com.nicky.brdfs.BRDF;
-import org.apache.commons.math3.random.RandomDataGenerator;
+import com.nicky.sampling.SampleTrace;
+import com.nicky.sampling.Sampler;
+import com.nicky.sampling.XoroshiroSampler;
 import org.joml.Vector3f;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
  * <h1>BRDF Verifier</h1>
  * Verifies whether a BRDF is physically-based by ensuring the BRDF obeys reciprocity and energy conservation.
+ * Random numbers come from a Sampler. Each test continues the sampler's stream, so a run is reproducible from the
+ * seed the sampler was created with. A verifier is not thread-safe; use {@link #split()} to give each thread its own
+ * verifier with an independent stream.
+ * Per-sample diagnostics go to an optional {@link SampleTrace} rather than the log.
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -17,9 +26,56 @@ import java.util.logging.Logger;
 public class BRDFVerifier {
 
     private static final Logger LOGGER = Logger.getLogger(BRDFManager.class.getName());
-    private RandomDataGenerator random = new RandomDataGenerator();
+    private final Sampler sampler;
+
+    /**
+     * Scratch buffers for sampled directions and RGB values, reused across tests
+     */
+    private final float[] incoming = new float[3];
+    private float[] directions = new float[0];
+    private final Vector3f sampled = new Vector3f();
+    private final float[] rgb = new float[3];
+
+    /**
+     * Per-sample diagnostics, or null when tracing is off
+     */
+    private SampleTrace trace;
+
+    /**
+     * Sampling techniques of the MIS estimator: cosine-weighted, uniform and BRDF sampling
+     */
+    public static final int MIS_TECHNIQUES = 3;
+
+    /**
+     * Heuristic used to weight the sampling techniques of the MIS estimator
+     */
+    public enum Heuristic {
+        BALANCE,
+        POWER
+    }
 
     public BRDFVerifier() {
+        this(100);
+    }
+
+    /**
+     * @param seed Seed of the verifier's xoroshiro128+ stream
+     */
+    public BRDFVerifier(long seed) {
+        this(new XoroshiroSampler(seed));
+    }
+
+    public BRDFVerifier(Sampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * Creates a verifier for another thread, drawing from an independent stream
+     *
+     * @return BRDFVerifier Returns the new verifier.
+     */
+    public BRDFVerifier split() {
+        return new BRDFVerifier(sampler.split());
     }
 
     /**
@@ -53,6 +109,30 @@ public class BRDFVerifier {
         return true;
     }
 
+    /**
+     * Checks whether a BRDF is physically based, using the MIS albedo estimator for energy conservation
+     *
+     * @param brdf      The brdf to check
+     * @param heuristic The MIS weighting heuristic
+     * @return boolean Returns whether the BRDF is physically-based.
+     */
+    public boolean isPhysicallyBased(BRDF brdf, int numTests, int samplesPerTest, Heuristic heuristic) {
+        if (!obeysReciprocity(brdf, numTests, samplesPerTest)) {
+            LOGGER.warning("[" + brdf.getName() + "] BRDF does not obey Helmholtz Reciprocity.");
+            return false;
+        } else {
+            LOGGER.info("[" + brdf.getName() + "] BRDF obeys Helmholtz Reciprocity. Ran " + numTests + " tests and sampled " + samplesPerTest + " outgoing directions.");
+        }
+        if (!isEnergyConserving(brdf, numTests, samplesPerTest, heuristic)) {
+            LOGGER.warning("[" + brdf.getName() + "] BRDF is not energy conserving.");
+            return false;
+        } else {
+            LOGGER.info("[" + brdf.getName() + "] BRDF is energy conserving. Ran " + numTests + " MIS tests with " + samplesPerTest + " samples each.");
+        }
+
+        return true;
+    }
+
     /**
      * Checks whether the BRDF obeys Helmholtz Reciprocity law
      * Describes how incoming and outgoing light rays can be considered as reversals of one another.
@@ -60,13 +140,18 @@ public class BRDFVerifier {
      * @param brdf the brdf to check
      * @return boolean Returns whether the BRDF obeys Helmholtz Reciprocity.
      */
-    private boolean obeysReciprocity(BRDF brdf, int numTests, int samplesPerTest) {
-        random.reSeed(100);
+    boolean obeysReciprocity(BRDF brdf, int numTests, int samplesPerTest) {
+        float[] outgoing = directions(samplesPerTest);
+        Vector3f incomingDir = new Vector3f();
+        Vector3f outgoingDir = new Vector3f();
 
         for (int inRayCount = 0; inRayCount < numTests; inRayCount++) {
-            Vector3f incomingDir = sampleUpperHemisphere();
+            sampler.uniformHemisphere(incoming, 0, 1);
+            sampler.uniformHemisphere(outgoing, 0, samplesPerTest);
+            incomingDir.set(incoming[0], incoming[1], incoming[2]);
             for (int samples = 0; samples < samplesPerTest; samples++) {
-                Vector3f outgoingDir = sampleUpperHemisphere();
+                int o = samples * 3;
+                outgoingDir.set(outgoing[o], outgoing[o + 1], outgoing[o + 2]);
                 if (!brdf.f(incomingDir, outgoingDir).equals(brdf.f(outgoingDir, incomingDir))) {
                     return false;
                 }
@@ -77,24 +162,22 @@ public class BRDFVerifier {
     }
 
     public boolean isEnergyConserving(BRDF brdf, int samplesPerTest) {
-        RandomDataGenerator random = new RandomDataGenerator();
-        random.reSeed(100);
-
-        Vector3f normal = new Vector3f(1, 0, 0).normalize();
-        Vector3f incomingDir = sampleUpperHemisphere();
+        float[] outgoing = directions(samplesPerTest);
+        sampler.uniformHemisphere(incoming, 0, 1);
+        sampler.uniformHemisphere(outgoing, 0, samplesPerTest);
 
         double pdf = (1.0f / (2.0f * Math.PI));
         double sum = 0;
 
         for (int samples = 1; samples <= samplesPerTest; samples++) {
-            double xi_1 = random.nextUniform(0.0, 1.0, false);
-            Vector3f outgoingDir = sampleUpperHemisphere();
-
-            double brdfWeight = brdf.f(incomingDir, outgoingDir).toScalar();
-            double cos_theta = xi_1;
+            int o = (samples - 1) * 3;
+            double brdfWeight = evaluate(brdf, incoming, outgoing, o, rgb);
+            double cos_theta = outgoing[o];
             double sample = (brdfWeight * cos_theta) / pdf;
-            LOGGER.info("["+brdf.getName()+"]: Sample ["+ samples+"] cos_theta = " + cos_theta + ", value = " + sample);
             sum += sample;
+            if (trace != null) {
+                trace.record(1, samples, cos_theta, sample, sum / samples);
+            }
         }
 
         double estimator = sum / samplesPerTest;
@@ -118,28 +201,28 @@ public class BRDFVerifier {
      * @return boolean Returns whether the BRDF is energy conserving.
      */
     public boolean isEnergyConserving(BRDF brdf, int numTests, int samplesPerTest) {
-        random.reSeed(99);
+        float[] outgoing = directions(samplesPerTest);
 
-        Vector3f normal = new Vector3f(1, 0, 0).normalize();
         double pdf = (1.0f / (2.0f * Math.PI));
         double runningAverage = 0.0f;
         double prevRunningAverage = 0.0f;
 
         for (int inRayCount = 1; inRayCount <= numTests; inRayCount++) {
-            Vector3f incomingDir = sampleUpperHemisphere();
-//            System.out.println("incoming: " + incomingDir);
+            sampler.uniformHemisphere(incoming, 0, 1);
+            // Choose random points on the hemisphere in one batch
+            sampler.uniformHemisphere(outgoing, 0, samplesPerTest);
             double sum = 0;
             for (int samples = 1; samples <= samplesPerTest; samples++) {
-                // Choose random point on sphere surface
-                Vector3f outgoingDir = sampleUpperHemisphere();
-                double brdfWeight = brdf.f(incomingDir, outgoingDir).toScalar();
-                double cos_theta = normal.dot(outgoingDir);
+                int o = (samples - 1) * 3;
+                double brdfWeight = evaluate(brdf, incoming, outgoing, o, rgb);
+                double cos_theta = outgoing[o];
                 double sample = (brdfWeight * cos_theta) / pdf;
                 sum += sample;
-//                LOGGER.info("["+brdf.getName()+"]: Sample ["+ samples+"] cos_theta = " + cos_theta + ", value = " + sample);
+                if (trace != null) {
+                    trace.record(inRayCount, samples, cos_theta, sample, sum / samples);
+                }
             }
             double estimator = sum / samplesPerTest;
-//            LOGGER.info("["+brdf.getName()+"]: Test ["+ inRayCount+"] Monte Carlo Estimator <I> = " + estimator);
             // Test failed
             if(estimator > 1) {
                 return false;
@@ -170,31 +253,30 @@ public class BRDFVerifier {
      * @return boolean Returns whether the BRDF is energy conserving.
      */
     private boolean isEnergyConserving(BRDF brdf) {
-        random.reSeed(100);
-
-        Vector3f normal = new Vector3f(1, 0, 0).normalize();
+        float[] outgoing = new float[3];
 
         double tolerance = 0.05;
         double brdfWeight = -1;
         double estimator;
 
-        Vector3f incomingDir = sampleUpperHemisphere();
+        sampler.uniformHemisphere(incoming, 0, 1);
         double sum = 0;
         int samplesDone = 0;
 
         do {
             samplesDone++;
-            // Choose random point on sphere surface
-            Vector3f outgoingDir = sampleUpperHemisphere();
-            brdfWeight = brdf.f(incomingDir, outgoingDir).toScalar();
+            // Choose random point on the hemisphere
+            sampler.uniformHemisphere(outgoing, 0, 1);
+            brdfWeight = evaluate(brdf, incoming, outgoing, 0, rgb);
             double pdf = (1.0f / (2.0f * Math.PI));
-            double cos_theta = normal.dot(outgoingDir);
+            double cos_theta = outgoing[0];
             double sample = (brdfWeight * (cos_theta)) / pdf;
             sum += sample;
-            LOGGER.info("["+brdf.getName()+"]: Sample ["+ samplesDone +"] cos_theta = " + cos_theta + ", value = " + sample);
 
             estimator = sum / samplesDone;
-            LOGGER.info("["+brdf.getName()+"]: Monte Carlo Estimator <I> = " + estimator);
+            if (trace != null) {
+                trace.record(1, samplesDone, cos_theta, sample, estimator);
+            }
 
             // Test failed
             if(estimator > 1) {
@@ -205,19 +287,227 @@ public class BRDFVerifier {
         return false;
     }
 
+    /**
+     * Checks whether the BRDF is energy conserving using the MIS albedo estimator
+     * Incident rays travel towards the surface (against the normal), so glossy lobes reflect into the upper hemisphere.
+     *
+     * @param brdf      the brdf to check
+     * @param heuristic The MIS weighting heuristic
+     * @return boolean Returns whether the BRDF is energy conserving.
+     */
+    public boolean isEnergyConserving(BRDF brdf, int numTests, int samplesPerTest, Heuristic heuristic) {
+        double runningAverage = 0;
+        Vector3f incomingDir = new Vector3f();
+
+        for (int inRayCount = 1; inRayCount <= numTests; inRayCount++) {
+            sampleUpperHemisphere(incomingDir).negate();
+            double estimator = estimateAlbedo(brdf, incomingDir, samplesPerTest, heuristic);
+
+            // Test failed
+            if (estimator > 1) {
+                return false;
+            }
+            runningAverage += (estimator - runningAverage) / inRayCount;
+        }
+
+        LOGGER.info("[" + brdf.getName() + "]: Average of MIS Estimators: " + runningAverage);
+        return true;
+    }
+
+    /**
+     * Checks whether a BRDF is physically based without blocking, publishing running albedo estimates
+     * Runs the reciprocity check, then the MIS energy-conservation tests in batches of batchSize samples, publishing a
+     * {@link VerificationProgress} after each batch and a final one with the verdict. Cancelling the subscription
+     * stops the run, so a caller can stop early once the confidence bounds settle the result.
+     *
+     * @param brdf           The brdf to check
+     * @param numTests       Number of incident directions
+     * @param samplesPerTest Samples per incident direction
+     * @param batchSize      Samples between progress updates, at least {@link #MIS_TECHNIQUES} so every batch uses each technique
+     * @param heuristic      The MIS weighting heuristic
+     * @param executor       Runs the verification; progress is delivered on a separate pool
+     * @return Flow.Publisher Returns a publisher that starts a run for each subscriber.
+     * @throws IllegalArgumentException On non-positive test or sample counts, or a batch smaller than MIS_TECHNIQUES.
+     */
+    public Flow.Publisher<VerificationProgress> verifyAsync(BRDF brdf, int numTests, int samplesPerTest, int batchSize,
+                                                            Heuristic heuristic, Executor executor) throws IllegalArgumentException {
+        if (numTests < 1 || samplesPerTest < 1) {
+            throw new IllegalArgumentException("Tests and samples must be positive: " + numTests + ", " + samplesPerTest);
+        }
+        if (batchSize < MIS_TECHNIQUES) {
+            throw new IllegalArgumentException("Batch size must be at least " + MIS_TECHNIQUES + ": " + batchSize);
+        }
+        return new VerificationPublisher(this, brdf, numTests, samplesPerTest, batchSize, heuristic, executor);
+    }
+
+    /**
+     * Checks whether a BRDF is physically based without blocking, on the common fork-join pool
+     * Falls back to a thread per task when the pool has a single thread, which the run would otherwise starve.
+     *
+     * @see #verifyAsync(BRDF, int, int, int, Heuristic, Executor)
+     */
+    public Flow.Publisher<VerificationProgress> verifyAsync(BRDF brdf, int numTests, int samplesPerTest, int batchSize,
+                                                            Heuristic heuristic) throws IllegalArgumentException {
+        Executor executor = ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : r -> new Thread(r).start();
+        return verifyAsync(brdf, numTests, samplesPerTest, batchSize, heuristic, executor);
+    }
+
+    /**
+     * Estimates the directional albedo (integral of f * cos theta over the outgoing hemisphere) with multiple importance sampling
+     * Combines cosine-weighted, uniform and BRDF sampling (when the BRDF provides it, see {@link BRDF#canSampleDirection}),
+     * splitting exactly the given number of samples as evenly as possible between the techniques and weighting them with
+     * the balance or power heuristic over each technique's sample count times pdf.
+     *
+     * @param brdf        The brdf to integrate
+     * @param incomingDir The incident ray, in the local frame with the normal along +x
+     * @param samples     Total number of samples
+     * @param heuristic   The MIS weighting heuristic
+     * @return double Returns the albedo estimate, or 0 for no samples.
+     */
+    public double estimateAlbedo(BRDF brdf, Vector3f incomingDir, int samples, Heuristic heuristic) {
+        float inX = incomingDir.x, inY = incomingDir.y, inZ = incomingDir.z;
+        boolean brdfSampling = brdf.canSampleDirection();
+        int techniques = brdfSampling ? MIS_TECHNIQUES : MIS_TECHNIQUES - 1;
+        // Techniques without samples drop out of the weights, so fewer samples than techniques stay unbiased
+        double nCosine = samples / techniques + (samples % techniques > 0 ? 1 : 0);
+        double nUniform = samples / techniques + (samples % techniques > 1 ? 1 : 0);
+        double nBRDF = brdfSampling ? samples / techniques : 0;
+
+        Vector3f out = sampled;
+
+        double sum = 0;
+        for (int technique = 0; technique < techniques; technique++) {
+            double count = technique == 0 ? nCosine : technique == 1 ? nUniform : nBRDF;
+            for (int s = 0; s < count; s++) {
+                double u1 = sampler.nextDouble();
+                double u2 = sampler.nextDouble();
+                double phi = 2 * Math.PI * u2;
+
+                if (technique == 0) {
+                    // Cosine-weighted
+                    double sinTheta = Math.sqrt(u1);
+                    out.set((float) Math.sqrt(1 - u1), (float) (sinTheta * Math.cos(phi)), (float) (sinTheta * Math.sin(phi)));
+                } else if (technique == 1) {
+                    // Uniform
+                    double sinTheta = Math.sqrt(1 - u1 * u1);
+                    out.set((float) u1, (float) (sinTheta * Math.cos(phi)), (float) (sinTheta * Math.sin(phi)));
+                } else if (brdf.sampleDirection(inX, inY, inZ, (float) u1, (float) u2, out) <= 0) {
+                    // BRDF sampling failed
+                    continue;
+                }
+
+                double cosTheta = out.x;
+                if (cosTheta <= 0) {
+                    continue;
+                }
+
+                double pdfCosine = nCosine * cosTheta / Math.PI;
+                double pdfUniform = nUniform / (2 * Math.PI);
+                double pdfBRDF = brdfSampling ? nBRDF * brdf.pdf(inX, inY, inZ, out.x, out.y, out.z) : 0;
+                double pdf = technique == 0 ? pdfCosine : technique == 1 ? pdfUniform : pdfBRDF;
+                if (pdf <= 0) {
+                    continue;
+                }
+
+                double weight;
+                if (heuristic == Heuristic.POWER) {
+                    weight = (pdf * pdf) / (pdfCosine * pdfCosine + pdfUniform * pdfUniform + pdfBRDF * pdfBRDF);
+                } else {
+                    weight = pdf / (pdfCosine + pdfUniform + pdfBRDF);
+                }
+
+                rgb[0] = 0;
+                rgb[1] = 0;
+                rgb[2] = 0;
+                brdf.accumulateF(inX, inY, inZ, out.x, out.y, out.z, 1, rgb, 0);
+                double brdfWeight = (rgb[0] + rgb[1] + rgb[2]) / 3;
+
+                // pdf includes the technique's sample count, so this is already divided by it
+                sum += weight * brdfWeight * cosTheta / pdf;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Estimates the directional albedo with uniform hemisphere sampling, the estimator of the non-MIS
+     * energy-conservation tests
+     *
+     * @param brdf        The brdf to integrate
+     * @param incomingDir The incident ray, in the local frame with the normal along +x
+     * @param samples     Number of samples
+     * @return double Returns the albedo estimate.
+     */
+    public double estimateAlbedoUniform(BRDF brdf, Vector3f incomingDir, int samples) {
+        float[] outgoing = directions(samples);
+        sampler.uniformHemisphere(outgoing, 0, samples);
+        float[] in = {incomingDir.x, incomingDir.y, incomingDir.z};
+
+        double pdf = 1 / (2 * Math.PI);
+        double sum = 0;
+        for (int s = 0; s < samples; s++) {
+            int o = s * 3;
+            sum += evaluate(brdf, in, outgoing, o, rgb) * outgoing[o] / pdf;
+        }
+        return sum / samples;
+    }
+
+    /**
+     * Samples a direction uniformly over the upper hemisphere (normal along +x)
+     *
+     * @return Vector3f Returns the direction.
+     */
     public Vector3f sampleUpperHemisphere() {
-        double x,y,z, xi_1, xi_2;
+        return sampleUpperHemisphere(new Vector3f());
+    }
 
-        xi_1 = random.nextUniform(0.0, 1.0, false);
-        xi_2 = random.nextUniform(-1.0, 1.0, true);
+    /**
+     * Samples a direction uniformly over the upper hemisphere (normal along +x)
+     *
+     * @param dest Will hold the direction
+     * @return Vector3f Returns dest.
+     */
+    public Vector3f sampleUpperHemisphere(Vector3f dest) {
+        sampler.uniformHemisphere(incoming, 0, 1);
+        return dest.set(incoming[0], incoming[1], incoming[2]);
+    }
 
-        double phi = xi_1 * 2 * Math.PI;
-        double sin_u2 = (1 - Math.pow(xi_2, 2));
+    /**
+     * Scalar BRDF value for the incident direction and one packed outgoing direction
+     */
+    private static double evaluate(BRDF brdf, float[] in, float[] out, int offset, float[] rgb) {
+        rgb[0] = 0;
+        rgb[1] = 0;
+        rgb[2] = 0;
+        brdf.accumulateF(in[0], in[1], in[2], out[offset], out[offset + 1], out[offset + 2], 1, rgb, 0);
+        return (rgb[0] + rgb[1] + rgb[2]) / 3;
+    }
 
-        x = xi_1;
-        y = Math.sin(phi) * sin_u2;
-        z = Math.cos(phi) * sin_u2;
+    /**
+     * Scratch buffer for count packed directions
+     */
+    private float[] directions(int count) {
+        if (directions.length < count * 3) {
+            directions = new float[count * 3];
+        }
+        return directions;
+    }
 
-        return new Vector3f((float) x, (float) y, (float) z).normalize();
+    public Sampler getSampler() {
+        return sampler;
+    }
+
+    public SampleTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Sets where per-sample diagnostics are recorded
+     *
+     * @param trace The trace, or null to turn tracing off
+     */
+    public void setTrace(SampleTrace trace) {
+        this.trace = trace;
     }
 }
@@ -0,0 +1,371 @@
+package com.nicky;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.GGXBRDF;
+import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.brdfs.PhongDiffuseBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>Composite Optimiser</h1>
+ * Rewrites composite BRDF trees into smaller forms that evaluate to the same reflection:
+ * <ul>
+ * <li>Nested composites are flattened, folding their weightings into their components'.</li>
+ * <li>Lobes that differ only in reflectivity are merged into one lobe with the weighted mean reflectivity and the
+ * summed weighting. Every built-in model is linear in its reflectivity (GGX through the Schlick term), so the merge
+ * is exact. Lambertian and PhongDiffuse are the same function and merge into a single Lambertian lobe;
+ * ShinyDiffuse lobes only merge with each other, since their samples and reflection type differ.</li>
+ * <li>When pruning is on, components whose weighting times largest reflectivity channel is below the threshold are
+ * pruned. Diffuse and Phong lobes peak at no more than that value, so it bounds the error of each pruned lobe; GGX
+ * lobes are unbounded near the specular peak and are only pruned when that value is exactly zero.</li>
+ * </ul>
+ * Other BRDF types are kept as they are. Only f and accumulateF use the rewritten tree: the result is always a new
+ * composite with the original name that keeps the original composite for sampling, the lobe exponent, parameters and
+ * serialisation, even when one component or none remains. The per-material report records how many leaf evaluations
+ * each call to f saves. Thread-safe.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class CompositeOptimiser {
+
+    private final BRDFInterner interner;
+    private volatile float threshold = 1e-4f;
+    private volatile boolean pruning = true;
+    private final Map<String, Report> reports = new ConcurrentHashMap<>();
+
+    /**
+     * @param interner Interns merged lobes, or null to leave them unshared
+     */
+    public CompositeOptimiser(BRDFInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Optimises a composite BRDF; other BRDFs are returned unchanged
+     *
+     * @param brdf The BRDF
+     * @return BRDF Returns a composite with the same name that evaluates the rewritten tree and samples as brdf does,
+     * or brdf itself if it is not a composite.
+     */
+    public BRDF optimise(BRDF brdf) {
+        if (!(brdf instanceof CompositeBRDF)) {
+            return brdf;
+        }
+        CompositeBRDF composite = (CompositeBRDF) brdf;
+        Report report = new Report(composite.getName(), countEvaluations(composite));
+
+        // Flatten into (leaf, weighting) pairs
+        List<BRDF> leaves = new ArrayList<>();
+        List<Float> weightings = new ArrayList<>();
+        flatten(composite, 1, leaves, weightings, report);
+
+        // Group lobes by their reflectivity-independent part, in order of first appearance
+        LinkedHashMap<Object, Lobe> lobes = new LinkedHashMap<>();
+        for (int i = 0; i < leaves.size(); i++) {
+            BRDF leaf = leaves.get(i);
+            float weighting = weightings.get(i);
+            Object key = lobeKey(leaf);
+            Lobe lobe = lobes.get(key);
+            if (lobe == null) {
+                lobes.put(key, new Lobe(leaf, weighting));
+            } else {
+                lobe.add(leaf, weighting);
+                report.merged++;
+            }
+        }
+
+        List<BRDF> components = new ArrayList<>();
+        List<Float> componentWeightings = new ArrayList<>();
+        for (Map.Entry<Object, Lobe> entry : lobes.entrySet()) {
+            Lobe lobe = entry.getValue();
+            if (lobe.isCancelled()) {
+                // Weightings sum to zero but reflectivities differ, so no single lobe is equivalent
+                components.addAll(lobe.leaves);
+                componentWeightings.addAll(lobe.weightings);
+                report.merged -= lobe.leaves.size() - 1;
+                continue;
+            }
+            float scale = Math.abs(lobe.weighting) * lobe.maxReflectivity();
+            boolean bounded = !(lobe.first instanceof GGXBRDF);
+            if (pruning && (scale == 0 || (bounded && scale < threshold))) {
+                report.pruned++;
+                report.errorBound += scale;
+                continue;
+            }
+            BRDF merged = lobe.build(entry.getKey());
+            if (interner != null && merged != lobe.first) {
+                merged = interner.intern(merged);
+            }
+            components.add(merged);
+            componentWeightings.add(lobe.weighting);
+        }
+
+        // Still a composite when one component or none remains, so the alias and sampling are kept
+        float[] weightingArray = new float[componentWeightings.size()];
+        for (int i = 0; i < weightingArray.length; i++) {
+            weightingArray[i] = componentWeightings.get(i);
+        }
+        CompositeBRDF optimised = new CompositeBRDF(composite.getName(), components.toArray(new BRDF[0]), weightingArray, composite);
+        report.after = countEvaluations(optimised);
+        reports.put(report.name, report);
+        return optimised;
+    }
+
+    private static void flatten(CompositeBRDF composite, float weighting, List<BRDF> leaves, List<Float> weightings, Report report) {
+        for (int i = 0; i < composite.getComponentCount(); i++) {
+            BRDF component = composite.getComponent(i);
+            float w = weighting * composite.getWeighting(i);
+            if (component instanceof CompositeBRDF) {
+                report.folded++;
+                flatten((CompositeBRDF) component, w, leaves, weightings, report);
+            } else {
+                leaves.add(component);
+                weightings.add(w);
+            }
+        }
+    }
+
+    /**
+     * Identifies lobes that differ only in reflectivity; unknown BRDF types are only merged with themselves
+     */
+    private static Object lobeKey(BRDF leaf) {
+        if (leaf instanceof LambertianBRDF || leaf instanceof PhongDiffuseBRDF) {
+            return "diffuse";
+        } else if (leaf instanceof ShinyDiffuseBRDF) {
+            return "shiny:" + ((ShinyDiffuseBRDF) leaf).getReflection();
+        } else if (leaf instanceof PhongSpecularBRDF) {
+            return "phong:" + ((PhongSpecularBRDF) leaf).getSpecularExponent();
+        } else if (leaf instanceof GGXBRDF) {
+            return "ggx:" + ((GGXBRDF) leaf).getRoughness();
+        }
+        return leaf;
+    }
+
+    /**
+     * Reflectivity of a built-in leaf, or null for other types
+     */
+    private static Spectrum reflectivity(BRDF leaf) {
+        if (leaf instanceof LambertianBRDF) {
+            return ((LambertianBRDF) leaf).getReflectivity();
+        } else if (leaf instanceof PhongDiffuseBRDF) {
+            return ((PhongDiffuseBRDF) leaf).getDiffuseReflectivity();
+        } else if (leaf instanceof ShinyDiffuseBRDF) {
+            return ((ShinyDiffuseBRDF) leaf).getDiffuseReflectivity();
+        } else if (leaf instanceof PhongSpecularBRDF) {
+            return ((PhongSpecularBRDF) leaf).getSpecularReflectivity();
+        } else if (leaf instanceof GGXBRDF) {
+            return ((GGXBRDF) leaf).getSpecularReflectivity();
+        }
+        return null;
+    }
+
+    /**
+     * Number of leaf evaluations in one call to f
+     *
+     * @param brdf The BRDF
+     * @return int Returns 1 for a leaf, or the sum over a composite's components.
+     */
+    public static int countEvaluations(BRDF brdf) {
+        if (!(brdf instanceof CompositeBRDF)) {
+            return 1;
+        }
+        CompositeBRDF composite = (CompositeBRDF) brdf;
+        int evaluations = 0;
+        for (int i = 0; i < composite.getComponentCount(); i++) {
+            evaluations += countEvaluations(composite.getComponent(i));
+        }
+        return evaluations;
+    }
+
+    /**
+     * Sets the pruning threshold on weighting times largest reflectivity channel; 0 only prunes zero lobes
+     *
+     * @param threshold The threshold
+     * @throws IllegalArgumentException On a negative or NaN threshold.
+     */
+    public void setThreshold(float threshold) throws IllegalArgumentException {
+        if (!(threshold >= 0)) {
+            throw new IllegalArgumentException("Pruning threshold must be non-negative: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Turns pruning on or off; with pruning off every lobe is kept, including zero ones
+     *
+     * @param pruning Whether to prune
+     */
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    public boolean isPruning() {
+        return pruning;
+    }
+
+    /**
+     * @return Map<String, Report> Returns the report of each optimised composite, by name.
+     */
+    public Map<String, Report> getReports() {
+        return reports;
+    }
+
+    /**
+     * @return long Returns the leaf evaluations saved per call to f, summed over all optimised composites.
+     */
+    public long getEvaluationsSaved() {
+        long saved = 0;
+        for (Report report : reports.values()) {
+            saved += report.getEvaluationsSaved();
+        }
+        return saved;
+    }
+
+    /**
+     * Lobes of one kind being merged: the summed weighting and weighted sum of reflectivities
+     */
+    private static class Lobe {
+        private final BRDF first;
+        private final List<BRDF> leaves = new ArrayList<>();
+        private final List<Float> weightings = new ArrayList<>();
+        private final Spectrum weightedReflectivity = new Spectrum();
+        private float weighting;
+
+        Lobe(BRDF first, float weighting) {
+            this.first = first;
+            add(first, weighting);
+        }
+
+        void add(BRDF leaf, float weighting) {
+            Spectrum reflectivity = reflectivity(leaf);
+            if (reflectivity != null) {
+                Spectrum weighted = reflectivity.copy();
+                weighted.mul(weighting);
+                weightedReflectivity.add(weighted);
+            }
+            this.weighting += weighting;
+            leaves.add(leaf);
+            weightings.add(weighting);
+        }
+
+        boolean isCancelled() {
+            return weighting == 0 && (weightedReflectivity.getR() != 0 || weightedReflectivity.getG() != 0 || weightedReflectivity.getB() != 0);
+        }
+
+        float maxReflectivity() {
+            if (weighting == 0) {
+                return 0;
+            }
+            if (reflectivity(first) == null) {
+                return Float.POSITIVE_INFINITY;
+            }
+            return Math.max(weightedReflectivity.getR(), Math.max(weightedReflectivity.getG(), weightedReflectivity.getB())) / Math.abs(weighting);
+        }
+
+        /**
+         * One leaf with the weighted mean reflectivity, reusing the original when nothing was merged
+         */
+        BRDF build(Object key) {
+            // An unknown BRDF repeated only needs its weightings summed
+            if (leaves.size() == 1 || !(key instanceof String)) {
+                return first;
+            }
+            Spectrum mean = weightedReflectivity.copy();
+            mean.mul(1 / weighting);
+            if (key.equals("diffuse")) {
+                return new LambertianBRDF(mean);
+            } else if (first instanceof ShinyDiffuseBRDF) {
+                return new ShinyDiffuseBRDF(mean, ((ShinyDiffuseBRDF) first).getReflection());
+            } else if (first instanceof PhongSpecularBRDF) {
+                return new PhongSpecularBRDF(mean, ((PhongSpecularBRDF) first).getSpecularExponent());
+            }
+            return new GGXBRDF(mean, ((GGXBRDF) first).getRoughness());
+        }
+    }
+
+    /**
+     * <h1>Report</h1>
+     * What the optimiser did to one composite.
+     */
+    public static class Report {
+        private final String name;
+        private final int before;
+        private int after;
+        private int folded;
+        private int merged;
+        private int pruned;
+        private float errorBound;
+
+        Report(String name, int before) {
+            this.name = name;
+            this.before = before;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return int Leaf evaluations per call to f before optimisation.
+         */
+        public int getEvaluationsBefore() {
+            return before;
+        }
+
+        /**
+         * @return int Leaf evaluations per call to f after optimisation.
+         */
+        public int getEvaluationsAfter() {
+            return after;
+        }
+
+        public int getEvaluationsSaved() {
+            return before - after;
+        }
+
+        /**
+         * @return int Nested composites whose weightings were folded into their components.
+         */
+        public int getFolded() {
+            return folded;
+        }
+
+        /**
+         * @return int Lobes merged into an earlier lobe of the same kind.
+         */
+        public int getMerged() {
+            return merged;
+        }
+
+        public int getPruned() {
+            return pruned;
+        }
+
+        /**
+         * @return float Sum of the weighting times largest reflectivity channel of the pruned lobes.
+         */
+        public float getErrorBound() {
+            return errorBound;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + before + " -> " + after + " evaluations (" + folded + " folded, " + merged + " merged, "
+                    + pruned + " pruned, error bound " + errorBound + ")";
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.nicky;
+
+/**
+ * <h1>RGB Reflectance Spectrum</h1>
+ * A reflectance spectrum converted from an RGB Spectrum using Smits' method.
+ * The conversion runs once, when a BRDF is created, and produces a small table of spectral bins,
+ * so evaluating a BRDF spectrally only needs a table lookup per wavelength.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class RGBReflectanceSpectrum {
+
+    /**
+     * Number of equally sized bins covering [LAMBDA_MIN, LAMBDA_MAX]
+     */
+    public static final int BINS = 10;
+
+    // Smits (1999) basis spectra, sampled at the centre of each bin
+    private static final float[] WHITE = {1.0000f, 1.0000f, 0.9999f, 0.9993f, 0.9992f, 0.9998f, 1.0000f, 1.0000f, 1.0000f, 1.0000f};
+    private static final float[] CYAN = {0.9710f, 0.9426f, 1.0007f, 1.0007f, 1.0007f, 1.0007f, 0.1564f, 0.0000f, 0.0000f, 0.0000f};
+    private static final float[] MAGENTA = {1.0000f, 1.0000f, 0.9685f, 0.2229f, 0.0000f, 0.0458f, 0.8369f, 1.0000f, 1.0000f, 0.9959f};
+    private static final float[] YELLOW = {0.0001f, 0.0000f, 0.1088f, 0.6651f, 1.0000f, 1.0000f, 0.9996f, 0.9586f, 0.9685f, 0.9840f};
+    private static final float[] RED = {0.1012f, 0.0515f, 0.0000f, 0.0000f, 0.0000f, 0.0000f, 0.8325f, 1.0149f, 1.0149f, 1.0149f};
+    private static final float[] GREEN = {0.0000f, 0.0000f, 0.0273f, 0.7937f, 1.0000f, 0.9418f, 0.1719f, 0.0000f, 0.0000f, 0.0025f};
+    private static final float[] BLUE = {1.0000f, 1.0000f, 0.8916f, 0.3323f, 0.0000f, 0.0000f, 0.0003f, 0.0369f, 0.0483f, 0.0496f};
+
+    private static final float BINS_PER_NM = BINS / (SampledWavelengths.LAMBDA_MAX - SampledWavelengths.LAMBDA_MIN);
+
+    private final float[] bins = new float[BINS];
+
+    private RGBReflectanceSpectrum() {
+    }
+
+    /**
+     * Converts an RGB reflectivity into a spectral reflectance
+     *
+     * @param rgb The RGB reflectivity
+     * @return RGBReflectanceSpectrum Returns the converted spectrum.
+     */
+    public static RGBReflectanceSpectrum fromRGB(Spectrum rgb) {
+        RGBReflectanceSpectrum spectrum = new RGBReflectanceSpectrum();
+        toBins(rgb.getR(), rgb.getG(), rgb.getB(), spectrum.bins, 0);
+        return spectrum;
+    }
+
+    /**
+     * Converts an RGB reflectivity into spectral bins held elsewhere, e.g. in a column of a material table
+     *
+     * @param dest   Receives BINS values starting at offset (overwritten)
+     * @param offset Index of the first bin in dest
+     */
+    public static void toBins(float r, float g, float b, float[] dest, int offset) {
+        for (int i = 0; i < BINS; i++) {
+            dest[offset + i] = 0;
+        }
+
+        if (r <= g && r <= b) {
+            add(WHITE, r, dest, offset);
+            if (g <= b) {
+                add(CYAN, g - r, dest, offset);
+                add(BLUE, b - g, dest, offset);
+            } else {
+                add(CYAN, b - r, dest, offset);
+                add(GREEN, g - b, dest, offset);
+            }
+        } else if (g <= r && g <= b) {
+            add(WHITE, g, dest, offset);
+            if (r <= b) {
+                add(MAGENTA, r - g, dest, offset);
+                add(BLUE, b - r, dest, offset);
+            } else {
+                add(MAGENTA, b - g, dest, offset);
+                add(RED, r - b, dest, offset);
+            }
+        } else {
+            add(WHITE, b, dest, offset);
+            if (r <= g) {
+                add(YELLOW, r - b, dest, offset);
+                add(GREEN, g - r, dest, offset);
+            } else {
+                add(YELLOW, g - b, dest, offset);
+                add(RED, r - g, dest, offset);
+            }
+        }
+    }
+
+    private static void add(float[] basis, float weight, float[] dest, int offset) {
+        for (int i = 0; i < BINS; i++) {
+            dest[offset + i] += basis[i] * weight;
+        }
+    }
+
+    /**
+     * Looks up the reflectance at a wavelength
+     *
+     * @param lambda Wavelength in nanometres
+     * @return float Returns the reflectance.
+     */
+    public float sample(float lambda) {
+        return sample(bins, 0, lambda);
+    }
+
+    /**
+     * Looks up the reflectance at a wavelength in bins held elsewhere, see {@link #toBins}
+     */
+    public static float sample(float[] bins, int offset, float lambda) {
+        int bin = (int) ((lambda - SampledWavelengths.LAMBDA_MIN) * BINS_PER_NM);
+        return bins[offset + Math.min(Math.max(bin, 0), BINS - 1)];
+    }
+
+    /**
+     * Adds the weighted reflectance at each sampled wavelength to a SampledSpectrum
+     *
+     * @param lambda The sampled wavelengths
+     * @param weight Weight applied to the reflectance
+     * @param dest   The SampledSpectrum accumulated into
+     */
+    public void accumulate(SampledWavelengths lambda, float weight, SampledSpectrum dest) {
+        accumulate(bins, 0, lambda, weight, dest);
+    }
+
+    /**
+     * Adds the weighted reflectance of bins held elsewhere at each sampled wavelength to a SampledSpectrum
+     *
+     * @param bins   Spectral bins, see {@link #toBins}
+     * @param offset Index of the first bin in bins
+     */
+    public static void accumulate(float[] bins, int offset, SampledWavelengths lambda, float weight, SampledSpectrum dest) {
+        dest.add(sample(bins, offset, lambda.getL0()) * weight, sample(bins, offset, lambda.getL1()) * weight,
+                sample(bins, offset, lambda.getL2()) * weight, sample(bins, offset, lambda.getL3()) * weight);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BINS; i++) {
+            sb.append(bins[i]);
+            if (i < BINS - 1) {
+                sb.append(",");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,206 @@
+package com.nicky;
+
+/**
+ * <h1>Sampled Spectrum</h1>
+ * Represents spectral values at the fixed number of wavelengths held by a SampledWavelengths.
+ * The samples are stored as primitive fields rather than an array so each spectrum is a single small object,
+ * and the static methods operate on many spectra packed into one float array (SAMPLES floats each).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SampledSpectrum {
+
+    /**
+     * Number of wavelengths carried by each spectrum
+     */
+    public static final int SAMPLES = 4;
+
+    private float c0;
+    private float c1;
+    private float c2;
+    private float c3;
+
+    public SampledSpectrum() {
+    }
+
+    public SampledSpectrum(float value) {
+        set(value, value, value, value);
+    }
+
+    public SampledSpectrum(float c0, float c1, float c2, float c3) {
+        set(c0, c1, c2, c3);
+    }
+
+    public SampledSpectrum set(float c0, float c1, float c2, float c3) {
+        this.c0 = c0;
+        this.c1 = c1;
+        this.c2 = c2;
+        this.c3 = c3;
+        return this;
+    }
+
+    public SampledSpectrum set(SampledSpectrum s) {
+        return set(s.c0, s.c1, s.c2, s.c3);
+    }
+
+    /**
+     * Sets every sample to zero
+     *
+     * @return SampledSpectrum Returns this spectrum.
+     */
+    public SampledSpectrum zero() {
+        return set(0, 0, 0, 0);
+    }
+
+    /**
+     * Adds the given values to the samples
+     *
+     * @return SampledSpectrum Returns this spectrum.
+     */
+    public SampledSpectrum add(float v0, float v1, float v2, float v3) {
+        c0 += v0;
+        c1 += v1;
+        c2 += v2;
+        c3 += v3;
+        return this;
+    }
+
+    public SampledSpectrum add(SampledSpectrum s) {
+        return add(s.c0, s.c1, s.c2, s.c3);
+    }
+
+    /**
+     * Multiplies the Spectrum sample-wise by another Spectrum
+     *
+     * @param s The Spectrum to multiply by
+     * @return SampledSpectrum Returns this spectrum.
+     */
+    public SampledSpectrum mul(SampledSpectrum s) {
+        c0 *= s.c0;
+        c1 *= s.c1;
+        c2 *= s.c2;
+        c3 *= s.c3;
+        return this;
+    }
+
+    public SampledSpectrum mul(float scalar) {
+        c0 *= scalar;
+        c1 *= scalar;
+        c2 *= scalar;
+        c3 *= scalar;
+        return this;
+    }
+
+    public SampledSpectrum div(float scalar) {
+        return mul(1.0f / scalar);
+    }
+
+    /**
+     * Adds a Spectrum scaled by a scalar value (this += s * scalar)
+     *
+     * @param s      The Spectrum to add
+     * @param scalar The scale applied to s
+     * @return SampledSpectrum Returns this spectrum.
+     */
+    public SampledSpectrum mulAdd(SampledSpectrum s, float scalar) {
+        return add(s.c0 * scalar, s.c1 * scalar, s.c2 * scalar, s.c3 * scalar);
+    }
+
+    /**
+     * Returns the average of the samples
+     *
+     * @return float Returns a scalar value.
+     */
+    public float toScalar() {
+        return (c0 + c1 + c2 + c3) / SAMPLES;
+    }
+
+    public boolean isBlack() {
+        return c0 == 0 && c1 == 0 && c2 == 0 && c3 == 0;
+    }
+
+    public float get(int i) {
+        switch (i) {
+            case 0:
+                return c0;
+            case 1:
+                return c1;
+            case 2:
+                return c2;
+            case 3:
+                return c3;
+        }
+        throw new IndexOutOfBoundsException("Sample index: " + i);
+    }
+
+    /**
+     * Stores the samples into a packed array
+     *
+     * @param dest   Packed spectra
+     * @param offset Index of the first sample in dest
+     */
+    public void store(float[] dest, int offset) {
+        dest[offset] = c0;
+        dest[offset + 1] = c1;
+        dest[offset + 2] = c2;
+        dest[offset + 3] = c3;
+    }
+
+    /**
+     * Loads the samples from a packed array
+     *
+     * @param src    Packed spectra
+     * @param offset Index of the first sample in src
+     * @return SampledSpectrum Returns this spectrum.
+     */
+    public SampledSpectrum load(float[] src, int offset) {
+        return set(src[offset], src[offset + 1], src[offset + 2], src[offset + 3]);
+    }
+
+    /**
+     * Multiplies count packed spectra sample-wise (dest = a * b)
+     */
+    public static void mul(float[] a, float[] b, float[] dest, int count) {
+        for (int i = 0, end = count * SAMPLES; i < end; i++) {
+            dest[i] = a[i] * b[i];
+        }
+    }
+
+    /**
+     * Adds count packed spectra sample-wise (dest = a + b)
+     */
+    public static void add(float[] a, float[] b, float[] dest, int count) {
+        for (int i = 0, end = count * SAMPLES; i < end; i++) {
+            dest[i] = a[i] + b[i];
+        }
+    }
+
+    /**
+     * Scales count packed spectra by one scalar each (dest[i] = a[i] * scalars[i])
+     */
+    public static void scale(float[] a, float[] scalars, float[] dest, int count) {
+        for (int s = 0, i = 0; s < count; s++) {
+            float scalar = scalars[s];
+            dest[i] = a[i++] * scalar;
+            dest[i] = a[i++] * scalar;
+            dest[i] = a[i++] * scalar;
+            dest[i] = a[i++] * scalar;
+        }
+    }
+
+    /**
+     * Accumulates count packed spectra scaled by one scalar (dest += a * scalar)
+     */
+    public static void mulAdd(float[] a, float scalar, float[] dest, int count) {
+        for (int i = 0, end = count * SAMPLES; i < end; i++) {
+            dest[i] += a[i] * scalar;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return c0 + "," + c1 + "," + c2 + "," + c3;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nicky;
+
+/**
+ * <h1>Sampled Wavelengths</h1>
+ * The fixed set of wavelengths carried by a SampledSpectrum.
+ * Uses hero wavelength sampling: one wavelength is chosen at random and the others are spaced evenly
+ * across the visible range from it, wrapping around, so all of them share the same pdf.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SampledWavelengths {
+
+    /**
+     * Visible range covered by the spectral data, in nanometres
+     */
+    public static final float LAMBDA_MIN = 380.0f;
+    public static final float LAMBDA_MAX = 720.0f;
+
+    // Wavelengths in nanometres, l0 being the hero wavelength
+    private float l0;
+    private float l1;
+    private float l2;
+    private float l3;
+
+    public SampledWavelengths() {
+        sample(0.5f);
+    }
+
+    public SampledWavelengths(float u) {
+        sample(u);
+    }
+
+    /**
+     * Picks the hero wavelength from a uniform random number and places the others at even offsets from it
+     *
+     * @param u Uniform random number in [0, 1)
+     * @return SampledWavelengths Returns this set of wavelengths.
+     */
+    public SampledWavelengths sample(float u) {
+        float range = LAMBDA_MAX - LAMBDA_MIN;
+        float step = range / SampledSpectrum.SAMPLES;
+
+        l0 = LAMBDA_MIN + u * range;
+        l1 = wrap(l0 + step);
+        l2 = wrap(l0 + 2 * step);
+        l3 = wrap(l0 + 3 * step);
+        return this;
+    }
+
+    private static float wrap(float lambda) {
+        return lambda < LAMBDA_MAX ? lambda : lambda - (LAMBDA_MAX - LAMBDA_MIN);
+    }
+
+    /**
+     * The probability density of each wavelength
+     *
+     * @return float Returns the pdf.
+     */
+    public float pdf() {
+        return 1.0f / (LAMBDA_MAX - LAMBDA_MIN);
+    }
+
+    public float get(int i) {
+        switch (i) {
+            case 0:
+                return l0;
+            case 1:
+                return l1;
+            case 2:
+                return l2;
+            case 3:
+                return l3;
+        }
+        throw new IndexOutOfBoundsException("Wavelength index: " + i);
+    }
+
+    public float getL0() {
+        return l0;
+    }
+
+    public float getL1() {
+        return l1;
+    }
+
+    public float getL2() {
+        return l2;
+    }
+
+    public float getL3() {
+        return l3;
+    }
+
+    @Override
+    public String toString() {
+        return l0 + "," + l1 + "," + l2 + "," + l3;
+    }
+}
@@ -0,0 +1,164 @@
+package com.nicky;
+
+import org.joml.Vector3f;
+
+/**
+ * <h1>Shading Frame</h1>
+ * Represents the orthonormal local frame (normal, tangent, bitangent) at a shading point.
+ * The frame is computed once per shading point and used to bring world-space directions into the
+ * local space the BRDFs are defined in, where the normal lies along the +x axis.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ShadingFrame {
+
+    private final Vector3f normal = new Vector3f();
+    private final Vector3f tangent = new Vector3f();
+    private final Vector3f bitangent = new Vector3f();
+
+    /**
+     * Creates the default frame, whose normal is (1, 0, 0) so that local and world space coincide
+     */
+    public ShadingFrame() {
+        normal.set(1, 0, 0);
+        tangent.set(0, 1, 0);
+        bitangent.set(0, 0, 1);
+    }
+
+    /**
+     * Creates a frame around a normal, picking an arbitrary tangent
+     *
+     * @param normal The surface normal
+     */
+    public ShadingFrame(Vector3f normal) {
+        set(normal);
+    }
+
+    /**
+     * Creates a frame around a normal, aligning the tangent as closely as possible with a given tangent
+     *
+     * @param normal  The surface normal
+     * @param tangent The surface tangent (e.g. along the texture u direction)
+     */
+    public ShadingFrame(Vector3f normal, Vector3f tangent) {
+        set(normal, tangent);
+    }
+
+    /**
+     * Rebuilds the frame around a normal, picking an arbitrary tangent
+     * Uses the branchless orthonormal basis construction by Duff et al. so no axis needs special casing.
+     *
+     * @param n The surface normal
+     * @return ShadingFrame Returns this frame.
+     */
+    public ShadingFrame set(Vector3f n) {
+        normal.set(n).normalize();
+
+        float sign = Math.copySign(1.0f, normal.z);
+        float a = -1.0f / (sign + normal.z);
+        float b = normal.x * normal.y * a;
+
+        tangent.set(1.0f + sign * normal.x * normal.x * a, sign * b, -sign * normal.x);
+        bitangent.set(b, sign + normal.y * normal.y * a, -normal.y);
+        return this;
+    }
+
+    /**
+     * Rebuilds the frame around a normal and tangent
+     * The tangent is orthogonalised against the normal (Gram-Schmidt).
+     *
+     * @param n The surface normal
+     * @param t The surface tangent
+     * @return ShadingFrame Returns this frame.
+     * @throws IllegalArgumentException On a tangent parallel to the normal.
+     */
+    public ShadingFrame set(Vector3f n, Vector3f t) throws IllegalArgumentException {
+        normal.set(n).normalize();
+
+        float d = t.dot(normal);
+        tangent.set(t.x - d * normal.x, t.y - d * normal.y, t.z - d * normal.z);
+        if (tangent.lengthSquared() == 0) {
+            throw new IllegalArgumentException("Tangent is parallel to the normal: " + t);
+        }
+        tangent.normalize();
+        normal.cross(tangent, bitangent);
+        return this;
+    }
+
+    /**
+     * Transforms a world-space direction into the local frame
+     *
+     * @param world The world-space direction
+     * @param dest  Will hold the local direction
+     * @return Vector3f Returns dest.
+     */
+    public Vector3f toLocal(Vector3f world, Vector3f dest) {
+        return dest.set(world.dot(normal), world.dot(tangent), world.dot(bitangent));
+    }
+
+    /**
+     * Transforms a local direction back into world space
+     *
+     * @param local The local direction
+     * @param dest  Will hold the world-space direction
+     * @return Vector3f Returns dest.
+     */
+    public Vector3f toWorld(Vector3f local, Vector3f dest) {
+        float x = normal.x * local.x + tangent.x * local.y + bitangent.x * local.z;
+        float y = normal.y * local.x + tangent.y * local.y + bitangent.y * local.z;
+        float z = normal.z * local.x + tangent.z * local.y + bitangent.z * local.z;
+        return dest.set(x, y, z);
+    }
+
+    /**
+     * Transforms a batch of world-space directions into the local frame in one pass
+     * Directions are packed as consecutive (x, y, z) triples. src and dest may be the same array.
+     *
+     * @param src   Packed world-space directions
+     * @param dest  Will hold the packed local directions
+     * @param count Number of directions
+     */
+    public void toLocal(float[] src, float[] dest, int count) {
+        float nx = normal.x, ny = normal.y, nz = normal.z;
+        float tx = tangent.x, ty = tangent.y, tz = tangent.z;
+        float bx = bitangent.x, by = bitangent.y, bz = bitangent.z;
+
+        for (int i = 0, end = count * 3; i < end; i += 3) {
+            float x = src[i], y = src[i + 1], z = src[i + 2];
+            dest[i] = x * nx + y * ny + z * nz;
+            dest[i + 1] = x * tx + y * ty + z * tz;
+            dest[i + 2] = x * bx + y * by + z * bz;
+        }
+    }
+
+    /**
+     * Cosine between a world-space direction and the normal
+     *
+     * @param x Direction x
+     * @param y Direction y
+     * @param z Direction z
+     * @return float Returns the cosine term.
+     */
+    public float cosTheta(float x, float y, float z) {
+        return x * normal.x + y * normal.y + z * normal.z;
+    }
+
+    public Vector3f getNormal() {
+        return normal;
+    }
+
+    public Vector3f getTangent() {
+        return tangent;
+    }
+
+    public Vector3f getBitangent() {
+        return bitangent;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + normal + ", t=" + tangent + ", b=" + bitangent;
+    }
+}
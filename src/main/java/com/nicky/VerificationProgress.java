@@ -0,0 +1,126 @@
+package com.nicky;
+
+/**
+ * <h1>Verification Progress</h1>
+ * An immutable snapshot of an asynchronous energy-conservation check, see {@link BRDFVerifier#verifyAsync}.
+ * The confidence bounds come from the spread of batch means within the current test, and are infinite until a
+ * test has at least two batches.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class VerificationProgress {
+
+    private final String brdfName;
+    private final int test;
+    private final int numTests;
+    private final long samples;
+    private final long totalSamples;
+    private final double estimate;
+    private final double lowerBound;
+    private final double upperBound;
+    private final double maxEstimate;
+    private final boolean reciprocal;
+    private final boolean complete;
+    private final boolean energyConserving;
+
+    VerificationProgress(String brdfName, int test, int numTests, long samples, long totalSamples, double estimate,
+                         double lowerBound, double upperBound, double maxEstimate, boolean reciprocal, boolean complete,
+                         boolean energyConserving) {
+        this.brdfName = brdfName;
+        this.test = test;
+        this.numTests = numTests;
+        this.samples = samples;
+        this.totalSamples = totalSamples;
+        this.estimate = estimate;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.maxEstimate = maxEstimate;
+        this.reciprocal = reciprocal;
+        this.complete = complete;
+        this.energyConserving = energyConserving;
+    }
+
+    public String getBRDFName() {
+        return brdfName;
+    }
+
+    /**
+     * @return int Index of the current test (incident direction), starting at 1.
+     */
+    public int getTest() {
+        return test;
+    }
+
+    public int getNumTests() {
+        return numTests;
+    }
+
+    /**
+     * @return long Samples taken in the current test.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return long Samples taken over all tests.
+     */
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * @return double Running albedo estimate of the current test.
+     */
+    public double getEstimate() {
+        return estimate;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * @return double Largest albedo estimate seen so far, including the current test.
+     */
+    public double getMaxEstimate() {
+        return maxEstimate;
+    }
+
+    public boolean isReciprocal() {
+        return reciprocal;
+    }
+
+    /**
+     * @return boolean Whether this is the final snapshot.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return boolean Whether the BRDF was found energy conserving; only meaningful once complete.
+     */
+    public boolean isEnergyConserving() {
+        return energyConserving;
+    }
+
+    /**
+     * @return boolean Whether the BRDF was found physically based; only meaningful once complete.
+     */
+    public boolean isPhysicallyBased() {
+        return reciprocal && energyConserving;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + brdfName + "] Test " + test + "/" + numTests + ", " + samples + " samples: " + estimate
+                + " [" + lowerBound + ", " + upperBound + "]" + (complete ? (isPhysicallyBased() ? " (physically based)" : " (not physically based)") : "");
+    }
+}
@@ -0,0 +1,126 @@
+package com.nicky;
+
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * <h1>Verification Publisher</h1>
+ * Publishes the progress of a reciprocity and MIS energy-conservation check.
+ * Each subscriber starts its own run on the executor with its own split of the verifier's random stream.
+ * Snapshots are delivered on a separate pool, so a run never waits on its own executor to deliver: on a single-thread
+ * or saturated executor the final submit would otherwise block forever once the buffer fills.
+ * Intermediate snapshots are dropped while a subscriber is not keeping up; the final snapshot is always delivered.
+ * A run stops as soon as its subscriber cancels, freeing the executor.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+class VerificationPublisher implements Flow.Publisher<VerificationProgress> {
+
+    /**
+     * Two-sided 99% normal quantile used for the confidence bounds
+     */
+    private static final double Z = 2.576;
+
+    /**
+     * Delivers snapshots to subscribers; grows as needed, so delivery never queues behind a run
+     */
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "verification-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BRDFVerifier verifier;
+    private final BRDF brdf;
+    private final int numTests;
+    private final int samplesPerTest;
+    private final int batchSize;
+    private final BRDFVerifier.Heuristic heuristic;
+    private final Executor executor;
+
+    VerificationPublisher(BRDFVerifier verifier, BRDF brdf, int numTests, int samplesPerTest, int batchSize,
+                          BRDFVerifier.Heuristic heuristic, Executor executor) {
+        this.verifier = verifier;
+        this.brdf = brdf;
+        this.numTests = numTests;
+        this.samplesPerTest = samplesPerTest;
+        this.batchSize = batchSize;
+        this.heuristic = heuristic;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super VerificationProgress> subscriber) {
+        BRDFVerifier worker;
+        synchronized (verifier) {
+            worker = verifier.split();
+        }
+        SubmissionPublisher<VerificationProgress> publisher = new SubmissionPublisher<>(DELIVERY, Flow.defaultBufferSize());
+        publisher.subscribe(subscriber);
+        executor.execute(() -> run(worker, publisher));
+    }
+
+    private void run(BRDFVerifier worker, SubmissionPublisher<VerificationProgress> publisher) {
+        try {
+            String name = brdf.getName();
+            if (!worker.obeysReciprocity(brdf, numTests, samplesPerTest)) {
+                publisher.submit(new VerificationProgress(name, 0, numTests, 0, 0, 0, 0, 0, 0, false, true, false));
+                publisher.close();
+                return;
+            }
+
+            Vector3f incomingDir = new Vector3f();
+            long totalSamples = 0;
+            double maxEstimate = 0;
+            boolean conserving = true;
+            int test = 0;
+            long samples = 0;
+            double mean = 0;
+            double halfWidth = Double.POSITIVE_INFINITY;
+
+            while (conserving && test < numTests && publisher.hasSubscribers()) {
+                test++;
+                worker.sampleUpperHemisphere(incomingDir).negate();
+
+                // Running mean and variance of the batch means
+                mean = 0;
+                halfWidth = Double.POSITIVE_INFINITY;
+                double m2 = 0;
+                int batches = 0;
+                samples = 0;
+                while (samples < samplesPerTest && publisher.hasSubscribers()) {
+                    int n = (int) Math.min(batchSize, samplesPerTest - samples);
+                    double batchMean = worker.estimateAlbedo(brdf, incomingDir, n, heuristic);
+                    batches++;
+                    double delta = batchMean - mean;
+                    mean += delta / batches;
+                    m2 += delta * (batchMean - mean);
+                    samples += n;
+                    totalSamples += n;
+
+                    halfWidth = batches > 1 ? Z * Math.sqrt(m2 / (batches - 1) / batches) : Double.POSITIVE_INFINITY;
+                    publisher.offer(new VerificationProgress(name, test, numTests, samples, totalSamples, mean, mean - halfWidth,
+                            mean + halfWidth, Math.max(maxEstimate, mean), true, false, false), null);
+                }
+                maxEstimate = Math.max(maxEstimate, mean);
+                conserving = mean <= 1;
+            }
+
+            if (publisher.hasSubscribers()) {
+                publisher.submit(new VerificationProgress(name, test, numTests, samples, totalSamples, mean,
+                        mean - halfWidth, mean + halfWidth, maxEstimate, true, true, conserving));
+            }
+            publisher.close();
+        } catch (RuntimeException e) {
+            publisher.closeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.nicky.batch;
+
+import com.nicky.brdfs.BRDF;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.stream.LongStream;
+
+/**
+ * <h1>Mapped File Evaluator</h1>
+ * Evaluates a BRDF over a binary file of direction pairs and writes the RGB results to another file.
+ * Both files are memory-mapped one chunk at a time, so datasets larger than the heap (and larger than the
+ * 2GB limit of a single mapping) never need to be loaded. Chunks are processed in parallel on all cores.
+ * <p>
+ * Input: little-endian float32, 6 per pair (in.xyz, out.xyz), in the local frame with the normal along +x.
+ * Output: little-endian float32, 3 per pair (r, g, b).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class MappedFileEvaluator {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedFileEvaluator.class.getName());
+
+    private static final int IN_FLOATS = 6;
+    private static final int OUT_FLOATS = 3;
+
+    /**
+     * Largest chunk whose input mapping and float array both fit in an int-indexed buffer (under 2GB)
+     */
+    public static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE / (IN_FLOATS * 4);
+
+    /**
+     * Direction pairs per chunk
+     */
+    private final int chunkSize;
+
+    public MappedFileEvaluator() {
+        this(1 << 20);
+    }
+
+    /**
+     * @param chunkSize Direction pairs per chunk, in [1, MAX_CHUNK_SIZE]
+     * @throws IllegalArgumentException If chunkSize is outside [1, MAX_CHUNK_SIZE].
+     */
+    public MappedFileEvaluator(int chunkSize) throws IllegalArgumentException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Evaluates every direction pair of the input file
+     *
+     * @param brdf   The BRDF to evaluate
+     * @param input  The direction pair file
+     * @param output The result file, created or overwritten
+     * @return long Returns the number of evaluations.
+     * @throws IOException On invalid input or read/write failure.
+     */
+    public long evaluate(BRDF brdf, Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             RandomAccessFile outFile = new RandomAccessFile(output.toFile(), "rw");
+             FileChannel out = outFile.getChannel()) {
+
+            long inBytes = in.size();
+            if (inBytes % (IN_FLOATS * 4) != 0) {
+                throw new IOException("Input size " + inBytes + " is not a multiple of " + (IN_FLOATS * 4) + " bytes: " + input);
+            }
+            long pairs = inBytes / (IN_FLOATS * 4);
+            outFile.setLength(pairs * OUT_FLOATS * 4);
+
+            long chunks = (pairs + chunkSize - 1) / chunkSize;
+            LongStream.range(0, chunks).parallel().forEach(chunk -> {
+                long first = chunk * chunkSize;
+                int count = (int) Math.min(chunkSize, pairs - first);
+                try {
+                    evaluateChunk(brdf, in, out, first, count);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to evaluate chunk " + chunk + ": " + e.getMessage(), e);
+                }
+            });
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            LOGGER.info("[" + brdf.getName() + "] Evaluated " + pairs + " direction pairs in " + String.format("%.3f", seconds)
+                    + "s (" + String.format("%.0f", seconds > 0 ? pairs / seconds : 0) + " evaluations/s)");
+            return pairs;
+        }
+    }
+
+    private void evaluateChunk(BRDF brdf, FileChannel in, FileChannel out, long first, int count) throws IOException {
+        MappedByteBuffer inMap = in.map(FileChannel.MapMode.READ_ONLY, first * IN_FLOATS * 4, (long) count * IN_FLOATS * 4);
+        MappedByteBuffer outMap = out.map(FileChannel.MapMode.READ_WRITE, first * OUT_FLOATS * 4, (long) count * OUT_FLOATS * 4);
+        FloatBuffer directions = inMap.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        FloatBuffer results = outMap.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        // Copy the chunk out in bulk so the evaluation loop runs over a plain array
+        float[] d = new float[count * IN_FLOATS];
+        float[] rgb = new float[count * OUT_FLOATS];
+        directions.get(d);
+
+        for (int i = 0; i < count; i++) {
+            int p = i * IN_FLOATS;
+            brdf.accumulateF(d[p], d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p + 5], 1, rgb, i * OUT_FLOATS);
+        }
+
+        results.put(rgb);
+    }
+}
@@ -0,0 +1,238 @@
+package com.nicky.benchmark;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.GGXBRDF;
+import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.brdfs.PhongDiffuseBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Composite Kernel Benchmark</h1>
+ * Compares composite evaluation through CompositeBRDF's per-model kernel with a plain loop over the components, as a
+ * JMH benchmark would: both run over the same composites and directions, with warm-up iterations before timed
+ * measurement iterations, and every result is consumed so the JIT cannot discard the work.
+ * <p>
+ * The composites mix every built-in model, so the plain loop's accumulateF call site sees five classes and cannot
+ * inline them, as in a scene with many materials. Run with a fixed heap and, ideally, one benchmark per JVM.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class CompositeKernelBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(CompositeKernelBenchmark.class.getName());
+
+    private int composites = 64;
+    private int directions = 4096;
+    private int warmupIterations = 10;
+    private int measurementIterations = 10;
+    private long seed = 1;
+
+    private CompositeBRDF[] brdfs;
+    private BRDF[][] componentArrays;
+    private float[][] weightArrays;
+    private float[] in;
+    private float[] out;
+    private final float[] rgb = new float[3];
+
+    /**
+     * Sink for the results, read after the run so the evaluations are not dead code
+     */
+    private double sink;
+
+    /**
+     * Runs both variants
+     *
+     * @return Result[] Returns the kernel's result, then the plain loop's.
+     */
+    public Result[] run() {
+        setup();
+        // Interleave the warm-up so neither variant is compiled against a profile the other cannot see
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(this::kernel);
+            iteration(this::plainLoop);
+        }
+        Result kernel = measure("kernel", this::kernel);
+        Result plainLoop = measure("plain loop", this::plainLoop);
+        LOGGER.info("Checksum " + sink);
+        return new Result[]{kernel, plainLoop};
+    }
+
+    private void setup() {
+        SplittableRandom random = new SplittableRandom(seed);
+        brdfs = new CompositeBRDF[composites];
+        componentArrays = new BRDF[composites][];
+        weightArrays = new float[composites][];
+        for (int c = 0; c < composites; c++) {
+            LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+            components.put(new LambertianBRDF(grey(random)), 0.3f);
+            components.put(new PhongDiffuseBRDF(grey(random)), 0.2f);
+            components.put(new PhongSpecularBRDF(grey(random), 1 + random.nextInt(100)), 0.2f);
+            components.put(new ShinyDiffuseBRDF(grey(random), random.nextInt(20)), 0.2f);
+            components.put(new GGXBRDF(grey(random), 0.1f + 0.8f * (float) random.nextDouble()), 0.1f);
+            brdfs[c] = new CompositeBRDF("composite" + c, components);
+
+            componentArrays[c] = components.keySet().toArray(new BRDF[0]);
+            weightArrays[c] = new float[components.size()];
+            int i = 0;
+            for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
+                weightArrays[c][i++] = entry.getValue();
+            }
+        }
+
+        // Incident rays travel towards the surface; outgoing directions leave it
+        in = new float[directions * 3];
+        out = new float[directions * 3];
+        for (int d = 0; d < directions; d++) {
+            direction(random, in, d, -1);
+            direction(random, out, d, 1);
+        }
+    }
+
+    private static Spectrum grey(SplittableRandom random) {
+        float value = (float) random.nextDouble();
+        return new Spectrum(value, value, value);
+    }
+
+    private static void direction(SplittableRandom random, float[] dest, int d, float sign) {
+        double cosTheta = random.nextDouble();
+        double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+        double phi = 2 * Math.PI * random.nextDouble();
+        dest[d * 3] = (float) (sign * cosTheta);
+        dest[d * 3 + 1] = (float) (sinTheta * Math.cos(phi));
+        dest[d * 3 + 2] = (float) (sinTheta * Math.sin(phi));
+    }
+
+    /**
+     * One evaluation of a composite through its kernel
+     */
+    private void kernel(int op) {
+        int d = (op % directions) * 3;
+        brdfs[op / directions].accumulateF(in[d], in[d + 1], in[d + 2], out[d], out[d + 1], out[d + 2], 1, rgb, 0);
+    }
+
+    /**
+     * One evaluation of a composite with a plain loop over its components
+     */
+    private void plainLoop(int op) {
+        int d = (op % directions) * 3;
+        int c = op / directions;
+        BRDF[] components = componentArrays[c];
+        float[] weights = weightArrays[c];
+        for (int i = 0; i < components.length; i++) {
+            components[i].accumulateF(in[d], in[d + 1], in[d + 2], out[d], out[d + 1], out[d + 2], weights[i], rgb, 0);
+        }
+    }
+
+    /**
+     * Evaluates every composite at every direction
+     *
+     * @return long Returns the elapsed nanoseconds.
+     */
+    private long iteration(IntConsumer op) {
+        rgb[0] = 0;
+        rgb[1] = 0;
+        rgb[2] = 0;
+        long start = System.nanoTime();
+        for (int i = 0, ops = composites * directions; i < ops; i++) {
+            op.accept(i);
+        }
+        long time = System.nanoTime() - start;
+        sink += rgb[0] + rgb[1] + rgb[2];
+        return time;
+    }
+
+    private Result measure(String name, IntConsumer op) {
+        double ops = (double) composites * directions;
+        double sum = 0, sumSquares = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            double nanosPerOp = iteration(op) / ops;
+            sum += nanosPerOp;
+            sumSquares += nanosPerOp * nanosPerOp;
+        }
+        double mean = sum / measurementIterations;
+        double variance = Math.max(0, sumSquares / measurementIterations - mean * mean);
+        return new Result(name, mean, Math.sqrt(variance), measurementIterations);
+    }
+
+    /**
+     * Runs the comparison and prints the time per evaluation of each variant
+     *
+     * @param args Unused
+     */
+    public static void main(String[] args) {
+        Result[] results = new CompositeKernelBenchmark().run();
+        for (Result result : results) {
+            System.out.println(result);
+        }
+        System.out.println(String.format("kernel speedup over plain loop: %.2fx", results[1].getNanosPerOp() / results[0].getNanosPerOp()));
+    }
+
+    public void setComposites(int composites) {
+        this.composites = composites;
+    }
+
+    public void setDirections(int directions) {
+        this.directions = directions;
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    public void setMeasurementIterations(int measurementIterations) {
+        this.measurementIterations = measurementIterations;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * <h1>Result</h1>
+     * Mean and standard deviation of the time per evaluation over the measurement iterations.
+     */
+    public static class Result {
+        private final String name;
+        private final double nanosPerOp;
+        private final double error;
+        private final int iterations;
+
+        Result(String name, double nanosPerOp, double error, int iterations) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.error = error;
+            this.iterations = iterations;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getNanosPerOp() {
+            return nanosPerOp;
+        }
+
+        /**
+         * @return double Returns the standard deviation over the measurement iterations.
+         */
+        public double getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.2f +- %.2f ns/op (%d iterations)", name, nanosPerOp, error, iterations);
+        }
+    }
+}
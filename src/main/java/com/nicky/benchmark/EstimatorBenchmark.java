@@ -0,0 +1,392 @@
+package com.nicky.benchmark;
+
+import com.nicky.BRDFVerifier;
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.GGXBRDF;
+import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+import com.nicky.sampling.Sampler;
+import com.nicky.sampling.SplittableRandomSampler;
+import com.nicky.sampling.XoroshiroSampler;
+import org.joml.Vector3f;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Estimator Benchmark</h1>
+ * Measures the statistical efficiency of the verifier's albedo estimators rather than their speed alone.
+ * Every combination of estimator, sampler and sample count is run over many seeds against BRDFs whose albedo is
+ * known, and reported as RMSE against CPU time. Efficiency is 1 / (MSE * CPU seconds per estimate), the usual figure
+ * of merit for Monte Carlo estimators: an estimator twice as efficient reaches the same error in half the time.
+ * <p>
+ * Configurations run in parallel, each on one thread from start to finish, and are timed with that thread's CPU
+ * time so that parallel runs do not inflate each other's timings.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class EstimatorBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(EstimatorBenchmark.class.getName());
+
+    /**
+     * Albedo estimators of {@link BRDFVerifier}
+     */
+    public enum Estimator {
+        UNIFORM,
+        MIS_BALANCE,
+        MIS_POWER
+    }
+
+    private final List<Case> cases = new ArrayList<>();
+    private final LinkedHashMap<String, LongFunction<Sampler>> samplers = new LinkedHashMap<>();
+    private int[] sampleCounts = {64, 256, 1024, 4096};
+    private int seeds = 64;
+    private long baseSeed = 1;
+
+    /**
+     * Adds a BRDF with a known albedo
+     *
+     * @param name     Name of the case in the report
+     * @param brdf     The BRDF
+     * @param incoming The incident ray, in the local frame with the normal along +x
+     * @param albedo   The true albedo for the incident ray, averaged over RGB
+     * @return EstimatorBenchmark Returns this benchmark.
+     */
+    public EstimatorBenchmark addCase(String name, BRDF brdf, Vector3f incoming, double albedo) {
+        cases.add(new Case(name, brdf, new Vector3f(incoming), albedo));
+        return this;
+    }
+
+    /**
+     * Adds the built-in models at normal incidence, where the albedo has a closed form:
+     * r for Lambertian, r * 2 pi / (n + 2) for Phong, r * 2 / (n + 2) for ShinyDiffuse, and their weighted sum for a
+     * composite. GGX has no closed form and is integrated numerically with {@link #integrateAlbedo}.
+     *
+     * @return EstimatorBenchmark Returns this benchmark.
+     */
+    public EstimatorBenchmark addStandardCases() {
+        Vector3f normal = new Vector3f(-1, 0, 0);
+        Spectrum grey = new Spectrum(0.8f, 0.8f, 0.8f);
+
+        addCase("lambertian", new LambertianBRDF(grey), normal, 0.8);
+        for (int exponent : new int[]{1, 10, 100}) {
+            addCase("phong n=" + exponent, new PhongSpecularBRDF(new Spectrum(0.2f, 0.2f, 0.2f), exponent), normal,
+                    0.2 * 2 * Math.PI / (exponent + 2));
+        }
+        addCase("shinyDiffuse n=20", new ShinyDiffuseBRDF(grey, 20), normal, 0.8 * 2 / 22.0);
+
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        components.put(new LambertianBRDF(new Spectrum(0.6f, 0.6f, 0.6f)), 0.7f);
+        components.put(new PhongSpecularBRDF(new Spectrum(0.1f, 0.1f, 0.1f), 50), 0.3f);
+        addCase("composite", new CompositeBRDF("composite", components), normal,
+                0.7 * 0.6 + 0.3 * 0.1 * 2 * Math.PI / 52);
+
+        BRDF ggx = new GGXBRDF(new Spectrum(0.9f, 0.9f, 0.9f), 0.3f);
+        addCase("ggx r=0.3", ggx, normal, integrateAlbedo(ggx, normal, 2048));
+        return this;
+    }
+
+    /**
+     * Adds a sampler to compare; by default both built-in samplers are used
+     *
+     * @param name    Name of the sampler in the report
+     * @param factory Creates the sampler from a seed
+     * @return EstimatorBenchmark Returns this benchmark.
+     */
+    public EstimatorBenchmark addSampler(String name, LongFunction<Sampler> factory) {
+        samplers.put(name, factory);
+        return this;
+    }
+
+    /**
+     * Runs every configuration
+     *
+     * @return List<Result> Returns one result per case, estimator, sampler and sample count.
+     * @throws IllegalStateException If no cases have been added.
+     */
+    public List<Result> run() throws IllegalStateException {
+        if (cases.isEmpty()) {
+            throw new IllegalStateException("No benchmark cases added");
+        }
+        if (samplers.isEmpty()) {
+            samplers.put("xoroshiro128+", XoroshiroSampler::new);
+            samplers.put("splittable", SplittableRandomSampler::new);
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        for (Case c : cases) {
+            for (Estimator estimator : Estimator.values()) {
+                for (Map.Entry<String, LongFunction<Sampler>> sampler : samplers.entrySet()) {
+                    for (int samples : sampleCounts) {
+                        Result result = new Result(c.name, estimator, sampler.getKey(), samples, seeds, c.albedo);
+                        results.add(result);
+                        tasks.add(() -> measure(c, estimator, sampler.getValue(), result));
+                    }
+                }
+            }
+        }
+
+        // Untimed pass at the smallest sample count, so the timed runs see compiled estimators
+        for (Case c : cases) {
+            for (Estimator estimator : Estimator.values()) {
+                for (LongFunction<Sampler> sampler : samplers.values()) {
+                    measure(c, estimator, sampler, new Result(c.name, estimator, "", sampleCounts[0], seeds, c.albedo));
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        tasks.parallelStream().forEach(Runnable::run);
+        LOGGER.info("Benchmarked " + results.size() + " configurations over " + seeds + " seeds in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        return results;
+    }
+
+    /**
+     * Runs one configuration over all seeds on the calling thread
+     */
+    private void measure(Case c, Estimator estimator, LongFunction<Sampler> factory, Result result) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        double sum = 0, sumSquaredError = 0;
+        long time = 0;
+
+        for (int s = 0; s < seeds; s++) {
+            BRDFVerifier verifier = new BRDFVerifier(factory.apply(baseSeed + s));
+            long before = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+            double estimate;
+            switch (estimator) {
+                case UNIFORM:
+                    estimate = verifier.estimateAlbedoUniform(c.brdf, c.incoming, result.samples);
+                    break;
+                case MIS_BALANCE:
+                    estimate = verifier.estimateAlbedo(c.brdf, c.incoming, result.samples, BRDFVerifier.Heuristic.BALANCE);
+                    break;
+                default:
+                    estimate = verifier.estimateAlbedo(c.brdf, c.incoming, result.samples, BRDFVerifier.Heuristic.POWER);
+                    break;
+            }
+            time += (cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - before;
+
+            double error = estimate - c.albedo;
+            sum += estimate;
+            sumSquaredError += error * error;
+        }
+
+        result.mean = sum / seeds;
+        result.rmse = Math.sqrt(sumSquaredError / seeds);
+        result.seconds = time / 1e9 / seeds;
+    }
+
+    /**
+     * Integrates a BRDF's albedo deterministically, for ground truth where there is no closed form
+     * Uses the midpoint rule on a resolution x 4 * resolution grid over the cosine-weighted hemisphere mapping, so the
+     * integral of f cos theta is pi times the grid mean of f.
+     *
+     * @param brdf       The brdf to integrate
+     * @param incoming   The incident ray, in the local frame with the normal along +x
+     * @param resolution Number of cells in sin^2 theta
+     * @return double Returns the albedo, averaged over RGB.
+     */
+    public static double integrateAlbedo(BRDF brdf, Vector3f incoming, int resolution) {
+        int phiResolution = resolution * 4;
+        float[] rgb = new float[3];
+        double sum = 0;
+        for (int i = 0; i < resolution; i++) {
+            double u1 = (i + 0.5) / resolution;
+            double sinTheta = Math.sqrt(u1);
+            float cosTheta = (float) Math.sqrt(1 - u1);
+            for (int j = 0; j < phiResolution; j++) {
+                double phi = 2 * Math.PI * (j + 0.5) / phiResolution;
+                rgb[0] = 0;
+                rgb[1] = 0;
+                rgb[2] = 0;
+                brdf.accumulateF(incoming.x, incoming.y, incoming.z, cosTheta, (float) (sinTheta * Math.cos(phi)), (float) (sinTheta * Math.sin(phi)), 1, rgb, 0);
+                sum += (rgb[0] + rgb[1] + rgb[2]) / 3;
+            }
+        }
+        return Math.PI * sum / ((double) resolution * phiResolution);
+    }
+
+    /**
+     * The most efficient configuration of each case
+     *
+     * @param results Results of {@link #run()}
+     * @return Map<String, Result> Returns the result with the highest efficiency, by case name.
+     */
+    public static Map<String, Result> best(List<Result> results) {
+        Map<String, Result> best = new LinkedHashMap<>();
+        for (Result result : results) {
+            best.merge(result.caseName, result, (a, b) -> b.getEfficiency() > a.getEfficiency() ? b : a);
+        }
+        return best;
+    }
+
+    /**
+     * Formats results as a tab-separated table
+     *
+     * @param results Results of {@link #run()}
+     * @return String Returns the table.
+     */
+    public static String toTable(List<Result> results) {
+        StringBuilder sb = new StringBuilder("case\testimator\tsampler\tsamples\tseeds\ttruth\tmean\tbias\trmse\tcpuMicros\tefficiency\n");
+        for (Result r : results) {
+            sb.append(r.caseName).append('\t')
+                    .append(r.estimator).append('\t')
+                    .append(r.sampler).append('\t')
+                    .append(r.samples).append('\t')
+                    .append(r.seeds).append('\t')
+                    .append(String.format("%.6g\t%.6g\t%.3g\t%.3g\t%.3g\t%.4g", r.truth, r.mean, r.getBias(), r.rmse,
+                            r.seconds * 1e6, r.getEfficiency()))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes results as CSV
+     *
+     * @param results Results of {@link #run()}
+     * @param path    The output file
+     * @throws IOException On write failure.
+     */
+    public static void writeCSV(List<Result> results, String path) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+            out.write(toTable(results).replace('\t', ','));
+        }
+    }
+
+    /**
+     * Runs the standard cases and prints the report and the best configuration of each case
+     *
+     * @param args Optional path of a CSV report
+     * @throws IOException On write failure.
+     */
+    public static void main(String[] args) throws IOException {
+        List<Result> results = new EstimatorBenchmark().addStandardCases().run();
+        System.out.print(toTable(results));
+        System.out.println();
+        System.out.println("Most efficient:");
+        for (Result result : best(results).values()) {
+            System.out.println(result);
+        }
+        if (args.length > 0) {
+            writeCSV(results, args[0]);
+        }
+    }
+
+    public void setSampleCounts(int... sampleCounts) {
+        this.sampleCounts = sampleCounts.clone();
+    }
+
+    public void setSeeds(int seeds) {
+        this.seeds = seeds;
+    }
+
+    public void setBaseSeed(long baseSeed) {
+        this.baseSeed = baseSeed;
+    }
+
+    private static class Case {
+        private final String name;
+        private final BRDF brdf;
+        private final Vector3f incoming;
+        private final double albedo;
+
+        Case(String name, BRDF brdf, Vector3f incoming, double albedo) {
+            this.name = name;
+            this.brdf = brdf;
+            this.incoming = incoming;
+            this.albedo = albedo;
+        }
+    }
+
+    /**
+     * <h1>Result</h1>
+     * Error and cost of one configuration over all seeds.
+     */
+    public static class Result {
+        private final String caseName;
+        private final Estimator estimator;
+        private final String sampler;
+        private final int samples;
+        private final int seeds;
+        private final double truth;
+        private double mean;
+        private double rmse;
+        private double seconds;
+
+        Result(String caseName, Estimator estimator, String sampler, int samples, int seeds, double truth) {
+            this.caseName = caseName;
+            this.estimator = estimator;
+            this.sampler = sampler;
+            this.samples = samples;
+            this.seeds = seeds;
+            this.truth = truth;
+        }
+
+        public String getCaseName() {
+            return caseName;
+        }
+
+        public Estimator getEstimator() {
+            return estimator;
+        }
+
+        public String getSampler() {
+            return sampler;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getBias() {
+            return mean - truth;
+        }
+
+        public double getRmse() {
+            return rmse;
+        }
+
+        /**
+         * @return double Returns the mean CPU seconds per estimate.
+         */
+        public double getSeconds() {
+            return seconds;
+        }
+
+        /**
+         * @return double Returns 1 / (MSE * CPU seconds per estimate); infinite for an exact estimator.
+         */
+        public double getEfficiency() {
+            return 1 / (rmse * rmse * Math.max(seconds, 1e-9));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s with %s, %d samples: rmse %.3g in %.3g us (efficiency %.4g)",
+                    caseName, estimator, sampler, samples, rmse, seconds * 1e6, getEfficiency());
+        }
+    }
+}
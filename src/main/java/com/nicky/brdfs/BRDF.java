@@ -1,8 +1,11 @@
 package com.nicky.brdfs;
 
 
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.ShadingFrame;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -38,14 +41,250 @@ public interface BRDF {
      */
     Spectrum f(Vector3f in, Vector3f out, String reflectionType);
 
+    /**
+     * Adds the weighted reflection for a pair of local directions (normal along +x) to an RGB buffer
+     * Allocation-free evaluation kernel used by the frame and batch variants.
+     *
+     * @param inX    Local incident ray x
+     * @param inY    Local incident ray y
+     * @param inZ    Local incident ray z
+     * @param outX   Local outgoing ray x
+     * @param outY   Local outgoing ray y
+     * @param outZ   Local outgoing ray z
+     * @param weight Weight applied to the reflection
+     * @param dest   RGB buffer accumulated into
+     * @param offset Index of the red channel in dest
+     */
+    void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset);
+
+    /**
+     * Adds the weighted spectral reflection for a pair of local directions (normal along +x) at the sampled wavelengths
+     * RGB reflectivities are converted to spectra when the BRDF is created, so this is a table lookup per wavelength.
+     *
+     * @param inX    Local incident ray x
+     * @param inY    Local incident ray y
+     * @param inZ    Local incident ray z
+     * @param outX   Local outgoing ray x
+     * @param outY   Local outgoing ray y
+     * @param outZ   Local outgoing ray z
+     * @param weight Weight applied to the reflection
+     * @param lambda The sampled wavelengths
+     * @param dest   The SampledSpectrum accumulated into
+     */
+    void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest);
+
+    /**
+     * Calculates the spectral reflection given world-space directions and the shading frame at the point,
+     * writing the result into dest without allocating
+     *
+     * @param frame  The shading frame
+     * @param in     World-space incident ray
+     * @param out    World-space outgoing ray
+     * @param lambda The sampled wavelengths
+     * @param dest   Will hold the reflection
+     * @return SampledSpectrum Returns dest.
+     */
+    default SampledSpectrum f(ShadingFrame frame, Vector3f in, Vector3f out, SampledWavelengths lambda, SampledSpectrum dest) {
+        Vector3f n = frame.getNormal();
+        Vector3f t = frame.getTangent();
+        Vector3f b = frame.getBitangent();
+
+        dest.zero();
+        accumulateF(in.dot(n), in.dot(t), in.dot(b), out.dot(n), out.dot(t), out.dot(b), 1, lambda, dest);
+        return dest;
+    }
+
+    /**
+     * Calculates the reflection given world-space incoming and outgoing directions and the shading frame at the point
+     *
+     * @param frame The shading frame
+     * @param in    World-space incident ray
+     * @param out   World-space outgoing ray
+     * @return Spectrum Returns the reflection RGB values encapsulated as a Spectrum.
+     */
+    default Spectrum f(ShadingFrame frame, Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        f(frame, in, out, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    /**
+     * Calculates the reflection given world-space incoming and outgoing directions and the shading frame at the point,
+     * writing the RGB result into dest without allocating
+     *
+     * @param frame  The shading frame
+     * @param in     World-space incident ray
+     * @param out    World-space outgoing ray
+     * @param dest   Will hold the reflection
+     * @param offset Index of the red channel in dest
+     */
+    default void f(ShadingFrame frame, Vector3f in, Vector3f out, float[] dest, int offset) {
+        Vector3f n = frame.getNormal();
+        Vector3f t = frame.getTangent();
+        Vector3f b = frame.getBitangent();
+
+        dest[offset] = 0;
+        dest[offset + 1] = 0;
+        dest[offset + 2] = 0;
+        accumulateF(in.dot(n), in.dot(t), in.dot(b), out.dot(n), out.dot(t), out.dot(b), 1, dest, offset);
+    }
+
+    /**
+     * Calculates the reflection for a batch of world-space direction pairs sharing one shading frame
+     * Directions are packed as (x, y, z) triples and results as (r, g, b) triples. Each direction is
+     * transformed into the frame and evaluated in a single pass without allocating.
+     *
+     * @param frame The shading frame
+     * @param in    Packed world-space incident rays
+     * @param out   Packed world-space outgoing rays
+     * @param dest  Will hold the packed reflections
+     * @param count Number of direction pairs
+     */
+    default void f(ShadingFrame frame, float[] in, float[] out, float[] dest, int count) {
+        Vector3f n = frame.getNormal();
+        Vector3f t = frame.getTangent();
+        Vector3f b = frame.getBitangent();
+
+        for (int i = 0, end = count * 3; i < end; i += 3) {
+            float ix = in[i], iy = in[i + 1], iz = in[i + 2];
+            float ox = out[i], oy = out[i + 1], oz = out[i + 2];
+            dest[i] = 0;
+            dest[i + 1] = 0;
+            dest[i + 2] = 0;
+            accumulateF(ix * n.x + iy * n.y + iz * n.z, ix * t.x + iy * t.y + iz * t.z, ix * b.x + iy * b.y + iz * b.z,
+                    ox * n.x + oy * n.y + oz * n.z, ox * t.x + oy * t.y + oz * t.z, ox * b.x + oy * b.y + oz * b.z,
+                    1, dest, i);
+        }
+    }
+
     /**
      * Approximates the outgoing direction and calculates the reflection at an assumed point x
+     * Allocates a new result on every call; prefer {@link #sampleF(Vector3f, Vector3f, BRDFSample)} in sampling loops.
+     *
+     * @param in     Incident Ray
+     * @param normal The normal
+     * @return BRDFSample Returns a new sample holding the outgoing direction, reflection, pdf and lobe flags.
+     */
+    default BRDFSample sampleF(Vector3f in, Vector3f normal) {
+        return sampleF(in, normal, new BRDFSample());
+    }
+
+    /**
+     * Approximates the outgoing direction and calculates the reflection at an assumed point x, without allocating
+     * The models reflect the incident ray about the normal, so the pdf is 1.
      *
      * @param in     Incident Ray
      * @param normal The normal
-     * @return Pair<Vector3f   ,       Spectrum> Returns the outgoing direction and reflection Spectrum.
+     * @param dest   Will hold the outgoing direction, reflection, pdf and lobe flags
+     * @return BRDFSample Returns dest.
+     */
+    BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest);
+
+    /**
+     * Samples a batch of incident rays into primitive arrays
+     *
+     * @param in         Packed incident rays (x, y, z)
+     * @param normals    Packed normals (x, y, z)
+     * @param count      Number of samples
+     * @param directions Will hold the packed outgoing directions
+     * @param values     Will hold the packed RGB reflection
+     * @param pdfs       Will hold the pdfs
+     * @param flags      Will hold the lobe flags, see {@link BRDFSample}
+     */
+    default void sampleF(float[] in, float[] normals, int count, float[] directions, float[] values, float[] pdfs, int[] flags) {
+        BRDFSample sample = new BRDFSample();
+        Vector3f inRay = new Vector3f();
+        Vector3f normal = new Vector3f();
+
+        for (int s = 0; s < count; s++) {
+            int i = s * 3;
+            inRay.set(in[i], in[i + 1], in[i + 2]);
+            normal.set(normals[i], normals[i + 1], normals[i + 2]);
+            sampleF(inRay, normal, sample);
+
+            Vector3f direction = sample.getDirection();
+            Spectrum value = sample.getValue();
+            directions[i] = direction.x;
+            directions[i + 1] = direction.y;
+            directions[i + 2] = direction.z;
+            values[i] = value.getR();
+            values[i + 1] = value.getG();
+            values[i + 2] = value.getB();
+            pdfs[s] = sample.getPdf();
+            flags[s] = sample.getFlags();
+        }
+    }
+
+    /**
+     * Gets the Phong-style exponent of the glossy lobe around the mirror direction, used to importance sample the BRDF
+     *
+     * @return float Returns the lobe exponent, or 0 if the BRDF has no glossy lobe.
+     */
+    default float getLobeExponent() {
+        return 0;
+    }
+
+    /**
+     * Whether {@link #sampleDirection} can importance sample the BRDF, so estimators can pick their techniques without
+     * probing it
+     *
+     * @return boolean Returns true if the BRDF has a sampling routine.
+     */
+    default boolean canSampleDirection() {
+        return getLobeExponent() > 0;
+    }
+
+    /**
+     * Importance samples an outgoing direction for a local incident ray (travelling towards the surface)
+     * By default samples a cos^n lobe around the mirror direction using {@link #getLobeExponent()}.
+     *
+     * @param inX  Local incident ray x
+     * @param inY  Local incident ray y
+     * @param inZ  Local incident ray z
+     * @param u1   Uniform random number in [0, 1)
+     * @param u2   Uniform random number in [0, 1)
+     * @param dest Will hold the local outgoing direction
+     * @return float Returns the pdf of the sampled direction, or 0 if no direction could be sampled.
+     */
+    default float sampleDirection(float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        float exponent = getLobeExponent();
+        if (exponent <= 0) {
+            return 0;
+        }
+        double cosAlpha = Math.pow(u1, 1.0 / (exponent + 1));
+        double sinAlpha = Math.sqrt(Math.max(0, 1 - cosAlpha * cosAlpha));
+        double phi = 2 * Math.PI * u2;
+
+        // Mirror direction about the normal (1, 0, 0), then rotate the lobe sample onto it (basis by Duff et al.)
+        float length = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+        float mx = -inX / length, my = inY / length, mz = inZ / length;
+        float sign = Math.copySign(1.0f, mz);
+        float a = -1.0f / (sign + mz);
+        float b = mx * my * a;
+        float u = (float) (sinAlpha * Math.cos(phi));
+        float v = (float) (sinAlpha * Math.sin(phi));
+        float c = (float) cosAlpha;
+
+        dest.set(mx * c + (1.0f + sign * mx * mx * a) * u + b * v,
+                my * c + sign * b * u + (sign + my * my * a) * v,
+                mz * c - sign * mx * u - my * v);
+        return (float) ((exponent + 1) / (2 * Math.PI) * Math.pow(cosAlpha, exponent));
+    }
+
+    /**
+     * Gets the pdf with which {@link #sampleDirection} produces an outgoing direction
+     *
+     * @return float Returns the pdf, or 0 if the BRDF has no sampling routine.
      */
-    Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal);
+    default float pdf(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        float exponent = getLobeExponent();
+        if (exponent <= 0) {
+            return 0;
+        }
+        float length = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+        float cosAlpha = Math.max(0, (-inX * outX + inY * outY + inZ * outZ) / length);
+        return (float) ((exponent + 1) / (2 * Math.PI) * Math.pow(cosAlpha, exponent));
+    }
 
     /**
      * Gets the name of the BRDF
@@ -0,0 +1,90 @@
+package com.nicky.brdfs;
+
+import com.nicky.Spectrum;
+import org.joml.Vector3f;
+
+/**
+ * <h1>BRDF Sample</h1>
+ * A reusable, mutable result of {@link BRDF#sampleF(Vector3f, Vector3f, BRDFSample)}: the sampled direction, its
+ * value, its pdf and the lobes it came from. Callers allocate one per thread and pass it to every call, so sampling
+ * loops create no garbage.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFSample {
+
+    /**
+     * Lobe flags
+     */
+    public static final int DIFFUSE = 1;
+    public static final int SPECULAR = 2;
+
+    private final Vector3f direction = new Vector3f();
+    private final Spectrum value = new Spectrum();
+    private float pdf;
+    private int flags;
+
+    /**
+     * Sets the direction to the reflection of the incident ray about the normal
+     * Grazing and back-facing incident rays (in . normal >= 0) are passed through unchanged.
+     *
+     * @param in     Incident Ray
+     * @param normal The normal
+     * @return BRDFSample Returns this sample.
+     */
+    public BRDFSample setMirror(Vector3f in, Vector3f normal) {
+        float dn = 2 * Math.max(-in.dot(normal), 0);
+        direction.set(dn * normal.x + in.x, dn * normal.y + in.y, dn * normal.z + in.z);
+        return this;
+    }
+
+    public BRDFSample setDirection(float x, float y, float z) {
+        direction.set(x, y, z);
+        return this;
+    }
+
+    public BRDFSample setValue(float r, float g, float b) {
+        value.setR(r);
+        value.setG(g);
+        value.setB(b);
+        return this;
+    }
+
+    public BRDFSample setPdf(float pdf) {
+        this.pdf = pdf;
+        return this;
+    }
+
+    public BRDFSample setFlags(int flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    /**
+     * @return Vector3f The sampled direction; owned by this sample and overwritten by the next call.
+     */
+    public Vector3f getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return Spectrum The value of the sample; owned by this sample and overwritten by the next call.
+     */
+    public Spectrum getValue() {
+        return value;
+    }
+
+    public float getPdf() {
+        return pdf;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+}
@@ -0,0 +1,392 @@
+package com.nicky.brdfs;
+
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import com.nicky.resources.Pair;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>Caching BRDF</h1>
+ * Wraps an expensive BRDF and memoises its RGB values over quantised direction pairs.
+ * Each direction is quantised to (theta, phi) bins of a configurable angular resolution, and the wrapped BRDF is
+ * evaluated once at the bin centres, so every query in the same pair of bins returns the same value. The error
+ * against the wrapped BRDF is therefore bounded by how much it varies within half a bin, see {@link #estimateError}.
+ * <p>
+ * Entries live in a bounded table of primitive keys and values split into independently locked stripes. Lookups probe
+ * a few slots; when they are all taken, a slot chosen round-robin is evicted. Only the RGB evaluations are cached;
+ * spectral evaluation, sampling and metadata go straight to the wrapped BRDF.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class CachingBRDF implements BRDF {
+
+    /**
+     * Slots probed per lookup
+     */
+    private static final int PROBES = 4;
+    private static final long EMPTY = -1;
+
+    private final BRDF brdf;
+    private final int thetaBins;
+    private final int phiBins;
+    private final double thetaStep;
+    private final double phiStep;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Wraps a BRDF with 16 stripes
+     *
+     * @param brdf       The BRDF to cache
+     * @param resolution Angular size of a bin in degrees
+     * @param capacity   Maximum number of cached direction pairs
+     */
+    public CachingBRDF(BRDF brdf, float resolution, int capacity) {
+        this(brdf, resolution, capacity, 16);
+    }
+
+    /**
+     * Wraps a BRDF
+     *
+     * @param brdf       The BRDF to cache
+     * @param resolution Angular size of a bin in degrees
+     * @param capacity   Maximum number of cached direction pairs, rounded up to a power of two per stripe
+     * @param stripes    Number of independently locked stripes, rounded up to a power of two
+     * @throws IllegalArgumentException On a non-positive resolution, capacity or stripe count.
+     */
+    public CachingBRDF(BRDF brdf, float resolution, int capacity, int stripes) throws IllegalArgumentException {
+        if (!(resolution > 0) || capacity < 1 || stripes < 1) {
+            throw new IllegalArgumentException("Invalid cache configuration: resolution " + resolution + ", capacity " + capacity + ", stripes " + stripes);
+        }
+        this.brdf = brdf;
+        this.thetaBins = (int) Math.ceil(180 / resolution);
+        this.phiBins = (int) Math.ceil(360 / resolution);
+        this.thetaStep = Math.PI / thetaBins;
+        this.phiStep = 2 * Math.PI / phiBins;
+
+        int stripeCount = powerOfTwo(stripes);
+        int slots = powerOfTwo(Math.max(PROBES, (capacity + stripeCount - 1) / stripeCount));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(slots);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
+        if (reflectionType.equals(getReflectionType())) {
+            return f(in, out);
+        }
+        return brdf.f(in, out, reflectionType);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        long inBin = bin(inX, inY, inZ);
+        long outBin = bin(outX, outY, outZ);
+        long key = inBin * ((long) thetaBins * phiBins) + outBin;
+
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) hash & stripeMask];
+        int slot = (int) (hash >>> 32);
+
+        float r, g, b;
+        synchronized (stripe) {
+            int i = stripe.find(key, slot);
+            if (i >= 0) {
+                r = stripe.values[i * 3];
+                g = stripe.values[i * 3 + 1];
+                b = stripe.values[i * 3 + 2];
+                hits.increment();
+                dest[offset] += weight * r;
+                dest[offset + 1] += weight * g;
+                dest[offset + 2] += weight * b;
+                return;
+            }
+        }
+
+        // Evaluate outside the lock at the bin centres
+        misses.increment();
+        float[] rgb = new float[6];
+        centre(inBin, rgb, 3);
+        float cInX = rgb[3], cInY = rgb[4], cInZ = rgb[5];
+        centre(outBin, rgb, 3);
+        brdf.accumulateF(cInX, cInY, cInZ, rgb[3], rgb[4], rgb[5], 1, rgb, 0);
+        r = rgb[0];
+        g = rgb[1];
+        b = rgb[2];
+
+        synchronized (stripe) {
+            if (stripe.put(key, slot, r, g, b)) {
+                evictions.increment();
+            }
+        }
+        dest[offset] += weight * r;
+        dest[offset + 1] += weight * g;
+        dest[offset + 2] += weight * b;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        brdf.accumulateF(inX, inY, inZ, outX, outY, outZ, weight, lambda, dest);
+    }
+
+    /**
+     * Index of the (theta, phi) bin of a direction, with theta measured from the normal (+x)
+     */
+    private long bin(float x, float y, float z) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        double theta = Math.acos(Math.max(-1, Math.min(1, x / length)));
+        double phi = Math.atan2(z, y);
+        if (phi < 0) {
+            phi += 2 * Math.PI;
+        }
+        int t = Math.min(thetaBins - 1, (int) (theta / thetaStep));
+        int p = Math.min(phiBins - 1, (int) (phi / phiStep));
+        return (long) t * phiBins + p;
+    }
+
+    /**
+     * Unit direction at the centre of a bin
+     */
+    private void centre(long bin, float[] dest, int offset) {
+        double theta = ((int) (bin / phiBins) + 0.5) * thetaStep;
+        double phi = ((int) (bin % phiBins) + 0.5) * phiStep;
+        double sinTheta = Math.sin(theta);
+        dest[offset] = (float) Math.cos(theta);
+        dest[offset + 1] = (float) (sinTheta * Math.cos(phi));
+        dest[offset + 2] = (float) (sinTheta * Math.sin(phi));
+    }
+
+    /**
+     * SplitMix64 finaliser, spreading keys over stripes and slots
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Largest angle between a direction and the centre of its bin
+     *
+     * @return double Returns the angle in degrees.
+     */
+    public double getMaxAngularError() {
+        // Half the bin diagonal, with the phi extent largest at the equator
+        return Math.toDegrees(0.5 * Math.sqrt(thetaStep * thetaStep + phiStep * phiStep));
+    }
+
+    /**
+     * Measures the error of cached values against the wrapped BRDF over random direction pairs
+     * Incident directions are in the lower hemisphere (travelling towards the surface) and outgoing ones in the upper.
+     * Does not touch the cache.
+     *
+     * @param samples Number of direction pairs
+     * @param seed    Random seed
+     * @return double Returns the largest absolute RGB error.
+     */
+    public double estimateError(int samples, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] exact = new float[3];
+        float[] quantised = new float[9];
+        double maxError = 0;
+
+        for (int s = 0; s < samples; s++) {
+            float inX = (float) -random.nextDouble(), inY = (float) (random.nextDouble() * 2 - 1), inZ = (float) (random.nextDouble() * 2 - 1);
+            float outX = (float) random.nextDouble(), outY = (float) (random.nextDouble() * 2 - 1), outZ = (float) (random.nextDouble() * 2 - 1);
+            float inLength = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+            float outLength = (float) Math.sqrt(outX * outX + outY * outY + outZ * outZ);
+            inX /= inLength;
+            inY /= inLength;
+            inZ /= inLength;
+            outX /= outLength;
+            outY /= outLength;
+            outZ /= outLength;
+
+            exact[0] = exact[1] = exact[2] = 0;
+            brdf.accumulateF(inX, inY, inZ, outX, outY, outZ, 1, exact, 0);
+
+            quantised[0] = quantised[1] = quantised[2] = 0;
+            centre(bin(inX, inY, inZ), quantised, 3);
+            centre(bin(outX, outY, outZ), quantised, 6);
+            brdf.accumulateF(quantised[3], quantised[4], quantised[5], quantised[6], quantised[7], quantised[8], 1, quantised, 0);
+
+            for (int c = 0; c < 3; c++) {
+                maxError = Math.max(maxError, Math.abs(exact[c] - quantised[c]));
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * @return double Fraction of lookups served from the cache.
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Empties the cache and resets the metrics
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public BRDF getBRDF() {
+        return brdf;
+    }
+
+    @Override
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return brdf.sampleF(in, normal, dest);
+    }
+
+    @Override
+    public float getLobeExponent() {
+        return brdf.getLobeExponent();
+    }
+
+    @Override
+    public boolean canSampleDirection() {
+        return brdf.canSampleDirection();
+    }
+
+    @Override
+    public float sampleDirection(float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        return brdf.sampleDirection(inX, inY, inZ, u1, u2, dest);
+    }
+
+    @Override
+    public float pdf(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        return brdf.pdf(inX, inY, inZ, outX, outY, outZ);
+    }
+
+    @Override
+    public String getName() {
+        return brdf.getName();
+    }
+
+    @Override
+    public String getReflectionType() {
+        return brdf.getReflectionType();
+    }
+
+    @Override
+    public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        return brdf.getParameters();
+    }
+
+    @Override
+    public String serialise() {
+        return brdf.serialise();
+    }
+
+    /**
+     * One independently locked part of the cache: open addressing over primitive arrays
+     */
+    private static final class Stripe {
+        private final long[] keys;
+        private final float[] values;
+        private final int mask;
+        /**
+         * Next probe offset to evict when a probe window is full
+         */
+        private int victim;
+
+        Stripe(int slots) {
+            this.keys = new long[slots];
+            this.values = new float[slots * 3];
+            this.mask = slots - 1;
+            clear();
+        }
+
+        int find(long key, int slot) {
+            for (int p = 0; p < PROBES; p++) {
+                int i = (slot + p) & mask;
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return boolean Returns whether an entry was evicted.
+         */
+        boolean put(long key, int slot, float r, float g, float b) {
+            int target = -1;
+            boolean evicted = false;
+            for (int p = 0; p < PROBES && target < 0; p++) {
+                int i = (slot + p) & mask;
+                if (keys[i] == key || keys[i] == EMPTY) {
+                    target = i;
+                }
+            }
+            if (target < 0) {
+                target = (slot + victim) & mask;
+                victim = (victim + 1) % PROBES;
+                evicted = true;
+            }
+            keys[target] = key;
+            values[target * 3] = r;
+            values[target * 3 + 1] = g;
+            values[target * 3 + 2] = b;
+            return evicted;
+        }
+
+        void clear() {
+            Arrays.fill(keys, EMPTY);
+            victim = 0;
+        }
+    }
+}
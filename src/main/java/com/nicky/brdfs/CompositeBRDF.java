@@ -1,7 +1,9 @@
 package com.nicky.brdfs;
 
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -10,7 +12,11 @@ import java.util.Map;
 /**
  * <h1>Composite BRDF</h1>
  * Represents a Composite BRDF made up of other BRDF sub-components
- * Each sub-component has a weighting.
+ * Each sub-component has a weighting. The same BRDF instance may appear more than once (e.g. a shared leaf listed
+ * twice in a definition), and each appearance is kept as its own component.
+ * <p>
+ * An optimised composite (see CompositeOptimiser) evaluates reduced components but keeps the composite it was derived
+ * from, which it uses for sampling, the lobe exponent, parameters and serialisation, so only f changes.
  *
  * @author Nicky Buttigieg
  * @version 1.0
@@ -21,27 +27,81 @@ public class CompositeBRDF implements BRDF {
     private String name;
 
     /**
-     * Stores BRDF sub-components and their weighting
+     * Stores BRDF sub-components and their weighting, one entry per component in order
      */
-    private LinkedHashMap<BRDF, Float> components;
+    final BRDF[] componentArray;
+    final float[] weightArray;
+
+    /**
+     * The composite this one was optimised from, or this composite itself
+     */
+    private final CompositeBRDF original;
+
+    /**
+     * RGB evaluation kernel specialised to the component tree, see {@link CompositeKernel}
+     */
+    private final CompositeKernel kernel;
 
     public CompositeBRDF(String name, LinkedHashMap<BRDF, Float> components) {
+        this(name, components.keySet().toArray(new BRDF[0]), weightings(components));
+    }
+
+    /**
+     * @param name       BRDF Name
+     * @param components Sub-components, in order; the same BRDF may appear more than once
+     * @param weightings Weighting of each sub-component
+     * @throws IllegalArgumentException If the arrays differ in length.
+     */
+    public CompositeBRDF(String name, BRDF[] components, float[] weightings) throws IllegalArgumentException {
+        this(name, components, weightings, null);
+    }
+
+    /**
+     * An optimised form of a composite, evaluating the given components and sampling as the original does
+     *
+     * @param name       BRDF Name
+     * @param components Sub-components evaluated by f, in order
+     * @param weightings Weighting of each sub-component
+     * @param original   The composite these components are equivalent to under f, or null if they are its own
+     * @throws IllegalArgumentException If the arrays differ in length.
+     */
+    public CompositeBRDF(String name, BRDF[] components, float[] weightings, CompositeBRDF original) throws IllegalArgumentException {
+        if (components.length != weightings.length) {
+            throw new IllegalArgumentException(name + ": " + components.length + " components but " + weightings.length + " weightings");
+        }
         this.name = name;
-        this.components = components;
+        this.componentArray = components.clone();
+        this.weightArray = weightings.clone();
+        this.original = original == null ? this : original.original;
+        this.kernel = new CompositeKernel(componentArray, weightArray);
+    }
+
+    private static float[] weightings(Map<BRDF, Float> components) {
+        float[] weightings = new float[components.size()];
+        int i = 0;
+        for (float weighting : components.values()) {
+            weightings[i++] = weighting;
+        }
+        return weightings;
     }
 
     @Override
     public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
 
-        Spectrum reflectance = new Spectrum();
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        kernel.accumulateF(inX, inY, inZ, outX, outY, outZ, weight, dest, offset);
+    }
 
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
-            Spectrum s = entry.getKey().f(in, out);
-            s.mul(entry.getValue());
-            reflectance.add(s);
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        for (int i = 0; i < componentArray.length; i++) {
+            componentArray[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * weightArray[i], lambda, dest);
         }
-
-        return reflectance;
     }
 
     @Override
@@ -50,10 +110,10 @@ public class CompositeBRDF implements BRDF {
 
         boolean noComponents = true;
 
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
-            if (entry.getKey().getReflectionType().equals(reflectionType)) {
-                Spectrum s = entry.getKey().f(in, out);
-                s.mul(entry.getValue());
+        for (int i = 0; i < componentArray.length; i++) {
+            if (componentArray[i].getReflectionType().equals(reflectionType)) {
+                Spectrum s = componentArray[i].f(in, out);
+                s.mul(weightArray[i]);
                 reflectance.add(s);
                 noComponents = false;
             }
@@ -67,33 +127,48 @@ public class CompositeBRDF implements BRDF {
     }
 
     @Override
-    public Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal) {
-
-        Vector3f reflectedRay = new Vector3f();
-        Spectrum reflectance = new Spectrum();
-
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
-            Pair<Vector3f, Spectrum> samplef = entry.getKey().sampleF(in, normal);
-            reflectedRay.add(samplef.getKey());
-            samplef.getValue().mul(entry.getValue());
-            reflectance.add(samplef.getValue());
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        if (original != this) {
+            return original.sampleF(in, normal, dest);
         }
+        float dx = 0, dy = 0, dz = 0;
+        float r = 0, g = 0, b = 0;
+        int flags = 0;
 
-        reflectance.div(this.getComponents().size());
-        reflectedRay.div(this.getComponents().size());
+        // Each component overwrites dest, so accumulate as we go
+        for (int i = 0; i < componentArray.length; i++) {
+            componentArray[i].sampleF(in, normal, dest);
+            Vector3f direction = dest.getDirection();
+            Spectrum value = dest.getValue();
+            float weight = weightArray[i];
+            dx += direction.x;
+            dy += direction.y;
+            dz += direction.z;
+            r += value.getR() * weight;
+            g += value.getG() * weight;
+            b += value.getB() * weight;
+            flags |= dest.getFlags();
+        }
 
-        return new Pair<>(reflectedRay, reflectance);
+        int n = componentArray.length;
+        return dest.setDirection(dx / n, dy / n, dz / n)
+                .setValue(r / n, g / n, b / n)
+                .setPdf(1)
+                .setFlags(flags);
     }
 
     @Override
     public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        if (original != this) {
+            return original.getParameters();
+        }
         LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
 
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
-            parameters.put(entry.getKey().getName(), null); // BRDF name
-            LinkedHashMap<String, Pair<String, String>> componentParams = entry.getKey().getParameters();
+        for (BRDF component : componentArray) {
+            parameters.put(component.getName(), null); // BRDF name
+            LinkedHashMap<String, Pair<String, String>> componentParams = component.getParameters();
             for (Map.Entry<String, Pair<String, String>> params : componentParams.entrySet()) {
-                parameters.put(params.getKey() + "_" + entry.getKey().getName(), params.getValue());
+                parameters.put(params.getKey() + "_" + component.getName(), params.getValue());
             }
 
         }
@@ -105,31 +180,81 @@ public class CompositeBRDF implements BRDF {
         return null;
     }
 
+    /**
+     * The sharpest lobe of the sub-components
+     *
+     * @return float Returns the largest component lobe exponent.
+     */
+    @Override
+    public float getLobeExponent() {
+        if (original != this) {
+            return original.getLobeExponent();
+        }
+        float exponent = 0;
+        for (BRDF component : componentArray) {
+            exponent = Math.max(exponent, component.getLobeExponent());
+        }
+        return exponent;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * @return CompositeBRDF Returns the composite this one was optimised from, or this composite if it was not.
+     */
+    public CompositeBRDF getOriginal() {
+        return original;
+    }
+
+    /**
+     * The sub-components keyed by BRDF
+     * A BRDF that appears more than once is listed once with its weightings summed, so prefer
+     * {@link #getComponent(int)} and {@link #getWeighting(int)} when each component matters.
+     *
+     * @return LinkedHashMap<BRDF, Float> Returns a new map of the sub-components to their weightings.
+     */
     public LinkedHashMap<BRDF, Float> getComponents() {
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        for (int i = 0; i < componentArray.length; i++) {
+            components.merge(componentArray[i], weightArray[i], Float::sum);
+        }
         return components;
     }
 
+    public int getComponentCount() {
+        return componentArray.length;
+    }
+
+    public BRDF getComponent(int i) {
+        return componentArray[i];
+    }
+
+    public float getWeighting(int i) {
+        return weightArray[i];
+    }
+
     @Override
     public String serialise() {
+        if (original != this) {
+            return original.serialise();
+        }
         StringBuilder sb = new StringBuilder();
         int numComponents = 0;
         sb.append("\"components\": [");
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
+        for (int i = 0; i < componentArray.length; i++) {
             numComponents++;
             sb.append("{");
-            sb.append("\"name\": ").append("\"").append(entry.getKey().getName()).append("\",");
-            if (entry.getKey().getClass().equals(CompositeBRDF.class)) {
+            sb.append("\"name\": ").append("\"").append(componentArray[i].getName()).append("\",");
+            if (componentArray[i].getClass().equals(CompositeBRDF.class)) {
                 sb.append("\"type\": \"composite\",");
             } else {
                 sb.append("\"type\": \"simple\",");
             }
-            sb.append("\"weighting\": " + entry.getValue() + ",");
-            sb.append(entry.getKey().serialise());
-            if (numComponents < components.entrySet().size()) {
+            sb.append("\"weighting\": " + weightArray[i] + ",");
+            sb.append(componentArray[i].serialise());
+            if (numComponents < componentArray.length) {
                 sb.append("},");
             } else {
                 sb.append("}");
@@ -149,9 +274,9 @@ public class CompositeBRDF implements BRDF {
         // Get number between 0.1 and 1.0
         float randomNum = (float) (Math.random());
 
-        for (Map.Entry<BRDF, Float> entry : components.entrySet()) {
-            if (randomNum <= entry.getValue()) {
-                return entry.getKey();
+        for (int i = 0; i < componentArray.length; i++) {
+            if (randomNum <= weightArray[i]) {
+                return componentArray[i];
             }
         }
         return null;
@@ -0,0 +1,139 @@
+package com.nicky.brdfs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>Composite Kernel</h1>
+ * Evaluates a composite's component tree with the signature of
+ * {@link BRDF#accumulateF(float, float, float, float, float, float, float, float[], int)}.
+ * <p>
+ * A loop over components calls accumulateF from one call site that sees every model class, so the JIT cannot inline
+ * any of them. Here the leaves are split by exact model class into typed arrays, each evaluated by its own loop, so
+ * each loop's call site only ever sees one class and the model's kernel is inlined. Subclasses and other models go
+ * through a generic loop. Nested composites are flattened with their weightings folded in.
+ * <p>
+ * Components are held by reference, not by value, so later parameter changes (e.g. LambertianBRDF.setReflectivity)
+ * are still seen.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+final class CompositeKernel {
+
+    private final LambertianBRDF[] lambertians;
+    private final float[] lambertianWeightings;
+    private final PhongDiffuseBRDF[] phongDiffuses;
+    private final float[] phongDiffuseWeightings;
+    private final PhongSpecularBRDF[] phongSpeculars;
+    private final float[] phongSpecularWeightings;
+    private final ShinyDiffuseBRDF[] shinyDiffuses;
+    private final float[] shinyDiffuseWeightings;
+    private final GGXBRDF[] ggxs;
+    private final float[] ggxWeightings;
+    private final BRDF[] generics;
+    private final float[] genericWeightings;
+
+    /**
+     * Flattens a composite's components into typed arrays
+     *
+     * @param components Components
+     * @param weightings Weighting of each component
+     */
+    CompositeKernel(BRDF[] components, float[] weightings) {
+        List<BRDF> leaves = new ArrayList<>();
+        List<Float> leafWeightings = new ArrayList<>();
+        flatten(components, weightings, 1, leaves, leafWeightings);
+
+        lambertians = select(leaves, LambertianBRDF.class, new LambertianBRDF[0]);
+        lambertianWeightings = weightings(leaves, leafWeightings, LambertianBRDF.class);
+        phongDiffuses = select(leaves, PhongDiffuseBRDF.class, new PhongDiffuseBRDF[0]);
+        phongDiffuseWeightings = weightings(leaves, leafWeightings, PhongDiffuseBRDF.class);
+        phongSpeculars = select(leaves, PhongSpecularBRDF.class, new PhongSpecularBRDF[0]);
+        phongSpecularWeightings = weightings(leaves, leafWeightings, PhongSpecularBRDF.class);
+        shinyDiffuses = select(leaves, ShinyDiffuseBRDF.class, new ShinyDiffuseBRDF[0]);
+        shinyDiffuseWeightings = weightings(leaves, leafWeightings, ShinyDiffuseBRDF.class);
+        ggxs = select(leaves, GGXBRDF.class, new GGXBRDF[0]);
+        ggxWeightings = weightings(leaves, leafWeightings, GGXBRDF.class);
+        generics = select(leaves, null, new BRDF[0]);
+        genericWeightings = weightings(leaves, leafWeightings, null);
+    }
+
+    private static void flatten(BRDF[] components, float[] componentWeightings, float scale, List<BRDF> leaves, List<Float> weightings) {
+        for (int i = 0; i < components.length; i++) {
+            BRDF brdf = components[i];
+            float weighting = scale * componentWeightings[i];
+            if (brdf instanceof CompositeBRDF) {
+                CompositeBRDF composite = (CompositeBRDF) brdf;
+                flatten(composite.componentArray, composite.weightArray, weighting, leaves, weightings);
+            } else {
+                leaves.add(brdf);
+                weightings.add(weighting);
+            }
+        }
+    }
+
+    /**
+     * Model class with its own loop, so that subclasses fall back to the generic loop
+     */
+    private static Class<?> modelOf(BRDF brdf) {
+        Class<?> type = brdf.getClass();
+        if (type == LambertianBRDF.class || type == PhongDiffuseBRDF.class || type == PhongSpecularBRDF.class
+                || type == ShinyDiffuseBRDF.class || type == GGXBRDF.class) {
+            return type;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends BRDF> T[] select(List<BRDF> leaves, Class<?> model, T[] empty) {
+        List<T> selected = new ArrayList<>();
+        for (BRDF leaf : leaves) {
+            if (modelOf(leaf) == model) {
+                selected.add((T) leaf);
+            }
+        }
+        return selected.toArray(empty);
+    }
+
+    private static float[] weightings(List<BRDF> leaves, List<Float> weightings, Class<?> model) {
+        int count = 0;
+        for (BRDF leaf : leaves) {
+            if (modelOf(leaf) == model) {
+                count++;
+            }
+        }
+        float[] selected = new float[count];
+        for (int i = 0, j = 0; i < leaves.size(); i++) {
+            if (modelOf(leaves.get(i)) == model) {
+                selected[j++] = weightings.get(i);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Adds the weighted reflection of every leaf to an RGB buffer
+     */
+    void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        for (int i = 0; i < lambertians.length; i++) {
+            lambertians[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * lambertianWeightings[i], dest, offset);
+        }
+        for (int i = 0; i < phongDiffuses.length; i++) {
+            phongDiffuses[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * phongDiffuseWeightings[i], dest, offset);
+        }
+        for (int i = 0; i < phongSpeculars.length; i++) {
+            phongSpeculars[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * phongSpecularWeightings[i], dest, offset);
+        }
+        for (int i = 0; i < shinyDiffuses.length; i++) {
+            shinyDiffuses[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * shinyDiffuseWeightings[i], dest, offset);
+        }
+        for (int i = 0; i < ggxs.length; i++) {
+            ggxs[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * ggxWeightings[i], dest, offset);
+        }
+        for (int i = 0; i < generics.length; i++) {
+            generics[i].accumulateF(inX, inY, inZ, outX, outY, outZ, weight * genericWeightings[i], dest, offset);
+        }
+    }
+}
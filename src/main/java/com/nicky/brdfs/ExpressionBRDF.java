@@ -0,0 +1,232 @@
+package com.nicky.brdfs;
+
+import com.google.gson.JsonPrimitive;
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import com.nicky.expression.Expression;
+import com.nicky.expression.ExpressionKernel;
+import com.nicky.resources.Pair;
+import org.joml.Vector3f;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * <h1>Expression BRDF</h1>
+ * A BRDF whose reflectance is given by an arithmetic {@link Expression} over dot products of the normal, incident,
+ * outgoing, half and mirror directions and named scalar or RGB parameters, e.g.
+ * "ks * pow(max(0, dot(out, reflect)), n)".
+ * <p>
+ * The expression is compiled once, with its parameters folded in as constants, into a kernel class that the JIT
+ * compiles like hand-written code. An expression over an RGB parameter is folded once per channel, unless the RGB
+ * parameters form a separate factor; either way one kernel evaluates all three channels, so each evaluation makes a
+ * single call to the kernel. That call site is shared by every ExpressionBRDF and becomes megamorphic once several
+ * expressions are loaded, so the kernel is not inlined into it, but the cost is one interface call per evaluation
+ * rather than one per channel. Directions below the surface reflect nothing.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ExpressionBRDF implements BRDF {
+
+    private final Expression expression;
+    private final Map<String, Float> scalars;
+    private final Map<String, Spectrum> spectra;
+    private final String reflectionType;
+
+    private final boolean usesHalf;
+    private final ExpressionKernel kernel;
+
+    /**
+     * Whether the channels were folded separately, so spectral evaluation has to convert the RGB value per call
+     */
+    private final boolean perChannel;
+
+    /**
+     * Reflectivity scaling the kernel's expression, when the RGB parameters form a separate factor; null otherwise
+     */
+    private final RGBReflectanceSpectrum spectralScale;
+
+    /**
+     * @param expression     The reflectance expression
+     * @param scalars        Values of the scalar parameters
+     * @param spectra        Values of the RGB parameters
+     * @param reflectionType Diffuse or Specular
+     * @throws IllegalArgumentException On a parameter the expression uses without a value.
+     */
+    public ExpressionBRDF(Expression expression, Map<String, Float> scalars, Map<String, Spectrum> spectra, String reflectionType) throws IllegalArgumentException {
+        this.expression = expression;
+        this.scalars = Collections.unmodifiableMap(new LinkedHashMap<>(scalars));
+        this.spectra = Collections.unmodifiableMap(new LinkedHashMap<>(spectra));
+        this.reflectionType = reflectionType;
+        this.usesHalf = expression.usesHalf();
+
+        boolean spectral = expression.getParameters().stream().anyMatch(spectra::containsKey);
+        Expression[] separated = spectral ? expression.separate(spectra.keySet()) : null;
+        if (separated != null) {
+            // e.g. ks * pow(max(0, dot(out, reflect)), n): one expression scaled by ks, as the built-in models do
+            Spectrum scale = new Spectrum(separated[0].evaluate(values(0)), separated[0].evaluate(values(1)), separated[0].evaluate(values(2)));
+            this.spectralScale = RGBReflectanceSpectrum.fromRGB(scale);
+            this.kernel = separated[1].compile(values(0), scale.getR(), scale.getG(), scale.getB());
+            this.perChannel = false;
+        } else {
+            this.spectralScale = null;
+            this.kernel = spectral ? expression.compile(values(0), values(1), values(2)) : expression.compile(values(0));
+            this.perChannel = spectral;
+        }
+    }
+
+    /**
+     * Parameter values for one RGB channel
+     */
+    private Function<String, Float> values(int channel) {
+        return name -> {
+            Spectrum spectrum = spectra.get(name);
+            if (spectrum != null) {
+                return channel == 0 ? spectrum.getR() : channel == 1 ? spectrum.getG() : spectrum.getB();
+            }
+            return scalars.get(name);
+        };
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
+        if (reflectionType.equalsIgnoreCase(getReflectionType())) {
+            return f(in, out);
+        }
+        return null;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        evaluate(inX, inY, inZ, outX, outY, outZ, weight, dest, offset);
+    }
+
+    /**
+     * Spectral reflection; an expression whose RGB parameters are not a separate factor is converted from its RGB value
+     * per call
+     */
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        if (perChannel) {
+            float[] rgb = new float[3];
+            evaluate(inX, inY, inZ, outX, outY, outZ, weight, rgb, 0);
+            RGBReflectanceSpectrum.fromRGB(new Spectrum(rgb[0], rgb[1], rgb[2])).accumulate(lambda, 1, dest);
+            return;
+        }
+        float w = evaluate(inX, inY, inZ, outX, outY, outZ, weight, null, 0);
+        if (spectralScale != null) {
+            spectralScale.accumulate(lambda, w, dest);
+        } else {
+            dest.add(w, w, w, w);
+        }
+    }
+
+    /**
+     * Evaluates the kernel for a pair of local directions (normal along +x)
+     * With a buffer, adds every channel to it; without one, returns the unscaled value of the expression, e.g. for
+     * spectral evaluation. Either way, directions below the surface reflect nothing.
+     *
+     * @param dest RGB buffer accumulated into, or null
+     * @return float Returns the weighted value of the expression when dest is null, otherwise 0.
+     */
+    private float evaluate(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        // light = -in, reflect = mirror of in about the normal
+        float nl = -inX;
+        if (nl <= 0 || outX <= 0) {
+            return 0;
+        }
+        float lv = -(inX * outX + inY * outY + inZ * outZ);
+        float vr = outX * -inX + outY * inY + outZ * inZ;
+        float nh = 0, vh = 0;
+        if (usesHalf) {
+            float length = (float) Math.sqrt(2 + 2 * lv);
+            nh = (nl + outX) / length;
+            vh = (1 + lv) / length;
+        }
+        if (dest == null) {
+            return kernel.evaluate(nl, outX, nh, lv, vh, vr) * weight;
+        }
+        kernel.accumulate(nl, outX, nh, lv, vh, vr, weight, dest, offset);
+        return 0;
+    }
+
+    @Override
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        dest.setMirror(in, normal);
+        Vector3f mirror = dest.getDirection();
+        float[] rgb = new float[3];
+        // Evaluate in the local frame, where only the normal component is needed from each direction
+        float inN = in.dot(normal);
+        float outN = mirror.dot(normal);
+        float tangential = (float) Math.sqrt(Math.max(0, in.lengthSquared() - inN * inN));
+        accumulateF(inN, tangential, 0, outN, tangential, 0, 1, rgb, 0);
+        return dest.setValue(rgb[0], rgb[1], rgb[2])
+                .setPdf(1)
+                .setFlags("specular".equalsIgnoreCase(reflectionType) ? BRDFSample.SPECULAR : BRDFSample.DIFFUSE);
+    }
+
+    /**
+     * The expression, then each parameter keyed by its type and name
+     */
+    @Override
+    public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+        parameters.put("String", new Pair<>("Expression", expression.getSource()));
+        for (Map.Entry<String, Float> entry : scalars.entrySet()) {
+            parameters.put("float:" + entry.getKey(), new Pair<>(entry.getKey(), String.valueOf(entry.getValue())));
+        }
+        for (Map.Entry<String, Spectrum> entry : spectra.entrySet()) {
+            parameters.put("Spectrum:" + entry.getKey(), new Pair<>(entry.getKey(), entry.getValue().toString()));
+        }
+        return parameters;
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    public Map<String, Float> getScalars() {
+        return scalars;
+    }
+
+    public Map<String, Spectrum> getSpectra() {
+        return spectra;
+    }
+
+    @Override
+    public String getName() {
+        return "ExpressionBRDF";
+    }
+
+    @Override
+    public String getReflectionType() {
+        return reflectionType;
+    }
+
+    @Override
+    public String serialise() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"expression\": ").append(new JsonPrimitive(expression.getSource())).append(",");
+        sb.append("\"reflectionType\": \"").append(reflectionType).append("\"");
+        for (Map.Entry<String, Float> entry : scalars.entrySet()) {
+            sb.append(",\"").append(entry.getKey()).append("\": ").append(entry.getValue());
+        }
+        for (Map.Entry<String, Spectrum> entry : spectra.entrySet()) {
+            sb.append(",\"").append(entry.getKey()).append("\": [").append(entry.getValue().toString()).append("]");
+        }
+        return sb.toString();
+    }
+}
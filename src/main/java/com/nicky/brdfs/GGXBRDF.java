@@ -0,0 +1,337 @@
+package com.nicky.brdfs;
+
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import com.nicky.resources.Pair;
+import org.joml.Vector3f;
+
+import java.util.LinkedHashMap;
+
+/**
+ * <h1>GGX BRDF</h1>
+ * Represents a GGX (Trowbridge-Reitz) microfacet BRDF with Schlick Fresnel and the height-correlated Smith
+ * masking-shadowing term. Supports importance sampling of the distribution of visible normals (Heitz 2018)
+ * with its exact pdf.
+ * <p>
+ * As with the Phong models, the incident ray travels towards the surface and the normal is (1, 0, 0).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class GGXBRDF implements BRDF {
+
+    /**
+     * Reflectivity at normal incidence (F0)
+     */
+    private Spectrum specularReflectivity;
+    private final float[] spectralSpecularReflectivity = new float[RGBReflectanceSpectrum.BINS];
+
+    /**
+     * Perceptual roughness in (0, 1]; the GGX alpha is roughness squared
+     */
+    private float roughness;
+    private float alpha;
+
+    public GGXBRDF(Spectrum specularReflectivity, float roughness) {
+        this.specularReflectivity = specularReflectivity;
+        RGBReflectanceSpectrum.toBins(specularReflectivity.getR(), specularReflectivity.getG(), specularReflectivity.getB(),
+                spectralSpecularReflectivity, 0);
+        this.roughness = roughness;
+        this.alpha = alpha(roughness);
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        accumulate(specularReflectivity.getR(), specularReflectivity.getG(), specularReflectivity.getB(), alpha,
+                inX, inY, inZ, outX, outY, outZ, weight, dest, offset);
+    }
+
+    /**
+     * Evaluation kernel on plain parameters, shared with MaterialTable
+     *
+     * @param r     F0 red
+     * @param g     F0 green
+     * @param b     F0 blue
+     * @param alpha GGX alpha (roughness squared)
+     */
+    static void accumulate(float r, float g, float b, float alpha, float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        // Direction towards the light
+        float lx = -inX, ly = -inY, lz = -inZ;
+        if (lx <= 0 || outX <= 0) {
+            return;
+        }
+        float hx = lx + outX, hy = ly + outY, hz = lz + outZ;
+        float hLength = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float cosH = hx / hLength;
+        float vDotH = Math.max(0, (outX * hx + outY * hy + outZ * hz) / hLength);
+
+        float w = weight * distribution(cosH, alpha) * visibility(lx, outX, alpha);
+        float fc = fresnelWeight(vDotH);
+
+        dest[offset] += w * (r + (1 - r) * fc);
+        dest[offset + 1] += w * (g + (1 - g) * fc);
+        dest[offset + 2] += w * (b + (1 - b) * fc);
+    }
+
+    /**
+     * GGX alpha of a perceptual roughness
+     */
+    static float alpha(float roughness) {
+        return Math.max(1e-4f, roughness * roughness);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        accumulate(spectralSpecularReflectivity, 0, alpha, inX, inY, inZ, outX, outY, outZ, weight, lambda, dest);
+    }
+
+    /**
+     * Spectral evaluation kernel on plain parameters, shared with MaterialTable
+     *
+     * @param bins   F0 spectral bins, see {@link RGBReflectanceSpectrum#toBins}
+     * @param offset Index of the first bin in bins
+     * @param alpha  GGX alpha (roughness squared)
+     */
+    static void accumulate(float[] bins, int offset, float alpha, float inX, float inY, float inZ, float outX, float outY, float outZ,
+                           float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        float lx = -inX, ly = -inY, lz = -inZ;
+        if (lx <= 0 || outX <= 0) {
+            return;
+        }
+        float hx = lx + outX, hy = ly + outY, hz = lz + outZ;
+        float hLength = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float cosH = hx / hLength;
+        float vDotH = Math.max(0, (outX * hx + outY * hy + outZ * hz) / hLength);
+
+        float w = weight * distribution(cosH, alpha) * visibility(lx, outX, alpha);
+        float fc = fresnelWeight(vDotH);
+
+        // F0 + (1 - F0) * Fc = F0 * (1 - Fc) + Fc
+        RGBReflectanceSpectrum.accumulate(bins, offset, lambda, w * (1 - fc), dest);
+        dest.add(w * fc, w * fc, w * fc, w * fc);
+    }
+
+    /**
+     * GGX normal distribution D(h)
+     */
+    private static float distribution(float cosH, float alpha) {
+        if (cosH <= 0) {
+            return 0;
+        }
+        float a2 = alpha * alpha;
+        float t = cosH * cosH * (a2 - 1) + 1;
+        return (float) (a2 / (Math.PI * t * t));
+    }
+
+    /**
+     * Height-correlated Smith term divided by the 4 cos cos denominator of the microfacet BRDF
+     */
+    private static float visibility(float cosL, float cosV, float alpha) {
+        float a2 = alpha * alpha;
+        float lambdaV = cosL * (float) Math.sqrt(cosV * cosV * (1 - a2) + a2);
+        float lambdaL = cosV * (float) Math.sqrt(cosL * cosL * (1 - a2) + a2);
+        return 0.5f / (lambdaV + lambdaL);
+    }
+
+    /**
+     * Smith masking term G1 for one direction
+     */
+    private static float smithG1(float cosTheta, float alpha) {
+        float a2 = alpha * alpha;
+        return 2 * cosTheta / (cosTheta + (float) Math.sqrt(a2 + (1 - a2) * cosTheta * cosTheta));
+    }
+
+    private static float fresnelWeight(float vDotH) {
+        float m = 1 - vDotH;
+        float m2 = m * m;
+        return m2 * m2 * m;
+    }
+
+    @Override
+    public boolean canSampleDirection() {
+        return true;
+    }
+
+    /**
+     * Samples the distribution of visible normals seen from the light and reflects about the sampled normal
+     * Works in a z-up tangent space (x, y, z) = (local y, local z, local x).
+     */
+    @Override
+    public float sampleDirection(float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        return sampleDirection(alpha, inX, inY, inZ, u1, u2, dest);
+    }
+
+    /**
+     * Sampling kernel on plain parameters, shared with MaterialTable
+     *
+     * @param alpha GGX alpha (roughness squared)
+     */
+    static float sampleDirection(float alpha, float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        float length = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+        // Direction towards the light in tangent space
+        float vx = -inY / length, vy = -inZ / length, vz = -inX / length;
+        if (vz <= 0) {
+            return 0;
+        }
+
+        // Stretch into the hemisphere configuration
+        float hx = alpha * vx, hy = alpha * vy, hz = vz;
+        float hLength = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        hx /= hLength;
+        hy /= hLength;
+        hz /= hLength;
+
+        // Orthonormal basis around the stretched view direction
+        float lensq = hx * hx + hy * hy;
+        float t1x, t1y;
+        if (lensq > 0) {
+            float inv = 1 / (float) Math.sqrt(lensq);
+            t1x = -hy * inv;
+            t1y = hx * inv;
+        } else {
+            t1x = 1;
+            t1y = 0;
+        }
+        // T2 = cross(Vh, T1), with T1.z = 0
+        float t2x = -hz * t1y, t2y = hz * t1x, t2z = hx * t1y - hy * t1x;
+
+        // Sample the projected area of the visible hemisphere
+        float r = (float) Math.sqrt(u1);
+        float phi = (float) (2 * Math.PI * u2);
+        float p1 = r * (float) Math.cos(phi);
+        float p2 = r * (float) Math.sin(phi);
+        float s = 0.5f * (1 + hz);
+        p2 = (1 - s) * (float) Math.sqrt(1 - p1 * p1) + s * p2;
+        float p3 = (float) Math.sqrt(Math.max(0, 1 - p1 * p1 - p2 * p2));
+
+        float nx = p1 * t1x + p2 * t2x + p3 * hx;
+        float ny = p1 * t1y + p2 * t2y + p3 * hy;
+        float nz = p2 * t2z + p3 * hz;
+
+        // Unstretch to the microfacet normal
+        nx *= alpha;
+        ny *= alpha;
+        nz = Math.max(1e-6f, nz);
+        float nLength = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= nLength;
+        ny /= nLength;
+        nz /= nLength;
+
+        // Reflect the light direction about the microfacet normal
+        float vDotN = vx * nx + vy * ny + vz * nz;
+        float ox = 2 * vDotN * nx - vx;
+        float oy = 2 * vDotN * ny - vy;
+        float oz = 2 * vDotN * nz - vz;
+        if (oz <= 0) {
+            return 0;
+        }
+
+        dest.set(oz, ox, oy);
+        return vndfPdf(alpha, vz, nz, vDotN);
+    }
+
+    @Override
+    public float pdf(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        return pdf(alpha, inX, inY, inZ, outX, outY, outZ);
+    }
+
+    /**
+     * pdf kernel on plain parameters, shared with MaterialTable
+     *
+     * @param alpha GGX alpha (roughness squared)
+     */
+    static float pdf(float alpha, float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        float length = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+        float lx = -inX / length, ly = -inY / length, lz = -inZ / length;
+        if (lx <= 0 || outX <= 0) {
+            return 0;
+        }
+        float hx = lx + outX, hy = ly + outY, hz = lz + outZ;
+        float hLength = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float lDotH = (lx * hx + ly * hy + lz * hz) / hLength;
+        return vndfPdf(alpha, lx, hx / hLength, lDotH);
+    }
+
+    /**
+     * pdf of a reflected direction under VNDF sampling: G1(v) * max(0, v.h) * D(h) / (v.n) / (4 v.h)
+     */
+    private static float vndfPdf(float alpha, float cosV, float cosH, float vDotH) {
+        if (vDotH <= 0) {
+            return 0;
+        }
+        return smithG1(cosV, alpha) * distribution(cosH, alpha) / (4 * cosV);
+    }
+
+    /**
+     * Equivalent Phong exponent of the lobe, so composites and Phong-based samplers can approximate it
+     *
+     * @return float Returns 2 / alpha^2 - 2.
+     */
+    @Override
+    public float getLobeExponent() {
+        return Math.max(0, 2 / (alpha * alpha) - 2);
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
+        if (reflectionType.equals(getReflectionType())) {
+            return f(in, out);
+        }
+        return null;
+    }
+
+    @Override
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return dest.setMirror(in, normal)
+                .setValue(specularReflectivity.getR(), specularReflectivity.getG(), specularReflectivity.getB())
+                .setPdf(1)
+                .setFlags(BRDFSample.SPECULAR);
+    }
+
+    @Override
+    public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+        Pair<String, String> pair1 = new Pair<>("Specular Reflectivity", specularReflectivity.toString());
+        Pair<String, String> pair2 = new Pair<>("Roughness", String.valueOf(roughness));
+
+        parameters.put("Spectrum", pair1);
+        parameters.put("float", pair2);
+        return parameters;
+    }
+
+    public Spectrum getSpecularReflectivity() {
+        return specularReflectivity;
+    }
+
+    public float getRoughness() {
+        return roughness;
+    }
+
+    @Override
+    public String getName() {
+        return "GGXBRDF";
+    }
+
+    @Override
+    public String getReflectionType() {
+        return "specular";
+    }
+
+    @Override
+    public String serialise() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"roughness\": ").append(roughness).append(",");
+        sb.append("\"specularReflectivity\": [").append(specularReflectivity.toString()).append("]");
+        return sb.toString();
+    }
+}
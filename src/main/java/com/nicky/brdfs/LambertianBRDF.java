@@ -1,7 +1,10 @@
 package com.nicky.brdfs;
 
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -17,9 +20,10 @@ import java.util.LinkedHashMap;
 public class LambertianBRDF implements BRDF {
 
     private Spectrum reflectivity;
+    private RGBReflectanceSpectrum spectralReflectivity;
 
     public LambertianBRDF(Spectrum reflectivity) {
-        this.reflectivity = reflectivity;
+        setReflectivity(reflectivity);
     }
 
     @Override
@@ -31,6 +35,19 @@ public class LambertianBRDF implements BRDF {
         return reflectance;
     }
 
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        float w = weight / (float) Math.PI;
+        dest[offset] += reflectivity.getR() * w;
+        dest[offset + 1] += reflectivity.getG() * w;
+        dest[offset + 2] += reflectivity.getB() * w;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        spectralReflectivity.accumulate(lambda, weight / (float) Math.PI, dest);
+    }
+
     @Override
     public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
         if (reflectionType.equals(getReflectionType())) {
@@ -40,16 +57,11 @@ public class LambertianBRDF implements BRDF {
     }
 
     @Override
-    public Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal) {
-        Vector3f reflectedRay = new Vector3f();
-
-        float cosND = Math.max(-in.dot(normal), 0);
-        float dn = 2 * cosND;
-        reflectedRay.x = (dn * normal.x) + in.x;
-        reflectedRay.y = (dn * normal.y) + in.y;
-        reflectedRay.z = (dn * normal.z) + in.z;
-
-        return new Pair<>(reflectedRay, null);
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return dest.setMirror(in, normal)
+                .setValue(reflectivity.getR(), reflectivity.getG(), reflectivity.getB())
+                .setPdf(1)
+                .setFlags(BRDFSample.DIFFUSE);
     }
 
     @Override
@@ -67,6 +79,7 @@ public class LambertianBRDF implements BRDF {
 
     public void setReflectivity(Spectrum reflectivity) {
         this.reflectivity = reflectivity;
+        this.spectralReflectivity = RGBReflectanceSpectrum.fromRGB(reflectivity);
     }
 
     public String getName() {
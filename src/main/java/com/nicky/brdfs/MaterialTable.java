@@ -0,0 +1,695 @@
+package com.nicky.brdfs;
+
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Material Table</h1>
+ * Columnar store for large numbers of parameterised materials, such as per-object variants of a few models.
+ * Each model type keeps its parameters in one primitive array per parameter, so a material costs a few floats rather
+ * than a BRDF, its Spectrum objects and, for composites, a LinkedHashMap. Materials are addressed by integer ID;
+ * {@link #view(int)} returns a flyweight {@link MaterialView} when a BRDF is needed.
+ * <p>
+ * Composites store their component IDs and weightings in two flat arrays. A composite's components must already be in
+ * the table, so components always have lower IDs than the composites using them.
+ * <p>
+ * Each leaf row also keeps its reflectivity converted to spectral bins, so RGB and spectral evaluation, typed
+ * evaluation and sampling all read the columns. Only {@link #materialise(int)} builds BRDF objects, on every call.
+ * <p>
+ * Adding materials is not thread-safe. Once populated, the table may be evaluated from any number of threads.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class MaterialTable {
+
+    /**
+     * Model types
+     */
+    public static final int LAMBERTIAN = 0;
+    public static final int PHONG_DIFFUSE = 1;
+    public static final int PHONG_SPECULAR = 2;
+    public static final int SHINY_DIFFUSE = 3;
+    public static final int GGX = 4;
+    public static final int COMPOSITE = 5;
+
+    /**
+     * Parameter columns of each leaf model type: R, G, B, then the model's scalar parameter
+     * (specular exponent, reflection, or GGX roughness followed by its alpha)
+     */
+    static final int R = 0;
+    static final int G = 1;
+    static final int B = 2;
+    static final int P = 3;
+    static final int ALPHA = 4;
+
+    private static final int[] COLUMNS = {3, 3, 4, 4, 5};
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float INV_PI = (float) (1 / Math.PI);
+
+    /**
+     * Type and row within the type's block of each material ID
+     */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final Block[] blocks = new Block[COLUMNS.length];
+
+    /**
+     * Composite rows: name, and the range of their components in componentIds and componentWeights
+     */
+    private String[] compositeNames = new String[INITIAL_CAPACITY];
+    private int[] compositeIds = new int[INITIAL_CAPACITY];
+    private int[] compositeStarts = new int[INITIAL_CAPACITY + 1];
+    private int compositeCount;
+    private int[] componentIds = new int[INITIAL_CAPACITY];
+    private float[] componentWeights = new float[INITIAL_CAPACITY];
+
+    public MaterialTable() {
+        for (int type = 0; type < COLUMNS.length; type++) {
+            blocks[type] = new Block(COLUMNS[type]);
+        }
+    }
+
+    public int addLambertian(float r, float g, float b) {
+        return addLeaf(LAMBERTIAN, r, g, b, 0);
+    }
+
+    public int addPhongDiffuse(float r, float g, float b) {
+        return addLeaf(PHONG_DIFFUSE, r, g, b, 0);
+    }
+
+    public int addPhongSpecular(float r, float g, float b, float specularExponent) {
+        return addLeaf(PHONG_SPECULAR, r, g, b, specularExponent);
+    }
+
+    public int addShinyDiffuse(float r, float g, float b, float reflection) {
+        return addLeaf(SHINY_DIFFUSE, r, g, b, reflection);
+    }
+
+    public int addGGX(float r, float g, float b, float roughness) {
+        int id = addLeaf(GGX, r, g, b, roughness);
+        Block block = blocks[GGX];
+        block.columns[ALPHA][rows[id]] = GGXBRDF.alpha(roughness);
+        return id;
+    }
+
+    /**
+     * Adds a composite of materials already in the table
+     *
+     * @param name       Name of the composite
+     * @param ids        Component material IDs
+     * @param weightings Weighting of each component
+     * @return int Returns the ID of the composite.
+     * @throws IndexOutOfBoundsException On a component ID not in the table.
+     * @throws IllegalArgumentException  If the numbers of IDs and weightings differ.
+     */
+    public int addComposite(String name, int[] ids, float[] weightings) throws IndexOutOfBoundsException, IllegalArgumentException {
+        if (ids.length != weightings.length) {
+            throw new IllegalArgumentException("Composite " + name + " has " + ids.length + " components and " + weightings.length + " weightings");
+        }
+        for (int component : ids) {
+            checkId(component);
+        }
+
+        int start = compositeStarts[compositeCount];
+        int end = start + ids.length;
+        if (end > componentIds.length) {
+            int capacity = Math.max(end, componentIds.length * 2);
+            componentIds = Arrays.copyOf(componentIds, capacity);
+            componentWeights = Arrays.copyOf(componentWeights, capacity);
+        }
+        System.arraycopy(ids, 0, componentIds, start, ids.length);
+        System.arraycopy(weightings, 0, componentWeights, start, ids.length);
+
+        if (compositeCount + 1 == compositeNames.length) {
+            compositeNames = Arrays.copyOf(compositeNames, compositeNames.length * 2);
+            compositeIds = Arrays.copyOf(compositeIds, compositeIds.length * 2);
+            compositeStarts = Arrays.copyOf(compositeStarts, compositeStarts.length * 2);
+        }
+        int row = compositeCount++;
+        compositeNames[row] = name;
+        compositeStarts[row + 1] = end;
+
+        int id = addId(COMPOSITE, row);
+        compositeIds[row] = id;
+        return id;
+    }
+
+    /**
+     * Copies the parameters of a BRDF into the table
+     * Components of a composite are added first, each with its own ID.
+     *
+     * @param brdf The BRDF
+     * @return int Returns the ID of the material.
+     * @throws IllegalArgumentException On a BRDF type the table cannot store.
+     */
+    public int add(BRDF brdf) throws IllegalArgumentException {
+        if (brdf instanceof LambertianBRDF) {
+            Spectrum s = ((LambertianBRDF) brdf).getReflectivity();
+            return addLambertian(s.getR(), s.getG(), s.getB());
+        } else if (brdf instanceof PhongDiffuseBRDF) {
+            Spectrum s = ((PhongDiffuseBRDF) brdf).getDiffuseReflectivity();
+            return addPhongDiffuse(s.getR(), s.getG(), s.getB());
+        } else if (brdf instanceof PhongSpecularBRDF) {
+            PhongSpecularBRDF specular = (PhongSpecularBRDF) brdf;
+            Spectrum s = specular.getSpecularReflectivity();
+            return addPhongSpecular(s.getR(), s.getG(), s.getB(), specular.getSpecularExponent());
+        } else if (brdf instanceof ShinyDiffuseBRDF) {
+            ShinyDiffuseBRDF shiny = (ShinyDiffuseBRDF) brdf;
+            Spectrum s = shiny.getDiffuseReflectivity();
+            return addShinyDiffuse(s.getR(), s.getG(), s.getB(), shiny.getReflection());
+        } else if (brdf instanceof GGXBRDF) {
+            GGXBRDF ggx = (GGXBRDF) brdf;
+            Spectrum s = ggx.getSpecularReflectivity();
+            return addGGX(s.getR(), s.getG(), s.getB(), ggx.getRoughness());
+        } else if (brdf instanceof CompositeBRDF) {
+            CompositeBRDF composite = (CompositeBRDF) brdf;
+            int[] ids = new int[composite.getComponentCount()];
+            float[] weightings = new float[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = add(composite.getComponent(i));
+                weightings[i] = composite.getWeighting(i);
+            }
+            return addComposite(composite.getName(), ids, weightings);
+        } else if (brdf instanceof MaterialView && ((MaterialView) brdf).getTable() == this) {
+            return ((MaterialView) brdf).getId();
+        }
+        throw new IllegalArgumentException("Cannot store " + brdf.getName() + " in a material table");
+    }
+
+    private int addLeaf(int type, float r, float g, float b, float p) {
+        Block block = blocks[type];
+        int row = block.add();
+        block.columns[R][row] = r;
+        block.columns[G][row] = g;
+        block.columns[B][row] = b;
+        RGBReflectanceSpectrum.toBins(r, g, b, block.spectra, row * RGBReflectanceSpectrum.BINS);
+        if (block.columns.length > P) {
+            block.columns[P][row] = p;
+        }
+        int id = addId(type, row);
+        block.ids[row] = id;
+        return id;
+    }
+
+    private int addId(int type, int row) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        types[size] = (byte) type;
+        rows[size] = row;
+        return size++;
+    }
+
+    /**
+     * Replaces the reflectivity of a leaf material
+     *
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     * @throws IllegalArgumentException  If the material is a composite.
+     */
+    public void setReflectivity(int id, float r, float g, float b) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[][] columns = leafColumns(id);
+        int row = rows[id];
+        columns[R][row] = r;
+        columns[G][row] = g;
+        columns[B][row] = b;
+        RGBReflectanceSpectrum.toBins(r, g, b, blocks[types[id]].spectra, row * RGBReflectanceSpectrum.BINS);
+    }
+
+    /**
+     * Replaces the scalar parameter of a leaf material: the specular exponent, reflection or roughness
+     *
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     * @throws IllegalArgumentException  If the material has no scalar parameter.
+     */
+    public void setParameter(int id, float value) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[][] columns = leafColumns(id);
+        if (columns.length <= P) {
+            throw new IllegalArgumentException("Material " + id + " has no scalar parameter");
+        }
+        int row = rows[id];
+        columns[P][row] = value;
+        if (types[id] == GGX) {
+            columns[ALPHA][row] = GGXBRDF.alpha(value);
+        }
+    }
+
+    private float[][] leafColumns(int id) throws IndexOutOfBoundsException, IllegalArgumentException {
+        checkId(id);
+        if (types[id] == COMPOSITE) {
+            throw new IllegalArgumentException("Material " + id + " is a composite");
+        }
+        return blocks[types[id]].columns;
+    }
+
+    private void checkId(int id) throws IndexOutOfBoundsException {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Material " + id + " is not in the table of " + size);
+        }
+    }
+
+    /**
+     * Adds the weighted reflection of one material to an RGB buffer (normal along +x)
+     *
+     * @param id     The material ID
+     * @param weight Weight applied to the reflection
+     * @param dest   RGB buffer accumulated into
+     * @param offset Index of the red channel in dest
+     */
+    public void accumulateF(int id, float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        int type = types[id];
+        int row = rows[id];
+        if (type == COMPOSITE) {
+            for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                accumulateF(componentIds[c], inX, inY, inZ, outX, outY, outZ, weight * componentWeights[c], dest, offset);
+            }
+            return;
+        }
+
+        float[][] columns = blocks[type].columns;
+        float r = columns[R][row], g = columns[G][row], b = columns[B][row];
+        float w;
+        switch (type) {
+            case LAMBERTIAN:
+            case PHONG_DIFFUSE:
+                w = weight * INV_PI;
+                break;
+            case PHONG_SPECULAR:
+                w = weight * (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), columns[P][row]);
+                break;
+            case SHINY_DIFFUSE:
+                w = weight * INV_PI;
+                float reflection = columns[P][row];
+                if (reflection != 0) {
+                    w *= (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), reflection);
+                }
+                break;
+            default:
+                GGXBRDF.accumulate(r, g, b, columns[ALPHA][row], inX, inY, inZ, outX, outY, outZ, weight, dest, offset);
+                return;
+        }
+        dest[offset] += r * w;
+        dest[offset + 1] += g * w;
+        dest[offset + 2] += b * w;
+    }
+
+    /**
+     * Adds the weighted spectral reflection of one material at the sampled wavelengths (normal along +x)
+     *
+     * @param id     The material ID
+     * @param weight Weight applied to the reflection
+     * @param lambda The sampled wavelengths
+     * @param dest   The SampledSpectrum accumulated into
+     */
+    public void accumulateF(int id, float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        int type = types[id];
+        int row = rows[id];
+        if (type == COMPOSITE) {
+            for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                accumulateF(componentIds[c], inX, inY, inZ, outX, outY, outZ, weight * componentWeights[c], lambda, dest);
+            }
+            return;
+        }
+
+        Block block = blocks[type];
+        int bins = row * RGBReflectanceSpectrum.BINS;
+        float w;
+        switch (type) {
+            case LAMBERTIAN:
+            case PHONG_DIFFUSE:
+                w = weight * INV_PI;
+                break;
+            case PHONG_SPECULAR:
+                w = weight * (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), block.columns[P][row]);
+                break;
+            case SHINY_DIFFUSE:
+                w = weight * INV_PI;
+                float reflection = block.columns[P][row];
+                if (reflection != 0) {
+                    w *= (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), reflection);
+                }
+                break;
+            default:
+                GGXBRDF.accumulate(block.spectra, bins, block.columns[ALPHA][row], inX, inY, inZ, outX, outY, outZ, weight, lambda, dest);
+                return;
+        }
+        RGBReflectanceSpectrum.accumulate(block.spectra, bins, lambda, w, dest);
+    }
+
+    /**
+     * Evaluates one material's reflection of a single type, as the models' f(in, out, reflectionType) would
+     * A composite sums its components whose reflection type matches.
+     *
+     * @param id             The material ID
+     * @param reflectionType "diffuse", "specular" or "both"
+     * @return Spectrum Returns the reflection, or null if the material has no reflection of that type.
+     */
+    Spectrum f(int id, Vector3f in, Vector3f out, String reflectionType) {
+        int type = types[id];
+        int row = rows[id];
+        if (type == COMPOSITE) {
+            float[] rgb = new float[3];
+            boolean noComponents = true;
+            for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                if (reflectionType.equals(getReflectionType(componentIds[c]))) {
+                    accumulateF(componentIds[c], in.x, in.y, in.z, out.x, out.y, out.z, componentWeights[c], rgb, 0);
+                    noComponents = false;
+                }
+            }
+            return noComponents ? null : new Spectrum(rgb[0], rgb[1], rgb[2]);
+        }
+
+        if (type == SHINY_DIFFUSE) {
+            // The diffuse part alone, and no perfectly specular part
+            if (reflectionType.equals("diffuse")) {
+                float[][] columns = blocks[type].columns;
+                return new Spectrum(columns[R][row] * INV_PI, columns[G][row] * INV_PI, columns[B][row] * INV_PI);
+            } else if (reflectionType.equals("specular")) {
+                return new Spectrum(0, 0, 0);
+            }
+            return null;
+        }
+        if (!reflectionType.equals(getReflectionType(id))) {
+            return null;
+        }
+        float[] rgb = new float[3];
+        accumulateF(id, in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    /**
+     * Evaluates a batch of materials, each with its own pair of local directions
+     *
+     * @param ids   Material ID of each entry
+     * @param in    Local incident rays, 3 floats per entry
+     * @param out   Local outgoing rays, 3 floats per entry
+     * @param dest  RGB reflection of each entry, 3 floats per entry (overwritten)
+     * @param count Number of entries
+     */
+    public void evaluate(int[] ids, float[] in, float[] out, float[] dest, int count) {
+        for (int e = 0; e < count; e++) {
+            int i = e * 3;
+            dest[i] = 0;
+            dest[i + 1] = 0;
+            dest[i + 2] = 0;
+            accumulateF(ids[e], in[i], in[i + 1], in[i + 2], out[i], out[i + 1], out[i + 2], 1, dest, i);
+        }
+    }
+
+    /**
+     * Evaluates every material in the table for one pair of local directions
+     * Each model type is evaluated in a single pass over its columns, so the loops are branch-free per type; the
+     * geometric terms shared by all materials are computed once.
+     *
+     * @param dest RGB reflection indexed by material ID, at least 3 * size() floats (overwritten)
+     */
+    public void evaluateAll(float inX, float inY, float inZ, float outX, float outY, float outZ, float[] dest) {
+        float cosine = PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ);
+
+        for (int type = LAMBERTIAN; type <= GGX; type++) {
+            Block block = blocks[type];
+            float[] r = block.columns[R], g = block.columns[G], b = block.columns[B];
+            float[] p = block.columns.length > P ? block.columns[P] : null;
+            int[] ids = block.ids;
+            for (int row = 0, n = block.size; row < n; row++) {
+                int i = ids[row] * 3;
+                float w;
+                if (type == LAMBERTIAN || type == PHONG_DIFFUSE) {
+                    w = INV_PI;
+                } else if (type == PHONG_SPECULAR) {
+                    w = (float) Math.pow(cosine, p[row]);
+                } else if (type == SHINY_DIFFUSE) {
+                    w = p[row] != 0 ? INV_PI * (float) Math.pow(cosine, p[row]) : INV_PI;
+                } else {
+                    dest[i] = 0;
+                    dest[i + 1] = 0;
+                    dest[i + 2] = 0;
+                    GGXBRDF.accumulate(r[row], g[row], b[row], block.columns[ALPHA][row], inX, inY, inZ, outX, outY, outZ, 1, dest, i);
+                    continue;
+                }
+                dest[i] = r[row] * w;
+                dest[i + 1] = g[row] * w;
+                dest[i + 2] = b[row] * w;
+            }
+        }
+
+        // Components have lower IDs than their composites, so composites in insertion order see finished components
+        for (int row = 0; row < compositeCount; row++) {
+            int i = compositeIds[row] * 3;
+            float sr = 0, sg = 0, sb = 0;
+            for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                int j = componentIds[c] * 3;
+                float w = componentWeights[c];
+                sr += dest[j] * w;
+                sg += dest[j + 1] * w;
+                sb += dest[j + 2] * w;
+            }
+            dest[i] = sr;
+            dest[i + 1] = sg;
+            dest[i + 2] = sb;
+        }
+    }
+
+    /**
+     * Returns a flyweight BRDF for a material
+     * The view holds only the table and the ID; evaluation reads the table's columns directly.
+     *
+     * @param id The material ID
+     * @return MaterialView Returns the view.
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     */
+    public MaterialView view(int id) throws IndexOutOfBoundsException {
+        checkId(id);
+        return new MaterialView(this, id);
+    }
+
+    /**
+     * Builds a standalone BRDF object graph for a material, e.g. for spectral evaluation or serialisation
+     *
+     * @param id The material ID
+     * @return BRDF Returns a new BRDF with the material's current parameters.
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     */
+    public BRDF materialise(int id) throws IndexOutOfBoundsException {
+        checkId(id);
+        int type = types[id];
+        int row = rows[id];
+        if (type == COMPOSITE) {
+            int start = compositeStarts[row];
+            BRDF[] components = new BRDF[compositeStarts[row + 1] - start];
+            float[] weightings = new float[components.length];
+            for (int c = 0; c < components.length; c++) {
+                components[c] = materialise(componentIds[start + c]);
+                weightings[c] = componentWeights[start + c];
+            }
+            return new CompositeBRDF(compositeNames[row], components, weightings);
+        }
+
+        Spectrum s = getReflectivity(id);
+        switch (type) {
+            case LAMBERTIAN:
+                return new LambertianBRDF(s);
+            case PHONG_DIFFUSE:
+                return new PhongDiffuseBRDF(s);
+            case PHONG_SPECULAR:
+                return new PhongSpecularBRDF(s, getParameter(id));
+            case SHINY_DIFFUSE:
+                return new ShinyDiffuseBRDF(s, getParameter(id));
+            default:
+                return new GGXBRDF(s, getParameter(id));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getType(int id) throws IndexOutOfBoundsException {
+        checkId(id);
+        return types[id];
+    }
+
+    /**
+     * @return Spectrum Returns a new Spectrum holding a leaf material's reflectivity.
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     * @throws IllegalArgumentException  If the material is a composite.
+     */
+    public Spectrum getReflectivity(int id) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[][] columns = leafColumns(id);
+        int row = rows[id];
+        return new Spectrum(columns[R][row], columns[G][row], columns[B][row]);
+    }
+
+    /**
+     * @return float Returns a leaf material's scalar parameter, or 0 for the diffuse models.
+     * @throws IndexOutOfBoundsException On an ID not in the table.
+     * @throws IllegalArgumentException  If the material is a composite.
+     */
+    public float getParameter(int id) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[][] columns = leafColumns(id);
+        return columns.length > P ? columns[P][rows[id]] : 0;
+    }
+
+    /**
+     * Equivalent Phong exponent of a material's lobe, matching the models' getLobeExponent
+     */
+    float getLobeExponent(int id) {
+        int type = types[id];
+        int row = rows[id];
+        switch (type) {
+            case PHONG_SPECULAR:
+            case SHINY_DIFFUSE:
+                return blocks[type].columns[P][row];
+            case GGX:
+                float alpha = blocks[GGX].columns[ALPHA][row];
+                return Math.max(0, 2 / (alpha * alpha) - 2);
+            case COMPOSITE:
+                float exponent = 0;
+                for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                    exponent = Math.max(exponent, getLobeExponent(componentIds[c]));
+                }
+                return exponent;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reflection type of a material, as the models' getReflectionType would give
+     *
+     * @return String Returns "diffuse", "specular" or "both", or null for a composite.
+     */
+    String getReflectionType(int id) {
+        switch (types[id]) {
+            case LAMBERTIAN:
+            case PHONG_DIFFUSE:
+                return "diffuse";
+            case SHINY_DIFFUSE:
+                return "both";
+            case COMPOSITE:
+                return null;
+            default:
+                return "specular";
+        }
+    }
+
+    /**
+     * Fills a sample record for a material as the model's sampleF would
+     * A composite averages its components' sampled directions and weighted values, as CompositeBRDF does.
+     *
+     * @return BRDFSample Returns dest.
+     */
+    BRDFSample sampleF(int id, Vector3f in, Vector3f normal, BRDFSample dest) {
+        int type = types[id];
+        if (type == COMPOSITE) {
+            int row = rows[id];
+            float dx = 0, dy = 0, dz = 0;
+            float r = 0, g = 0, b = 0;
+            int flags = 0;
+
+            // Each component overwrites dest, so accumulate as we go
+            for (int c = compositeStarts[row], end = compositeStarts[row + 1]; c < end; c++) {
+                sampleF(componentIds[c], in, normal, dest);
+                Vector3f direction = dest.getDirection();
+                Spectrum value = dest.getValue();
+                float weight = componentWeights[c];
+                dx += direction.x;
+                dy += direction.y;
+                dz += direction.z;
+                r += value.getR() * weight;
+                g += value.getG() * weight;
+                b += value.getB() * weight;
+                flags |= dest.getFlags();
+            }
+
+            int n = compositeStarts[row + 1] - compositeStarts[row];
+            return dest.setDirection(dx / n, dy / n, dz / n)
+                    .setValue(r / n, g / n, b / n)
+                    .setPdf(1)
+                    .setFlags(flags);
+        }
+        dest.setMirror(in, normal);
+
+        float[][] columns = blocks[type].columns;
+        int row = rows[id];
+        float r = columns[R][row], g = columns[G][row], b = columns[B][row];
+        switch (type) {
+            case LAMBERTIAN:
+            case PHONG_DIFFUSE:
+                dest.setValue(r, g, b).setFlags(BRDFSample.DIFFUSE);
+                break;
+            case PHONG_SPECULAR:
+                float exponent = columns[P][row];
+                dest.setValue(r * exponent, g * exponent, b * exponent).setFlags(BRDFSample.SPECULAR);
+                break;
+            case SHINY_DIFFUSE:
+                float reflection = columns[P][row];
+                dest.setValue(r * reflection, g * reflection, b * reflection).setFlags(BRDFSample.DIFFUSE | BRDFSample.SPECULAR);
+                break;
+            default:
+                dest.setValue(r, g, b).setFlags(BRDFSample.SPECULAR);
+                break;
+        }
+        return dest.setPdf(1);
+    }
+
+    /**
+     * Samples a GGX material's visible normals as {@link GGXBRDF#sampleDirection} would
+     */
+    float sampleGGXDirection(int id, float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        return GGXBRDF.sampleDirection(blocks[GGX].columns[ALPHA][rows[id]], inX, inY, inZ, u1, u2, dest);
+    }
+
+    /**
+     * pdf of a GGX material's direction sampling, as {@link GGXBRDF#pdf} would give
+     */
+    float ggxPdf(int id, float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        return GGXBRDF.pdf(blocks[GGX].columns[ALPHA][rows[id]], inX, inY, inZ, outX, outY, outZ);
+    }
+
+    String getCompositeName(int id) {
+        return compositeNames[rows[id]];
+    }
+
+    /**
+     * <h1>Block</h1>
+     * The rows of one model type: a growable primitive array per parameter, the reflectivity of each row as
+     * RGBReflectanceSpectrum.BINS spectral bins, and the material ID of each row.
+     */
+    private static class Block {
+        private float[][] columns;
+        private float[] spectra;
+        private int[] ids;
+        private int size;
+
+        Block(int numColumns) {
+            this.columns = new float[numColumns][INITIAL_CAPACITY];
+            this.spectra = new float[INITIAL_CAPACITY * RGBReflectanceSpectrum.BINS];
+            this.ids = new int[INITIAL_CAPACITY];
+        }
+
+        /**
+         * Appends a row, growing every column if needed
+         */
+        int add() {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], capacity);
+                }
+                spectra = Arrays.copyOf(spectra, capacity * RGBReflectanceSpectrum.BINS);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.nicky.brdfs;
+
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import com.nicky.resources.Pair;
+import org.joml.Vector3f;
+
+import java.util.LinkedHashMap;
+
+/**
+ * <h1>Material View</h1>
+ * A flyweight BRDF over one material of a {@link MaterialTable}: it holds only the table and the material ID.
+ * RGB, spectral and typed evaluation, sampling and lobe exponents read the table's columns directly and see later
+ * parameter changes. Only getParameters and serialise build the material's BRDF objects, on each call.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class MaterialView implements BRDF {
+
+    private final MaterialTable table;
+    private final int id;
+
+    MaterialView(MaterialTable table, int id) {
+        this.table = table;
+        this.id = id;
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        table.accumulateF(id, in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
+        return table.f(id, in, out, reflectionType);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        table.accumulateF(id, inX, inY, inZ, outX, outY, outZ, weight, dest, offset);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        table.accumulateF(id, inX, inY, inZ, outX, outY, outZ, weight, lambda, dest);
+    }
+
+    @Override
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return table.sampleF(id, in, normal, dest);
+    }
+
+    @Override
+    public boolean canSampleDirection() {
+        return table.getType(id) == MaterialTable.GGX || BRDF.super.canSampleDirection();
+    }
+
+    @Override
+    public float sampleDirection(float inX, float inY, float inZ, float u1, float u2, Vector3f dest) {
+        if (table.getType(id) == MaterialTable.GGX) {
+            return table.sampleGGXDirection(id, inX, inY, inZ, u1, u2, dest);
+        }
+        return BRDF.super.sampleDirection(inX, inY, inZ, u1, u2, dest);
+    }
+
+    @Override
+    public float pdf(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        if (table.getType(id) == MaterialTable.GGX) {
+            return table.ggxPdf(id, inX, inY, inZ, outX, outY, outZ);
+        }
+        return BRDF.super.pdf(inX, inY, inZ, outX, outY, outZ);
+    }
+
+    @Override
+    public float getLobeExponent() {
+        return table.getLobeExponent(id);
+    }
+
+    @Override
+    public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        return table.materialise(id).getParameters();
+    }
+
+    @Override
+    public String getName() {
+        switch (table.getType(id)) {
+            case MaterialTable.LAMBERTIAN:
+                return "LambertianBRDF";
+            case MaterialTable.PHONG_DIFFUSE:
+                return "PhongDiffuseBRDF";
+            case MaterialTable.PHONG_SPECULAR:
+                return "PhongSpecularBRDF";
+            case MaterialTable.SHINY_DIFFUSE:
+                return "ShinyDiffuseBRDF";
+            case MaterialTable.GGX:
+                return "GGXBRDF";
+            default:
+                return table.getCompositeName(id);
+        }
+    }
+
+    @Override
+    public String getReflectionType() {
+        return table.getReflectionType(id);
+    }
+
+    @Override
+    public String serialise() {
+        return table.materialise(id).serialise();
+    }
+
+    public MaterialTable getTable() {
+        return table;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
@@ -1,7 +1,10 @@
 package com.nicky.brdfs;
 
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -17,9 +20,11 @@ import java.util.LinkedHashMap;
 public class PhongDiffuseBRDF implements BRDF {
 
     private Spectrum diffuseReflectivity;
+    private RGBReflectanceSpectrum spectralDiffuseReflectivity;
 
     public PhongDiffuseBRDF(Spectrum diffuseReflectivity) {
         this.diffuseReflectivity = diffuseReflectivity;
+        this.spectralDiffuseReflectivity = RGBReflectanceSpectrum.fromRGB(diffuseReflectivity);
     }
 
     @Override
@@ -31,6 +36,19 @@ public class PhongDiffuseBRDF implements BRDF {
         return reflectance;
     }
 
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        float w = weight / (float) Math.PI;
+        dest[offset] += diffuseReflectivity.getR() * w;
+        dest[offset + 1] += diffuseReflectivity.getG() * w;
+        dest[offset + 2] += diffuseReflectivity.getB() * w;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        spectralDiffuseReflectivity.accumulate(lambda, weight / (float) Math.PI, dest);
+    }
+
     @Override
     public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
         if (reflectionType.equals(getReflectionType())) {
@@ -40,19 +58,11 @@ public class PhongDiffuseBRDF implements BRDF {
     }
 
     @Override
-    public Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal) {
-        Vector3f reflectedRay = new Vector3f();
-
-        float cosND = Math.max(-in.dot(normal), 0);
-        float dn = 2 * cosND;
-        reflectedRay.x = (dn * normal.x) + in.x;
-        reflectedRay.y = (dn * normal.y) + in.y;
-        reflectedRay.z = (dn * normal.z) + in.z;
-
-        // Calculate specular reflection
-        Spectrum reflectance = diffuseReflectivity.copy();
-
-        return new Pair<>(reflectedRay, reflectance);
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return dest.setMirror(in, normal)
+                .setValue(diffuseReflectivity.getR(), diffuseReflectivity.getG(), diffuseReflectivity.getB())
+                .setPdf(1)
+                .setFlags(BRDFSample.DIFFUSE);
     }
 
     @Override
@@ -64,6 +74,10 @@ public class PhongDiffuseBRDF implements BRDF {
         return parameters;
     }
 
+    public Spectrum getDiffuseReflectivity() {
+        return diffuseReflectivity;
+    }
+
     @Override
     public String getName() {
         return "PhongDiffuseBRDF";
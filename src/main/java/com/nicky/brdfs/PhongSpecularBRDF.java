@@ -1,7 +1,10 @@
 package com.nicky.brdfs;
 
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -17,6 +20,7 @@ import java.util.LinkedHashMap;
 public class PhongSpecularBRDF implements BRDF {
 
     private Spectrum specularReflectivity;
+    private RGBReflectanceSpectrum spectralSpecularReflectivity;
 
     /**
      * Specular exponent of the surface
@@ -29,24 +33,13 @@ public class PhongSpecularBRDF implements BRDF {
     public PhongSpecularBRDF(Spectrum specularReflectivity, float specularExponent) {
         this.specularExponent = specularExponent;
         this.specularReflectivity = specularReflectivity;
+        this.spectralSpecularReflectivity = RGBReflectanceSpectrum.fromRGB(specularReflectivity);
     }
 
     @Override
     public Spectrum f(Vector3f in, Vector3f out) {
-        // Find reflected ray for perfect specular reflection
-        Vector3f normal = new Vector3f(1, 0, 0).normalize();
-        Vector3f reflectedRay = new Vector3f();
-        in.reflect(normal, reflectedRay);
-
         // Angle between perfect specular reflective direction and outgoing direction
-        float alpha = out.dot(reflectedRay);
-        alpha = Math.max(0, alpha);
-//        if (alpha > 0) {
-//            System.out.println("In: " + in.toString());
-//            System.out.println("Out: " + out.toString());
-//            System.out.println(alpha);
-//
-//        }
+        float alpha = specularCosine(in.x, in.y, in.z, out.x, out.y, out.z);
         float alpha_ = (float) Math.pow(alpha, specularExponent);
 
         // Calculate reflectance (ignore ambient)
@@ -56,6 +49,32 @@ public class PhongSpecularBRDF implements BRDF {
         return reflectance;
     }
 
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        float alpha = specularCosine(inX, inY, inZ, outX, outY, outZ);
+        float w = weight * (float) Math.pow(alpha, specularExponent);
+        dest[offset] += specularReflectivity.getR() * w;
+        dest[offset + 1] += specularReflectivity.getG() * w;
+        dest[offset + 2] += specularReflectivity.getB() * w;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        float alpha = specularCosine(inX, inY, inZ, outX, outY, outZ);
+        spectralSpecularReflectivity.accumulate(lambda, weight * (float) Math.pow(alpha, specularExponent), dest);
+    }
+
+    /**
+     * Clamped cosine between the outgoing direction and the perfect specular reflection of the incident direction
+     * about the local normal (1, 0, 0). Reflecting about the x axis only negates x, so no vectors are created.
+     *
+     * @return float Returns max(0, out . reflect(in)).
+     */
+    static float specularCosine(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        float alpha = outX * -inX + outY * inY + outZ * inZ;
+        return Math.max(0, alpha);
+    }
+
     @Override
     public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
         if (reflectionType.equals(getReflectionType())) {
@@ -65,21 +84,11 @@ public class PhongSpecularBRDF implements BRDF {
     }
 
     @Override
-    public Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal) {
-        // Find reflection direction
-        Vector3f reflectedRay = new Vector3f();
-
-        float cosND = Math.max(-in.dot(normal), 0);
-        float dn = 2 * cosND;
-        reflectedRay.x = (dn * normal.x) + in.x;
-        reflectedRay.y = (dn * normal.y) + in.y;
-        reflectedRay.z = (dn * normal.z) + in.z;
-
-        // Calculate specular reflection
-        Spectrum reflectance = specularReflectivity.copy();
-        reflectance.mul(specularExponent);
-
-        return new Pair<>(reflectedRay, reflectance);
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return dest.setMirror(in, normal)
+                .setValue(specularReflectivity.getR() * specularExponent, specularReflectivity.getG() * specularExponent, specularReflectivity.getB() * specularExponent)
+                .setPdf(1)
+                .setFlags(BRDFSample.SPECULAR);
     }
 
     @Override
@@ -93,6 +102,19 @@ public class PhongSpecularBRDF implements BRDF {
         return parameters;
     }
 
+    public Spectrum getSpecularReflectivity() {
+        return specularReflectivity;
+    }
+
+    public float getSpecularExponent() {
+        return specularExponent;
+    }
+
+    @Override
+    public float getLobeExponent() {
+        return specularExponent;
+    }
+
     @Override
     public String getName() {
         return "PhongSpecularBRDF";
@@ -1,7 +1,10 @@
 package com.nicky.brdfs;
 
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
 import com.nicky.Spectrum;
-import javafx.util.Pair;
+import com.nicky.resources.Pair;
 import org.joml.Vector3f;
 
 import java.util.LinkedHashMap;
@@ -23,10 +26,12 @@ public class ShinyDiffuseBRDF implements BRDF {
      */
     private float reflection;
     private Spectrum diffuseReflectivity;
+    private RGBReflectanceSpectrum spectralDiffuseReflectivity;
 
     public ShinyDiffuseBRDF(Spectrum diffuseReflectivity, float reflection) {
         this.reflection = reflection;
         this.diffuseReflectivity = diffuseReflectivity;
+        this.spectralDiffuseReflectivity = RGBReflectanceSpectrum.fromRGB(diffuseReflectivity);
     }
 
     @Override
@@ -42,13 +47,8 @@ public class ShinyDiffuseBRDF implements BRDF {
         }
 
         // Specular
-        Vector3f normal = new Vector3f(1, 0, 0).normalize();
-        Vector3f reflectedRay = new Vector3f();
-        in.reflect(normal, reflectedRay);
-
         // Angle between perfect specular reflective direction and outgoing direction
-        float alpha = out.dot(reflectedRay);
-        alpha = Math.max(0, alpha);
+        float alpha = PhongSpecularBRDF.specularCosine(in.x, in.y, in.z, out.x, out.y, out.z);
         float alpha_ = (float) Math.pow(alpha, reflection);
 
         // Calculate reflectance (ignore ambient)
@@ -57,6 +57,26 @@ public class ShinyDiffuseBRDF implements BRDF {
         return reflectance;
     }
 
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        float w = weight / (float) Math.PI;
+        if (reflection != 0) {
+            w *= (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), reflection);
+        }
+        dest[offset] += diffuseReflectivity.getR() * w;
+        dest[offset + 1] += diffuseReflectivity.getG() * w;
+        dest[offset + 2] += diffuseReflectivity.getB() * w;
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        float w = weight / (float) Math.PI;
+        if (reflection != 0) {
+            w *= (float) Math.pow(PhongSpecularBRDF.specularCosine(inX, inY, inZ, outX, outY, outZ), reflection);
+        }
+        spectralDiffuseReflectivity.accumulate(lambda, w, dest);
+    }
+
     @Override
     public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
 
@@ -74,21 +94,11 @@ public class ShinyDiffuseBRDF implements BRDF {
     }
 
     @Override
-    public Pair<Vector3f, Spectrum> sampleF(Vector3f in, Vector3f normal) {
-        // Find reflection direction
-        Vector3f reflectedRay = new Vector3f();
-
-        float cosND = Math.max(-in.dot(normal), 0);
-        float dn = 2 * cosND;
-        reflectedRay.x = (dn * normal.x) + in.x;
-        reflectedRay.y = (dn * normal.y) + in.y;
-        reflectedRay.z = (dn * normal.z) + in.z;
-
-        // Calculate specular reflection
-        Spectrum reflectance = diffuseReflectivity.copy();
-        reflectance.mul(reflection);
-
-        return new Pair<>(reflectedRay, reflectance);
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        return dest.setMirror(in, normal)
+                .setValue(diffuseReflectivity.getR() * reflection, diffuseReflectivity.getG() * reflection, diffuseReflectivity.getB() * reflection)
+                .setPdf(1)
+                .setFlags(BRDFSample.DIFFUSE | BRDFSample.SPECULAR);
     }
 
     @Override
@@ -102,6 +112,19 @@ public class ShinyDiffuseBRDF implements BRDF {
         return parameters;
     }
 
+    public Spectrum getDiffuseReflectivity() {
+        return diffuseReflectivity;
+    }
+
+    public float getReflection() {
+        return reflection;
+    }
+
+    @Override
+    public float getLobeExponent() {
+        return reflection;
+    }
+
     @Override
     public String getName() {
         return "ShinyDiffuseBRDF";
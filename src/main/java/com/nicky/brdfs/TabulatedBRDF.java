@@ -0,0 +1,341 @@
+package com.nicky.brdfs;
+
+import com.nicky.RGBReflectanceSpectrum;
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import com.nicky.resources.TableStorage;
+import com.nicky.resources.Pair;
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * <h1>Tabulated BRDF</h1>
+ * An isotropic BRDF looked up in a dense table over the Rusinkiewicz (theta half, theta diff, phi diff)
+ * parameterisation, laid out as in the MERL measured BRDF database: theta half is indexed by the square root of the
+ * angle so that entries concentrate near the specular peak, and phi diff covers [0, pi) by reciprocity.
+ * Lookup is nearest-entry, and the table is held in a {@link TableStorage} so large tables can be kept in half, log
+ * or shared-exponent precision.
+ * <p>
+ * As with the other models, the incident ray travels towards the surface and the normal is (1, 0, 0).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class TabulatedBRDF implements BRDF {
+
+    /**
+     * MERL table resolution and channel scales
+     */
+    public static final int MERL_THETA_HALF = 90;
+    public static final int MERL_THETA_DIFF = 90;
+    public static final int MERL_PHI_DIFF = 180;
+    private static final double[] MERL_SCALES = {1.0 / 1500, 1.15 / 1500, 1.66 / 1500};
+
+    private static final float HALF_PI = (float) (Math.PI / 2);
+
+    private final String name;
+    private final TableStorage storage;
+    private final int thetaHalfResolution;
+    private final int thetaDiffResolution;
+    private final int phiDiffResolution;
+
+    /**
+     * Hash of the stored entries, so tables with the same name and layout but different contents serialise differently
+     */
+    private final long contentHash;
+
+    /**
+     * @param name                Name of the material
+     * @param storage             Table entries, indexed (thetaHalf * thetaDiffResolution + thetaDiff) * phiDiffResolution + phiDiff
+     * @param thetaHalfResolution Number of theta half entries
+     * @param thetaDiffResolution Number of theta diff entries
+     * @param phiDiffResolution   Number of phi diff entries
+     * @throws IllegalArgumentException If the storage does not match the resolution.
+     */
+    public TabulatedBRDF(String name, TableStorage storage, int thetaHalfResolution, int thetaDiffResolution, int phiDiffResolution) throws IllegalArgumentException {
+        if ((long) thetaHalfResolution * thetaDiffResolution * phiDiffResolution != storage.getCount()) {
+            throw new IllegalArgumentException("Table of " + storage.getCount() + " entries does not match resolution "
+                    + thetaHalfResolution + "x" + thetaDiffResolution + "x" + phiDiffResolution);
+        }
+        this.name = name;
+        this.storage = storage;
+        this.thetaHalfResolution = thetaHalfResolution;
+        this.thetaDiffResolution = thetaDiffResolution;
+        this.phiDiffResolution = phiDiffResolution;
+        this.contentHash = hash(storage);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the stored values
+     */
+    private static long hash(TableStorage storage) {
+        long hash = 0xcbf29ce484222325L;
+        for (int entry = 0, count = storage.getCount(); entry < count; entry++) {
+            for (int c = 0; c < 3; c++) {
+                hash = (hash ^ Float.floatToIntBits(storage.get(entry, c))) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Reads a MERL binary file: three little-endian int dimensions, then the red, green and blue planes as
+     * little-endian doubles. Negative (unmeasured) entries are stored as zero.
+     *
+     * @param path The .binary file
+     * @param mode Storage mode of the table
+     * @return TabulatedBRDF Returns the measured BRDF.
+     * @throws IOException              On read failure.
+     * @throws IllegalArgumentException If the file is truncated or its dimensions do not match its size.
+     */
+    public static TabulatedBRDF readMERL(Path path, TableStorage.Mode mode) throws IOException, IllegalArgumentException {
+        return new TabulatedBRDF(path.getFileName().toString(), TableStorage.encode(readMERL(path), MERL_THETA_HALF * MERL_THETA_DIFF * MERL_PHI_DIFF, mode),
+                MERL_THETA_HALF, MERL_THETA_DIFF, MERL_PHI_DIFF);
+    }
+
+    /**
+     * Reads a MERL binary file into packed full-precision RGB values, e.g. as the reference for
+     * {@link TableStorage#measureError(float[])}
+     *
+     * @param path The .binary file
+     * @return float[] Returns packed RGB values, 3 per entry.
+     * @throws IOException              On read failure.
+     * @throws IllegalArgumentException If the file is truncated or its dimensions do not match the MERL resolution.
+     */
+    public static float[] readMERL(Path path) throws IOException, IllegalArgumentException {
+        int count = MERL_THETA_HALF * MERL_THETA_DIFF * MERL_PHI_DIFF;
+        try (InputStream in = Files.newInputStream(path)) {
+            ByteBuffer header = ByteBuffer.wrap(readFully(in, 12)).order(ByteOrder.LITTLE_ENDIAN);
+            long dims = (long) header.getInt() * header.getInt() * header.getInt();
+            if (dims != count) {
+                throw new IllegalArgumentException("Unexpected MERL dimensions in " + path + ": " + dims + " entries");
+            }
+
+            float[] rgb = new float[count * 3];
+            for (int c = 0; c < 3; c++) {
+                ByteBuffer plane = ByteBuffer.wrap(readFully(in, count * 8)).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < count; i++) {
+                    rgb[i * 3 + c] = (float) Math.max(0, plane.getDouble() * MERL_SCALES[c]);
+                }
+            }
+            return rgb;
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException, IllegalArgumentException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new IllegalArgumentException("Truncated MERL file: expected " + length + " bytes, got " + read);
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Tabulates another BRDF at the centre of every entry
+     *
+     * @param brdf                The BRDF to tabulate
+     * @param thetaHalfResolution Number of theta half entries
+     * @param thetaDiffResolution Number of theta diff entries
+     * @param phiDiffResolution   Number of phi diff entries
+     * @param mode                Storage mode of the table
+     * @return TabulatedBRDF Returns the tabulated BRDF.
+     */
+    public static TabulatedBRDF fromBRDF(BRDF brdf, int thetaHalfResolution, int thetaDiffResolution, int phiDiffResolution, TableStorage.Mode mode) {
+        return new TabulatedBRDF(brdf.getName(), TableStorage.encode(tabulate(brdf, thetaHalfResolution, thetaDiffResolution, phiDiffResolution),
+                thetaHalfResolution * thetaDiffResolution * phiDiffResolution, mode),
+                thetaHalfResolution, thetaDiffResolution, phiDiffResolution);
+    }
+
+    /**
+     * Evaluates a BRDF at the centre of every entry of a table
+     *
+     * @return float[] Returns packed full-precision RGB values, 3 per entry.
+     */
+    public static float[] tabulate(BRDF brdf, int thetaHalfResolution, int thetaDiffResolution, int phiDiffResolution) {
+        float[] rgb = new float[thetaHalfResolution * thetaDiffResolution * phiDiffResolution * 3];
+        int i = 0;
+        for (int h = 0; h < thetaHalfResolution; h++) {
+            float u = (h + 0.5f) / thetaHalfResolution;
+            float thetaHalf = u * u * HALF_PI;
+            float cosH = (float) Math.cos(thetaHalf), sinH = (float) Math.sin(thetaHalf);
+            for (int d = 0; d < thetaDiffResolution; d++) {
+                float thetaDiff = (d + 0.5f) / thetaDiffResolution * HALF_PI;
+                float cosD = (float) Math.cos(thetaDiff), sinD = (float) Math.sin(thetaDiff);
+                for (int p = 0; p < phiDiffResolution; p++, i += 3) {
+                    float phiDiff = (p + 0.5f) / phiDiffResolution * (float) Math.PI;
+                    // Light and view in the half vector's frame, (t, b, n) with n = z
+                    float dx = sinD * (float) Math.cos(phiDiff), dy = sinD * (float) Math.sin(phiDiff);
+                    // Rotate by theta half about b; phi half is 0 for an isotropic BRDF
+                    float lt = dx * cosH + cosD * sinH, ln = -dx * sinH + cosD * cosH;
+                    float vt = -dx * cosH + cosD * sinH, vn = dx * sinH + cosD * cosH;
+                    // Local frame is (n, t, b); the incident ray travels away from the light
+                    brdf.accumulateF(-ln, -lt, -dy, vn, vt, -dy, 1, rgb, i);
+                }
+            }
+        }
+        return rgb;
+    }
+
+    /**
+     * Re-encodes the table in another storage mode
+     *
+     * @param mode The storage mode
+     * @return TabulatedBRDF Returns a BRDF over the re-encoded table.
+     */
+    public TabulatedBRDF withStorage(TableStorage.Mode mode) {
+        return new TabulatedBRDF(name, storage.convert(mode), thetaHalfResolution, thetaDiffResolution, phiDiffResolution);
+    }
+
+    /**
+     * Index of the entry for a pair of local directions, or -1 below the surface
+     */
+    int lookup(float inX, float inY, float inZ, float outX, float outY, float outZ) {
+        // Light and view directions in a (t, b, n) frame with n = z
+        float lLength = (float) Math.sqrt(inX * inX + inY * inY + inZ * inZ);
+        float ln = -inX / lLength, lt = -inY / lLength, lb = -inZ / lLength;
+        float vLength = (float) Math.sqrt(outX * outX + outY * outY + outZ * outZ);
+        float vn = outX / vLength, vt = outY / vLength, vb = outZ / vLength;
+        if (ln <= 0 || vn <= 0) {
+            return -1;
+        }
+
+        float ht = lt + vt, hb = lb + vb, hn = ln + vn;
+        float hLength = (float) Math.sqrt(ht * ht + hb * hb + hn * hn);
+        ht /= hLength;
+        hb /= hLength;
+        hn /= hLength;
+        float thetaHalf = (float) Math.acos(Math.min(1, hn));
+
+        // Rotate the light direction by -phi half about n, then by -theta half about b
+        float sinThetaHalf = (float) Math.sqrt(Math.max(0, 1 - hn * hn));
+        float cosPhiHalf = 1, sinPhiHalf = 0;
+        if (sinThetaHalf > 1e-7f) {
+            cosPhiHalf = ht / sinThetaHalf;
+            sinPhiHalf = hb / sinThetaHalf;
+        }
+        float t1 = lt * cosPhiHalf + lb * sinPhiHalf;
+        float b1 = -lt * sinPhiHalf + lb * cosPhiHalf;
+        float dt = t1 * hn - ln * sinThetaHalf;
+        float dn = t1 * sinThetaHalf + ln * hn;
+
+        float thetaDiff = (float) Math.acos(Math.max(-1, Math.min(1, dn)));
+        float phiDiff = (float) Math.atan2(b1, dt);
+        if (phiDiff < 0) {
+            phiDiff += (float) Math.PI;
+        }
+
+        int h = Math.min(thetaHalfResolution - 1, (int) (Math.sqrt(thetaHalf / HALF_PI) * thetaHalfResolution));
+        int d = Math.min(thetaDiffResolution - 1, (int) (thetaDiff / HALF_PI * thetaDiffResolution));
+        int p = Math.min(phiDiffResolution - 1, (int) (phiDiff / Math.PI * phiDiffResolution));
+        return (h * thetaDiffResolution + d) * phiDiffResolution + p;
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out) {
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, out.x, out.y, out.z, 1, rgb, 0);
+        return new Spectrum(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, float[] dest, int offset) {
+        int entry = lookup(inX, inY, inZ, outX, outY, outZ);
+        if (entry >= 0) {
+            storage.accumulate(entry, weight, dest, offset);
+        }
+    }
+
+    /**
+     * The table is RGB, so the entry is converted to a spectrum per call
+     */
+    @Override
+    public void accumulateF(float inX, float inY, float inZ, float outX, float outY, float outZ, float weight, SampledWavelengths lambda, SampledSpectrum dest) {
+        int entry = lookup(inX, inY, inZ, outX, outY, outZ);
+        if (entry >= 0) {
+            Spectrum rgb = new Spectrum(storage.get(entry, 0), storage.get(entry, 1), storage.get(entry, 2));
+            RGBReflectanceSpectrum.fromRGB(rgb).accumulate(lambda, weight, dest);
+        }
+    }
+
+    @Override
+    public Spectrum f(Vector3f in, Vector3f out, String reflectionType) {
+        if (reflectionType.equals(getReflectionType())) {
+            return f(in, out);
+        }
+        return null;
+    }
+
+    @Override
+    public BRDFSample sampleF(Vector3f in, Vector3f normal, BRDFSample dest) {
+        dest.setMirror(in, normal).setValue(0, 0, 0);
+        Vector3f mirror = dest.getDirection();
+        float[] rgb = new float[3];
+        accumulateF(in.x, in.y, in.z, mirror.x, mirror.y, mirror.z, 1, rgb, 0);
+        return dest.setValue(rgb[0], rgb[1], rgb[2])
+                .setPdf(1)
+                .setFlags(BRDFSample.DIFFUSE | BRDFSample.SPECULAR);
+    }
+
+    @Override
+    public LinkedHashMap<String, Pair<String, String>> getParameters() {
+        LinkedHashMap<String, Pair<String, String>> parameters = new LinkedHashMap<>();
+        parameters.put("int:thetaHalfResolution", new Pair<>("Theta Half Resolution", String.valueOf(thetaHalfResolution)));
+        parameters.put("int:thetaDiffResolution", new Pair<>("Theta Diff Resolution", String.valueOf(thetaDiffResolution)));
+        parameters.put("int:phiDiffResolution", new Pair<>("Phi Diff Resolution", String.valueOf(phiDiffResolution)));
+        parameters.put("String", new Pair<>("Storage", storage.getMode().name()));
+        return parameters;
+    }
+
+    public TableStorage getStorage() {
+        return storage;
+    }
+
+    public int getThetaHalfResolution() {
+        return thetaHalfResolution;
+    }
+
+    public int getThetaDiffResolution() {
+        return thetaDiffResolution;
+    }
+
+    public int getPhiDiffResolution() {
+        return phiDiffResolution;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getReflectionType() {
+        return "both";
+    }
+
+    /**
+     * Tables are not serialised inline; their layout and a hash of their contents are written, so tables from
+     * different sources under the same name are not interned or cached as one
+     */
+    @Override
+    public String serialise() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"resolution\": [").append(thetaHalfResolution).append(",").append(thetaDiffResolution).append(",").append(phiDiffResolution).append("],");
+        sb.append("\"storage\": \"").append(storage.getMode().name()).append("\",");
+        sb.append("\"hash\": \"").append(Long.toHexString(contentHash)).append("\"");
+        return sb.toString();
+    }
+}
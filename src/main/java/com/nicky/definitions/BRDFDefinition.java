@@ -0,0 +1,44 @@
+package com.nicky.definitions;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h1>BRDF Definition</h1>
+ * An immutable, parsed BRDF definition file: its alias, whether it is simple or composite, and its components.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class BRDFDefinition {
+
+    private final String alias;
+    private final String type;
+    private final List<ComponentDefinition> components;
+
+    BRDFDefinition(String alias, String type, List<ComponentDefinition> components) {
+        this.alias = alias;
+        this.type = type;
+        this.components = Collections.unmodifiableList(components);
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return String Returns "simple" or "composite".
+     */
+    public String getType() {
+        return type;
+    }
+
+    public boolean isComposite() {
+        return "composite".equals(type);
+    }
+
+    public List<ComponentDefinition> getComponents() {
+        return components;
+    }
+}
@@ -0,0 +1,189 @@
+package com.nicky.definitions;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.nicky.Spectrum;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Component Definition</h1>
+ * An immutable, typed component of a BRDF definition: the BRDF name, its weighting within a composite and its
+ * properties. Numeric properties are stored as float arrays (length 1 for scalars, 3 for spectra) and other values as
+ * strings, so factories read them without walking a JSON tree. Single-element arrays are read back as scalars.
+ * A number given as a string (e.g. "0.5") is converted with a logged warning, as Gson's getAsFloat did; a string
+ * that is not a number, or an array of the wrong length, is rejected.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class ComponentDefinition {
+
+    private static final Logger LOGGER = Logger.getLogger(ComponentDefinition.class.getName());
+
+    private final String name;
+    private final Map<String, float[]> numbers;
+    private final Map<String, String> strings;
+    private final List<ComponentDefinition> components;
+
+    ComponentDefinition(String name, Map<String, float[]> numbers, Map<String, String> strings, List<ComponentDefinition> components) {
+        this.name = name;
+        this.numbers = Collections.unmodifiableMap(numbers);
+        this.strings = Collections.unmodifiableMap(strings);
+        this.components = Collections.unmodifiableList(components);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return float Weighting within a composite, or 1 if the definition has none.
+     */
+    public float getWeighting() {
+        return has("weighting") ? getFloat("weighting") : 1;
+    }
+
+    /**
+     * Whether the component has a numeric property, or a string property that may hold a number
+     *
+     * @param property Property name
+     * @return boolean Returns whether the property is present.
+     */
+    public boolean has(String property) {
+        return numbers.containsKey(property) || strings.containsKey(property);
+    }
+
+    /**
+     * @return Set<String> Names of the numeric properties, for factories whose properties are not fixed.
+     */
+    public Set<String> getNumericProperties() {
+        return numbers.keySet();
+    }
+
+    /**
+     * Gets the number of values of a numeric property
+     *
+     * @param property Property name
+     * @return int Returns 1 for a scalar, 3 for a spectrum.
+     * @throws IllegalArgumentException On a missing property.
+     */
+    public int getLength(String property) throws IllegalArgumentException {
+        return values(property).length;
+    }
+
+    /**
+     * Gets a scalar property
+     *
+     * @param property Property name
+     * @return float Returns the value.
+     * @throws IndexOutOfBoundsException On an array of more than one value.
+     * @throws IllegalArgumentException  On a missing or non-numeric property.
+     */
+    public float getFloat(String property) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[] values = values(property);
+        if (values.length != 1) {
+            throw new IndexOutOfBoundsException("Property " + property + " of " + name + " needs 1 value, found " + values.length);
+        }
+        return values[0];
+    }
+
+    /**
+     * Gets an RGB property as a new Spectrum
+     *
+     * @param property Property name
+     * @return Spectrum Returns the spectrum.
+     * @throws IndexOutOfBoundsException On anything but 3 values.
+     * @throws IllegalArgumentException  On a missing or non-numeric property.
+     */
+    public Spectrum getSpectrum(String property) throws IndexOutOfBoundsException, IllegalArgumentException {
+        float[] values = values(property);
+        if (values.length != 3) {
+            throw new IndexOutOfBoundsException("Property " + property + " of " + name + " needs 3 values, found " + values.length);
+        }
+        return new Spectrum(values[0], values[1], values[2]);
+    }
+
+    /**
+     * Gets a string property
+     *
+     * @param property Property name
+     * @return String Returns the value, or null if absent.
+     */
+    public String getString(String property) {
+        return strings.get(property);
+    }
+
+    /**
+     * @return List<ComponentDefinition> Nested components, for composites serialised inline.
+     */
+    public List<ComponentDefinition> getComponents() {
+        return components;
+    }
+
+    /**
+     * Whether the component only names another BRDF, with no properties of its own besides its weighting
+     *
+     * @return boolean Returns whether the component is a plain reference.
+     */
+    public boolean isReference() {
+        return strings.keySet().stream().allMatch(key -> key.equals("type") || key.equals("weighting"))
+                && numbers.keySet().stream().allMatch("weighting"::equals)
+                && components.isEmpty();
+    }
+
+    private float[] values(String property) throws IllegalArgumentException {
+        float[] values = numbers.get(property);
+        if (values == null && strings.containsKey(property)) {
+            String value = strings.get(property);
+            try {
+                values = new float[]{Float.parseFloat(value.trim())};
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Property " + property + " of " + name + " is not a number: \"" + value + "\"");
+            }
+            LOGGER.warning("Property " + property + " of " + name + " is a string, read as " + values[0]);
+        }
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("Missing property " + property + " of " + name);
+        }
+        return values;
+    }
+
+    /**
+     * Converts back to a JsonObject, for factories that still read JSON
+     *
+     * @return JsonObject Returns the component as JSON.
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", name);
+        for (Map.Entry<String, String> entry : strings.entrySet()) {
+            json.addProperty(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, float[]> entry : numbers.entrySet()) {
+            float[] values = entry.getValue();
+            if (values.length == 1) {
+                json.addProperty(entry.getKey(), values[0]);
+            } else {
+                JsonArray array = new JsonArray();
+                for (float value : values) {
+                    array.add(value);
+                }
+                json.add(entry.getKey(), array);
+            }
+        }
+        if (!components.isEmpty()) {
+            JsonArray array = new JsonArray();
+            for (ComponentDefinition component : components) {
+                array.add(component.toJson());
+            }
+            json.add("components", array);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,144 @@
+package com.nicky.definitions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * <h1>Definition Graph</h1>
+ * The dependency graph of a set of BRDF definitions, where a component naming another definition's alias depends on it.
+ * Missing references and cycles are detected up front, and the definitions are grouped into levels of a topological
+ * order: every definition only depends on definitions in earlier levels, so each level can be constructed in parallel.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class DefinitionGraph {
+
+    private final List<List<BRDFDefinition>> levels;
+
+    /**
+     * Builds and orders the graph
+     *
+     * @param definitions The definitions by alias
+     * @param resolved    Whether a component name needs no definition, e.g. a BRDF model or an already registered alias
+     * @throws IllegalArgumentException On a missing reference or a cycle.
+     */
+    public DefinitionGraph(Map<String, BRDFDefinition> definitions, Predicate<String> resolved) throws IllegalArgumentException {
+        Map<String, Integer> remaining = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        Map<String, List<String>> dependencies = new HashMap<>();
+
+        for (BRDFDefinition definition : definitions.values()) {
+            List<String> aliases = dependencies(definition, definitions, resolved);
+            for (String dependency : aliases) {
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(definition.getAlias());
+            }
+            dependencies.put(definition.getAlias(), aliases);
+            remaining.put(definition.getAlias(), aliases.size());
+        }
+
+        // Kahn's algorithm, one level at a time; keep the definitions' order within a level
+        levels = new ArrayList<>();
+        List<String> level = new ArrayList<>();
+        for (BRDFDefinition definition : definitions.values()) {
+            if (remaining.get(definition.getAlias()) == 0) {
+                level.add(definition.getAlias());
+            }
+        }
+        int placed = 0;
+        while (!level.isEmpty()) {
+            List<BRDFDefinition> current = new ArrayList<>(level.size());
+            List<String> next = new ArrayList<>();
+            for (String alias : level) {
+                current.add(definitions.get(alias));
+                for (String dependent : dependents.getOrDefault(alias, new ArrayList<>())) {
+                    if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            levels.add(current);
+            placed += current.size();
+            level = next;
+        }
+
+        if (placed < definitions.size()) {
+            throw new IllegalArgumentException("Cyclic BRDF Definitions: " + cycle(remaining, dependents, dependencies));
+        }
+    }
+
+    /**
+     * The unplaced definitions, less those that only depend on a cycle without being part of one
+     */
+    private static TreeSet<String> cycle(Map<String, Integer> remaining, Map<String, List<String>> dependents,
+                                         Map<String, List<String>> dependencies) {
+        TreeSet<String> cycle = new TreeSet<>();
+        for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+            if (entry.getValue() > 0) {
+                cycle.add(entry.getKey());
+            }
+        }
+
+        // Repeatedly drop definitions nothing unplaced depends on
+        Map<String, Integer> dependentCounts = new HashMap<>();
+        for (String alias : cycle) {
+            int count = 0;
+            for (String dependent : dependents.getOrDefault(alias, new ArrayList<>())) {
+                if (cycle.contains(dependent)) {
+                    count++;
+                }
+            }
+            dependentCounts.put(alias, count);
+        }
+        List<String> unused = new ArrayList<>();
+        for (String alias : cycle) {
+            if (dependentCounts.get(alias) == 0) {
+                unused.add(alias);
+            }
+        }
+        while (!unused.isEmpty()) {
+            String alias = unused.remove(unused.size() - 1);
+            cycle.remove(alias);
+            for (String dependency : dependencies.get(alias)) {
+                if (cycle.contains(dependency) && dependentCounts.merge(dependency, -1, Integer::sum) == 0) {
+                    unused.add(dependency);
+                }
+            }
+        }
+        return cycle;
+    }
+
+    /**
+     * Aliases a definition depends on, one entry per distinct alias
+     */
+    private static List<String> dependencies(BRDFDefinition definition, Map<String, BRDFDefinition> definitions, Predicate<String> resolved) throws IllegalArgumentException {
+        LinkedHashMap<String, Boolean> dependencies = new LinkedHashMap<>();
+        for (ComponentDefinition component : definition.getComponents()) {
+            String name = component.getName();
+            if (name == null) {
+                throw new IllegalArgumentException("BRDF Definition incorrect: " + definition.getAlias() + " has a component without a name");
+            }
+            if (resolved.test(name)) {
+                continue;
+            }
+            if (!definitions.containsKey(name)) {
+                throw new IllegalArgumentException("Invalid BRDF Found:" + definition.getAlias() + ", " + name);
+            }
+            dependencies.put(name, true);
+        }
+        return new ArrayList<>(dependencies.keySet());
+    }
+
+    /**
+     * @return List<List<BRDFDefinition>> The definitions grouped into dependency levels, in construction order.
+     */
+    public List<List<BRDFDefinition>> getLevels() {
+        return levels;
+    }
+}
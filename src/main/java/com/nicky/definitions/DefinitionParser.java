@@ -0,0 +1,166 @@
+package com.nicky.definitions;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>Definition Parser</h1>
+ * Parses BRDF definition files in one streaming pass with a JsonReader, without building a JSON tree.
+ * Numbers and arrays of numbers become float arrays, strings and booleans become strings, arrays of objects become
+ * nested components, and any other value is skipped.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class DefinitionParser {
+
+    /**
+     * Parses a definition file
+     *
+     * @param path The definition file
+     * @return BRDFDefinition Returns the definition.
+     * @throws IOException              On read failure or malformed JSON.
+     * @throws IllegalArgumentException On a missing alias or type.
+     */
+    public static BRDFDefinition parse(Path path) throws IOException, IllegalArgumentException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Parses a definition held in a string
+     *
+     * @param json The definition
+     * @return BRDFDefinition Returns the definition.
+     * @throws IOException              On malformed JSON.
+     * @throws IllegalArgumentException On a missing alias or type.
+     */
+    public static BRDFDefinition parse(String json) throws IOException, IllegalArgumentException {
+        return parse(new StringReader(json));
+    }
+
+    /**
+     * Parses a definition from a reader
+     *
+     * @param reader The definition source
+     * @return BRDFDefinition Returns the definition.
+     * @throws IOException              On read failure or malformed JSON.
+     * @throws IllegalArgumentException On a missing alias or type.
+     */
+    public static BRDFDefinition parse(Reader reader) throws IOException, IllegalArgumentException {
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+
+        String alias = null;
+        String type = null;
+        List<ComponentDefinition> components = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "alias":
+                    alias = in.nextString();
+                    break;
+                case "type":
+                    type = in.nextString();
+                    break;
+                case "components":
+                    readComponents(in, components);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (alias == null || type == null) {
+            throw new IllegalArgumentException("BRDF Definition needs an alias and a type: " + alias);
+        }
+        return new BRDFDefinition(alias, type, components);
+    }
+
+    private static void readComponents(JsonReader in, List<ComponentDefinition> components) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            components.add(readComponent(in));
+        }
+        in.endArray();
+    }
+
+    private static ComponentDefinition readComponent(JsonReader in) throws IOException {
+        String name = null;
+        Map<String, float[]> numbers = new LinkedHashMap<>();
+        Map<String, String> strings = new LinkedHashMap<>();
+        List<ComponentDefinition> components = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String property = in.nextName();
+            JsonToken token = in.peek();
+            if (property.equals("name") && token == JsonToken.STRING) {
+                name = in.nextString();
+            } else if (token == JsonToken.NUMBER) {
+                numbers.put(property, new float[]{(float) in.nextDouble()});
+            } else if (token == JsonToken.STRING) {
+                strings.put(property, in.nextString());
+            } else if (token == JsonToken.BOOLEAN) {
+                strings.put(property, String.valueOf(in.nextBoolean()));
+            } else if (token == JsonToken.BEGIN_ARRAY) {
+                readArray(in, property, numbers, components);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return new ComponentDefinition(name, numbers, strings, components);
+    }
+
+    /**
+     * Reads an array of numbers into a property, or an array of objects into nested components
+     */
+    private static void readArray(JsonReader in, String property, Map<String, float[]> numbers, List<ComponentDefinition> components) throws IOException {
+        float[] values = new float[3];
+        int count = 0;
+        boolean objects = false;
+
+        in.beginArray();
+        while (in.hasNext()) {
+            JsonToken token = in.peek();
+            if (token == JsonToken.BEGIN_OBJECT) {
+                components.add(readComponent(in));
+                objects = true;
+            } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+                if (count == values.length) {
+                    float[] grown = new float[values.length * 2];
+                    System.arraycopy(values, 0, grown, 0, count);
+                    values = grown;
+                }
+                values[count++] = (float) in.nextDouble();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endArray();
+
+        if (!objects) {
+            float[] trimmed = new float[count];
+            System.arraycopy(values, 0, trimmed, 0, count);
+            numbers.put(property, trimmed);
+        }
+    }
+}
@@ -0,0 +1,906 @@
+package com.nicky.expression;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * <h1>Expression</h1>
+ * An arithmetic reflectance expression over the geometry of a pair of directions and named parameters, compiled into
+ * bytecode rather than interpreted per call.
+ * <p>
+ * Syntax: numbers, + - * / and ^ (power), unary minus, parentheses, the constants pi and e, the functions
+ * pow(x, y), sqrt, exp, log, abs, min(x, y) and max(x, y), and dot(a, b) of the vectors normal, in (the incident ray,
+ * travelling towards the surface), out, light (-in), half (between light and out) and reflect (the mirror
+ * direction of in). Any other identifier is a parameter.
+ * <p>
+ * Every dot product of the vectors reduces to one of the six geometry slots of an {@link ExpressionKernel}.
+ * Parameters are substituted as constants when compiling and constant subexpressions are folded, so an expression
+ * over an RGB parameter compiles to one expression per channel, all evaluated by one kernel. Each kernel is its own
+ * class of straight-line methods, compiled by the JIT like a built-in model. Kernels are cached by their folded form,
+ * so materials with the same expression and values share one class, and each class is defined in its own class
+ * loader so it is unloaded once no BRDF uses it.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class Expression {
+
+    /**
+     * Geometry slots: the arguments of {@link ExpressionKernel#evaluate}
+     */
+    public static final int N_DOT_L = 0;
+    public static final int N_DOT_V = 1;
+    public static final int N_DOT_H = 2;
+    public static final int L_DOT_V = 3;
+    public static final int V_DOT_H = 4;
+    public static final int V_DOT_R = 5;
+
+    private static final List<String> VECTORS = Arrays.asList("normal", "in", "out", "light", "half", "reflect");
+
+    /**
+     * Deepest expression tree accepted; compiling walks the tree recursively
+     */
+    static final int MAX_DEPTH = 512;
+
+    /**
+     * Compiled kernels by folded form; entries are dropped once their kernel is collected
+     */
+    private static final ConcurrentHashMap<String, KernelReference> KERNELS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<ExpressionKernel> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * Local variable slots of accumulate: this, the six geometry slots, weight, dest and offset
+     */
+    private static final int WEIGHT = 7;
+    private static final int DEST = 8;
+    private static final int OFFSET = 9;
+
+    private final String source;
+    private final Node root;
+    private final Set<String> parameters;
+
+    private Expression(String source, Node root, Set<String> parameters) {
+        this.source = source;
+        this.root = root;
+        this.parameters = Collections.unmodifiableSet(parameters);
+    }
+
+    /**
+     * Parses an expression
+     *
+     * @param source The expression
+     * @return Expression Returns the parsed expression.
+     * @throws IllegalArgumentException On a syntax error, an unknown function, a misused vector or nesting deeper than
+     *                                  MAX_DEPTH.
+     */
+    public static Expression parse(String source) throws IllegalArgumentException {
+        Parser parser = new Parser(source);
+        Node root = parser.expression();
+        if (parser.peek() != Parser.END) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return new Expression(source, root, parser.parameters);
+    }
+
+    /**
+     * Compiles the expression with parameter values substituted, giving the same value in every channel
+     *
+     * @param values Value of each parameter
+     * @return ExpressionKernel Returns the compiled kernel.
+     * @throws IllegalArgumentException On a parameter without a value, or an expression too large to compile.
+     * @throws IllegalStateException    If the kernel class cannot be defined.
+     */
+    public ExpressionKernel compile(Function<String, Float> values) throws IllegalArgumentException, IllegalStateException {
+        return compile(values, 1, 1, 1);
+    }
+
+    /**
+     * Compiles the expression with parameter values substituted, scaled per channel
+     *
+     * @param values Value of each parameter
+     * @param r      Scale of the red channel
+     * @param g      Scale of the green channel
+     * @param b      Scale of the blue channel
+     * @return ExpressionKernel Returns the compiled kernel.
+     * @throws IllegalArgumentException On a parameter without a value, or an expression too large to compile.
+     * @throws IllegalStateException    If the kernel class cannot be defined.
+     */
+    public ExpressionKernel compile(Function<String, Float> values, float r, float g, float b) throws IllegalArgumentException, IllegalStateException {
+        Node folded = root.fold(values);
+        return compile(new Node[]{folded, folded, folded}, new float[]{r, g, b});
+    }
+
+    /**
+     * Compiles the expression with different parameter values per channel
+     *
+     * @param red   Value of each parameter in the red channel
+     * @param green Value of each parameter in the green channel
+     * @param blue  Value of each parameter in the blue channel
+     * @return ExpressionKernel Returns the compiled kernel.
+     * @throws IllegalArgumentException On a parameter without a value, or an expression too large to compile.
+     * @throws IllegalStateException    If the kernel class cannot be defined.
+     */
+    public ExpressionKernel compile(Function<String, Float> red, Function<String, Float> green, Function<String, Float> blue) throws IllegalArgumentException, IllegalStateException {
+        return compile(new Node[]{root.fold(red), root.fold(green), root.fold(blue)}, new float[]{1, 1, 1});
+    }
+
+    /**
+     * Finds or compiles the kernel of three folded channels
+     */
+    private ExpressionKernel compile(Node[] channels, float[] scales) throws IllegalArgumentException, IllegalStateException {
+        // Channels with the same folded form are evaluated once
+        List<String> forms = new ArrayList<>();
+        int[] locals = new int[channels.length];
+        StringBuilder key = new StringBuilder();
+        for (int c = 0; c < channels.length; c++) {
+            StringBuilder form = new StringBuilder();
+            channels[c].canonical(form);
+            int index = forms.indexOf(form.toString());
+            if (index < 0) {
+                index = forms.size();
+                forms.add(form.toString());
+            }
+            locals[c] = OFFSET + 1 + index;
+            key.append(form).append('*').append(Float.floatToRawIntBits(scales[c])).append(';');
+        }
+
+        KernelReference collected;
+        while ((collected = (KernelReference) COLLECTED.poll()) != null) {
+            KERNELS.remove(collected.key, collected);
+        }
+
+        ExpressionKernel[] kernel = new ExpressionKernel[1];
+        KERNELS.compute(key.toString(), (k, reference) -> {
+            kernel[0] = reference != null ? reference.get() : null;
+            if (kernel[0] == null) {
+                kernel[0] = define(channels, scales, locals, forms.size());
+                reference = new KernelReference(k, kernel[0]);
+            }
+            return reference;
+        });
+        return kernel[0];
+    }
+
+    /**
+     * Writes and defines a kernel class
+     */
+    private ExpressionKernel define(Node[] channels, float[] scales, int[] locals, int distinct) throws IllegalArgumentException, IllegalStateException {
+        try {
+            KernelWriter writer = new KernelWriter();
+
+            // float evaluate(slots) { return <red>; }
+            channels[0].emit(writer);
+            writer.instruction(KernelWriter.FRETURN, -1);
+            writer.endMethod("evaluate", "(FFFFFF)F", OFFSET - 2);
+
+            // void accumulate(slots, weight, dest, offset) { dest[offset + c] += <channel c> * scale * weight; }
+            boolean[] stored = new boolean[distinct];
+            for (int c = 0; c < channels.length; c++) {
+                int local = locals[c] - OFFSET - 1;
+                if (!stored[local]) {
+                    channels[c].emit(writer);
+                    writer.local(KernelWriter.FSTORE, locals[c], -1);
+                    stored[local] = true;
+                }
+            }
+            for (int c = 0; c < channels.length; c++) {
+                writer.local(KernelWriter.ALOAD, DEST, 1);
+                writer.local(KernelWriter.ILOAD, OFFSET, 1);
+                if (c > 0) {
+                    writer.instruction(KernelWriter.ICONST_0 + c, 1);
+                    writer.instruction(KernelWriter.IADD, -1);
+                }
+                writer.instruction(KernelWriter.DUP2, 2);
+                writer.instruction(KernelWriter.FALOAD, -1);
+                writer.local(KernelWriter.FLOAD, locals[c], 1);
+                if (scales[c] != 1) {
+                    writer.constant(scales[c]);
+                    writer.instruction(KernelWriter.FMUL, -1);
+                }
+                writer.local(KernelWriter.FLOAD, WEIGHT, 1);
+                writer.instruction(KernelWriter.FMUL, -1);
+                writer.instruction(KernelWriter.FADD, -1);
+                writer.instruction(KernelWriter.FASTORE, -3);
+            }
+            writer.instruction(KernelWriter.RETURN, 0);
+            writer.endMethod("accumulate", "(FFFFFFF[FI)V", OFFSET + 1 + distinct);
+
+            return writer.define();
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not compile expression: " + source, e);
+        }
+    }
+
+    /**
+     * Evaluates an expression that does not depend on the geometry
+     *
+     * @param values Value of each parameter
+     * @return float Returns the value.
+     * @throws IllegalArgumentException On a parameter without a value, or if the expression reads a geometry slot.
+     */
+    public float evaluate(Function<String, Float> values) throws IllegalArgumentException {
+        Node folded = root.fold(values);
+        if (!(folded instanceof Constant)) {
+            throw new IllegalArgumentException("Expression depends on the geometry: " + source);
+        }
+        return ((Constant) folded).value;
+    }
+
+    /**
+     * Splits the expression into a factor that only uses the named parameters and a remainder that does not use them,
+     * so that e.g. an RGB reflectivity scales a single compiled remainder instead of being compiled once per channel
+     *
+     * @param names The parameters to separate
+     * @return Expression[] Returns {factor, remainder}, or null if the named parameters are not a separate factor.
+     */
+    public Expression[] separate(Set<String> names) {
+        List<Node> factors = new ArrayList<>();
+        root.factors(factors);
+        Node factor = null;
+        Node remainder = null;
+        for (Node node : factors) {
+            if (!node.usesParameter(names)) {
+                remainder = remainder == null ? node : new Binary(Operator.MULTIPLY, remainder, node);
+            } else if (node.usesGeometry()) {
+                return null;
+            } else {
+                factor = factor == null ? node : new Binary(Operator.MULTIPLY, factor, node);
+            }
+        }
+
+        Set<String> factorParameters = new LinkedHashSet<>(parameters);
+        factorParameters.retainAll(names);
+        Set<String> remainderParameters = new LinkedHashSet<>(parameters);
+        remainderParameters.removeAll(names);
+        return new Expression[]{
+                new Expression(source, factor == null ? new Constant(1) : factor, factorParameters),
+                new Expression(source, remainder == null ? new Constant(1) : remainder, remainderParameters)};
+    }
+
+    /**
+     * @return Set<String> Returns the names of the parameters the expression uses.
+     */
+    public Set<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return boolean Returns whether the expression reads the nDotH or vDotH slots, which need the half vector.
+     */
+    public boolean usesHalf() {
+        return root.uses(N_DOT_H) || root.uses(V_DOT_H);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Operators and functions, each evaluated at compile time when folding constants and written as bytecode otherwise
+     * The float arithmetic and Math.min/max/abs match the JVM instructions exactly; functions with only a double form
+     * are widened and narrowed around the call, as the built-in models do with Math.pow.
+     */
+    private enum Operator {
+        ADD(2, KernelWriter.FADD, null, null),
+        SUBTRACT(2, KernelWriter.FSUB, null, null),
+        MULTIPLY(2, KernelWriter.FMUL, null, null),
+        DIVIDE(2, KernelWriter.FDIV, null, null),
+        NEGATE(1, KernelWriter.FNEG, null, null),
+        POW(2, 0, "pow", "(DD)D"),
+        SQRT(1, 0, "sqrt", "(D)D"),
+        EXP(1, 0, "exp", "(D)D"),
+        LOG(1, 0, "log", "(D)D"),
+        ABS(1, 0, "abs", "(F)F"),
+        MIN(2, 0, "min", "(FF)F"),
+        MAX(2, 0, "max", "(FF)F");
+
+        private final int arity;
+        private final int opcode;
+        private final String method;
+        private final String descriptor;
+
+        Operator(int arity, int opcode, String method, String descriptor) {
+            this.arity = arity;
+            this.opcode = opcode;
+            this.method = method;
+            this.descriptor = descriptor;
+        }
+
+        boolean isDouble() {
+            return descriptor != null && descriptor.endsWith("D");
+        }
+
+        float apply(float a, float b) {
+            switch (this) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    return a / b;
+                case NEGATE:
+                    return -a;
+                case POW:
+                    return (float) Math.pow(a, b);
+                case SQRT:
+                    return (float) Math.sqrt(a);
+                case EXP:
+                    return (float) Math.exp(a);
+                case LOG:
+                    return (float) Math.log(a);
+                case ABS:
+                    return Math.abs(a);
+                case MIN:
+                    return Math.min(a, b);
+                default:
+                    return Math.max(a, b);
+            }
+        }
+
+        /**
+         * Writes the operator, with its operands already on the stack
+         */
+        void emit(KernelWriter writer) throws IOException {
+            if (method == null) {
+                writer.instruction(opcode, 1 - arity);
+            } else if (isDouble()) {
+                writer.invokeMath(method, descriptor, 2 - 2 * arity);
+                writer.instruction(KernelWriter.D2F, -1);
+            } else {
+                writer.invokeMath(method, descriptor, 1 - arity);
+            }
+        }
+
+        /**
+         * Writes the widening of an operand that has just been pushed, if the operator needs doubles
+         */
+        void emitOperand(KernelWriter writer) throws IOException {
+            if (isDouble()) {
+                writer.instruction(KernelWriter.F2D, 1);
+            }
+        }
+    }
+
+    /**
+     * Weak reference to a cached kernel, so the kernel's class can be unloaded
+     */
+    private static final class KernelReference extends WeakReference<ExpressionKernel> {
+        private final String key;
+
+        KernelReference(String key, ExpressionKernel kernel) {
+            super(kernel, COLLECTED);
+            this.key = key;
+        }
+    }
+
+    /**
+     * A node of the expression tree
+     */
+    private abstract static class Node {
+        /**
+         * Height of the tree below and including this node
+         */
+        final int depth;
+
+        Node(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * Writes a form of a folded node that is equal for nodes that compile to the same bytecode
+         */
+        abstract void canonical(StringBuilder sb);
+
+        /**
+         * Substitutes parameters and folds constant subtrees
+         */
+        abstract Node fold(Function<String, Float> values) throws IllegalArgumentException;
+
+        /**
+         * Writes bytecode that pushes the node's value
+         */
+        abstract void emit(KernelWriter writer) throws IOException;
+
+        abstract boolean uses(int slot);
+
+        abstract boolean usesParameter(Set<String> names);
+
+        boolean usesGeometry() {
+            for (int slot = N_DOT_L; slot <= V_DOT_R; slot++) {
+                if (uses(slot)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Adds the operands of the product this node heads, or the node itself if it is not a product
+         */
+        void factors(List<Node> factors) {
+            factors.add(this);
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final float value;
+
+        Constant(float value) {
+            super(1);
+            this.value = value;
+        }
+
+        @Override
+        Node fold(Function<String, Float> values) {
+            return this;
+        }
+
+        @Override
+        void emit(KernelWriter writer) throws IOException {
+            writer.constant(value);
+        }
+
+        @Override
+        void canonical(StringBuilder sb) {
+            sb.append(Float.floatToRawIntBits(value)).append('f');
+        }
+
+        @Override
+        boolean uses(int slot) {
+            return false;
+        }
+
+        @Override
+        boolean usesParameter(Set<String> names) {
+            return false;
+        }
+    }
+
+    private static final class Slot extends Node {
+        private final int slot;
+
+        Slot(int slot) {
+            super(1);
+            this.slot = slot;
+        }
+
+        @Override
+        Node fold(Function<String, Float> values) {
+            return this;
+        }
+
+        @Override
+        void emit(KernelWriter writer) throws IOException {
+            writer.load(slot);
+        }
+
+        @Override
+        void canonical(StringBuilder sb) {
+            sb.append('$').append(slot);
+        }
+
+        @Override
+        boolean uses(int slot) {
+            return this.slot == slot;
+        }
+
+        @Override
+        boolean usesParameter(Set<String> names) {
+            return false;
+        }
+    }
+
+    private static final class Parameter extends Node {
+        private final String name;
+
+        Parameter(String name) {
+            super(1);
+            this.name = name;
+        }
+
+        @Override
+        Node fold(Function<String, Float> values) throws IllegalArgumentException {
+            Float value = values.apply(name);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for parameter " + name);
+            }
+            return new Constant(value);
+        }
+
+        @Override
+        void emit(KernelWriter writer) {
+            throw new IllegalStateException("Parameter " + name + " was not substituted");
+        }
+
+        @Override
+        void canonical(StringBuilder sb) {
+            throw new IllegalStateException("Parameter " + name + " was not substituted");
+        }
+
+        @Override
+        boolean uses(int slot) {
+            return false;
+        }
+
+        @Override
+        boolean usesParameter(Set<String> names) {
+            return names.contains(name);
+        }
+    }
+
+    private static final class Unary extends Node {
+        private final Operator operator;
+        private final Node operand;
+
+        Unary(Operator operator, Node operand) {
+            super(operand.depth + 1);
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        Node fold(Function<String, Float> values) throws IllegalArgumentException {
+            Node folded = operand.fold(values);
+            if (folded instanceof Constant) {
+                return new Constant(operator.apply(((Constant) folded).value, 0));
+            }
+            return new Unary(operator, folded);
+        }
+
+        @Override
+        void emit(KernelWriter writer) throws IOException {
+            operand.emit(writer);
+            operator.emitOperand(writer);
+            operator.emit(writer);
+        }
+
+        @Override
+        void canonical(StringBuilder sb) {
+            sb.append(operator.name()).append('(');
+            operand.canonical(sb);
+            sb.append(')');
+        }
+
+        @Override
+        boolean uses(int slot) {
+            return operand.uses(slot);
+        }
+
+        @Override
+        boolean usesParameter(Set<String> names) {
+            return operand.usesParameter(names);
+        }
+    }
+
+    private static final class Binary extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+        Binary(Operator operator, Node left, Node right) {
+            super(Math.max(left.depth, right.depth) + 1);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Node fold(Function<String, Float> values) throws IllegalArgumentException {
+            Node l = left.fold(values);
+            Node r = right.fold(values);
+            if (l instanceof Constant && r instanceof Constant) {
+                return new Constant(operator.apply(((Constant) l).value, ((Constant) r).value));
+            }
+            return new Binary(operator, l, r);
+        }
+
+        @Override
+        void emit(KernelWriter writer) throws IOException {
+            left.emit(writer);
+            operator.emitOperand(writer);
+            right.emit(writer);
+            operator.emitOperand(writer);
+            operator.emit(writer);
+        }
+
+        @Override
+        void canonical(StringBuilder sb) {
+            sb.append(operator.name()).append('(');
+            left.canonical(sb);
+            sb.append(',');
+            right.canonical(sb);
+            sb.append(')');
+        }
+
+        @Override
+        void factors(List<Node> factors) {
+            if (operator == Operator.MULTIPLY) {
+                left.factors(factors);
+                right.factors(factors);
+            } else {
+                factors.add(this);
+            }
+        }
+
+        @Override
+        boolean uses(int slot) {
+            return left.uses(slot) || right.uses(slot);
+        }
+
+        @Override
+        boolean usesParameter(Set<String> names) {
+            return left.usesParameter(names) || right.usesParameter(names);
+        }
+    }
+
+    /**
+     * Recursive descent parser:
+     * expression = term (('+' | '-') term)*, term = unary (('*' | '/') unary)*, unary = '-' unary | power,
+     * power = primary ('^' unary)?, primary = number | identifier | identifier '(' arguments ')' | '(' expression ')'
+     */
+    private static final class Parser {
+        static final char END = '\0';
+
+        private final String source;
+        private int position;
+        private int nesting;
+        private final Set<String> parameters = new LinkedHashSet<>();
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        char peek() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+            return position < source.length() ? source.charAt(position) : END;
+        }
+
+        boolean accept(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) throws IllegalArgumentException {
+            if (!accept(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of expression: " + source);
+        }
+
+        /**
+         * Rejects trees too deep to compile
+         */
+        Node limit(Node node) throws IllegalArgumentException {
+            if (node.depth > MAX_DEPTH) {
+                throw error("Expression is nested more than " + MAX_DEPTH + " deep");
+            }
+            return node;
+        }
+
+        Node expression() throws IllegalArgumentException {
+            Node node = term();
+            while (true) {
+                if (accept('+')) {
+                    node = limit(new Binary(Operator.ADD, node, term()));
+                } else if (accept('-')) {
+                    node = limit(new Binary(Operator.SUBTRACT, node, term()));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        Node term() throws IllegalArgumentException {
+            Node node = unary();
+            while (true) {
+                if (accept('*')) {
+                    node = limit(new Binary(Operator.MULTIPLY, node, unary()));
+                } else if (accept('/')) {
+                    node = limit(new Binary(Operator.DIVIDE, node, unary()));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        Node unary() throws IllegalArgumentException {
+            // Every level of parentheses, calls and unary minus passes through here
+            if (++nesting > MAX_DEPTH) {
+                throw error("Expression is nested more than " + MAX_DEPTH + " deep");
+            }
+            try {
+                if (accept('-')) {
+                    return limit(new Unary(Operator.NEGATE, unary()));
+                }
+                Node node = primary();
+                if (accept('^')) {
+                    return limit(new Binary(Operator.POW, node, unary()));
+                }
+                return node;
+            } finally {
+                nesting--;
+            }
+        }
+
+        Node primary() throws IllegalArgumentException {
+            char c = peek();
+            if (accept('(')) {
+                Node node = expression();
+                expect(')');
+                return node;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                int start = position;
+                while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                    position++;
+                }
+                // Exponent, e.g. 1e-4
+                if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+                    position++;
+                    if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                        position++;
+                    }
+                    while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                        position++;
+                    }
+                }
+                try {
+                    return new Constant(Float.parseFloat(source.substring(start, position)));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number " + source.substring(start, position));
+                }
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = position;
+                while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                    position++;
+                }
+                String name = source.substring(start, position);
+                if (accept('(')) {
+                    return call(name);
+                }
+                return identifier(name);
+            }
+            throw error(c == END ? "Unexpected end" : "Unexpected '" + c + "'");
+        }
+
+        Node identifier(String name) throws IllegalArgumentException {
+            switch (name) {
+                case "pi":
+                    return new Constant((float) Math.PI);
+                case "e":
+                    return new Constant((float) Math.E);
+                default:
+                    if (VECTORS.contains(name)) {
+                        throw error("Vector " + name + " can only be used in dot()");
+                    }
+                    parameters.add(name);
+                    return new Parameter(name);
+            }
+        }
+
+        Node call(String name) throws IllegalArgumentException {
+            if (name.equals("dot")) {
+                String a = vector();
+                expect(',');
+                String b = vector();
+                expect(')');
+                return dot(a, b);
+            }
+
+            List<Node> arguments = new ArrayList<>();
+            if (!accept(')')) {
+                do {
+                    arguments.add(expression());
+                } while (accept(','));
+                expect(')');
+            }
+
+            Operator function = null;
+            for (Operator operator : Operator.values()) {
+                if (name.equals(operator.method)) {
+                    function = operator;
+                }
+            }
+            if (function == null) {
+                throw error("Unknown function " + name);
+            }
+            int arity = function.arity;
+            if (arguments.size() != arity) {
+                throw error(name + " takes " + arity + " arguments, found " + arguments.size());
+            }
+            return limit(arity == 1 ? new Unary(function, arguments.get(0)) : new Binary(function, arguments.get(0), arguments.get(1)));
+        }
+
+        String vector() throws IllegalArgumentException {
+            peek();
+            int start = position;
+            while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            String name = source.substring(start, position);
+            if (!VECTORS.contains(name)) {
+                throw error("Unknown vector '" + name + "', expected one of " + VECTORS);
+            }
+            return name;
+        }
+
+        /**
+         * Reduces a dot product to the geometry slots
+         * The incident ray is -light; reflect = 2 (n.l) n - l, so n.r = n.l, l.r = 2 (n.l)^2 - 1 and
+         * h.r = 2 (n.l)(n.h) - v.h; the half vector bisects l and v, so l.h = v.h.
+         */
+        Node dot(String a, String b) {
+            boolean negate = a.equals("in") ^ b.equals("in");
+            a = a.equals("in") ? "light" : a;
+            b = b.equals("in") ? "light" : b;
+            if (VECTORS.indexOf(a) > VECTORS.indexOf(b)) {
+                String swap = a;
+                a = b;
+                b = swap;
+            }
+
+            Node node;
+            switch (a + "." + b) {
+                case "normal.light":
+                case "normal.reflect":
+                    node = new Slot(N_DOT_L);
+                    break;
+                case "normal.out":
+                    node = new Slot(N_DOT_V);
+                    break;
+                case "normal.half":
+                    node = new Slot(N_DOT_H);
+                    break;
+                case "out.light":
+                    node = new Slot(L_DOT_V);
+                    break;
+                case "out.half":
+                case "light.half":
+                    node = new Slot(V_DOT_H);
+                    break;
+                case "out.reflect":
+                    node = new Slot(V_DOT_R);
+                    break;
+                case "light.reflect":
+                    node = new Binary(Operator.SUBTRACT, new Binary(Operator.MULTIPLY, new Constant(2),
+                            new Binary(Operator.MULTIPLY, new Slot(N_DOT_L), new Slot(N_DOT_L))), new Constant(1));
+                    break;
+                case "half.reflect":
+                    node = new Binary(Operator.SUBTRACT, new Binary(Operator.MULTIPLY, new Constant(2),
+                            new Binary(Operator.MULTIPLY, new Slot(N_DOT_L), new Slot(N_DOT_H))), new Slot(V_DOT_H));
+                    break;
+                default:
+                    // A unit vector with itself
+                    node = new Constant(1);
+                    break;
+            }
+            return negate ? new Unary(Operator.NEGATE, node) : node;
+        }
+    }
+}
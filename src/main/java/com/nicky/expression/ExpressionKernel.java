@@ -0,0 +1,37 @@
+package com.nicky.expression;
+
+/**
+ * <h1>Expression Kernel</h1>
+ * A compiled {@link Expression}: straight-line bytecode over the six geometry slots of a pair of directions, with its
+ * parameters folded in as constants. One kernel evaluates all three RGB channels, so a caller makes one interface
+ * call per evaluation however many kernel classes are loaded.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public interface ExpressionKernel {
+
+    /**
+     * Evaluates the expression of the red channel, without its scale
+     *
+     * @param nDotL Cosine between the normal and the light direction
+     * @param nDotV Cosine between the normal and the outgoing direction
+     * @param nDotH Cosine between the normal and the half vector
+     * @param lDotV Cosine between the light and outgoing directions
+     * @param vDotH Cosine between the outgoing direction and the half vector
+     * @param vDotR Cosine between the outgoing and mirror directions
+     * @return float Returns the value of the expression.
+     */
+    float evaluate(float nDotL, float nDotV, float nDotH, float lDotV, float vDotH, float vDotR);
+
+    /**
+     * Adds each channel's expression times its scale and the weight to an RGB buffer
+     *
+     * @param weight Weight applied to every channel
+     * @param dest   RGB buffer accumulated into
+     * @param offset Index of the red channel in dest
+     * @see #evaluate(float, float, float, float, float, float)
+     */
+    void accumulate(float nDotL, float nDotV, float nDotH, float lDotV, float vDotH, float vDotR, float weight, float[] dest, int offset);
+}
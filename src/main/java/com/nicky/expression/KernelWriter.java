@@ -0,0 +1,289 @@
+package com.nicky.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>Kernel Writer</h1>
+ * Writes the class file of one {@link ExpressionKernel} and defines it in a class loader of its own, so the class is
+ * unloaded once the kernel is no longer used. Expressions have no branches, so every method is a single basic block
+ * and needs no stack map frames. Methods over the class file limit of 65535 bytes of code, constant pool entries or
+ * stack slots are rejected before the class is defined.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+final class KernelWriter {
+
+    static final int FLOAD = 0x17;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int FSTORE = 0x38;
+    static final int FALOAD = 0x30;
+    static final int FASTORE = 0x51;
+    static final int DUP2 = 0x5c;
+    static final int IADD = 0x60;
+    static final int ICONST_0 = 0x03;
+    static final int FRETURN = 0xae;
+    static final int RETURN = 0xb1;
+    static final int FADD = 0x62;
+    static final int FSUB = 0x66;
+    static final int FMUL = 0x6a;
+    static final int FDIV = 0x6e;
+    static final int FNEG = 0x76;
+    static final int F2D = 0x8d;
+    static final int D2F = 0x90;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private static final int MAJOR_VERSION = 53;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int LIMIT = 65535;
+
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream code = new DataOutputStream(codeBytes);
+    private int stack;
+    private int maxStack;
+
+    /**
+     * Finished methods, written after the constructor
+     */
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * Loads a geometry slot
+     */
+    void load(int slot) throws IOException {
+        local(FLOAD, slot + 1, 1);
+    }
+
+    /**
+     * Writes an instruction on a local variable
+     *
+     * @param opcode The opcode, e.g. FLOAD or FSTORE
+     * @param local  Index of the local variable
+     * @param delta  Change in stack depth, in slots
+     */
+    void local(int opcode, int local, int delta) throws IOException {
+        code.writeByte(opcode);
+        code.writeByte(local);
+        push(delta);
+    }
+
+    void constant(float value) throws IOException {
+        code.writeByte(LDC_W);
+        code.writeShort(entry("F" + Float.floatToRawIntBits(value), 4, out -> out.writeFloat(value)));
+        push(1);
+    }
+
+    /**
+     * Writes an instruction without operands
+     *
+     * @param opcode The opcode
+     * @param delta  Change in stack depth, in slots
+     */
+    void instruction(int opcode, int delta) throws IOException {
+        code.writeByte(opcode);
+        push(delta);
+    }
+
+    /**
+     * Calls a static method of java.lang.Math
+     *
+     * @param name       Method name
+     * @param descriptor Method descriptor
+     * @param delta      Change in stack depth, in slots
+     */
+    void invokeMath(String name, String descriptor, int delta) throws IOException {
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(methodref(0x0a, "java/lang/Math", name, descriptor));
+        push(delta);
+    }
+
+    private void push(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /**
+     * Ends the method whose body has been written, ready for the next one
+     *
+     * @param name       Method name
+     * @param descriptor Method descriptor
+     * @param maxLocals  Number of local variable slots, including this and the arguments
+     * @throws IllegalArgumentException If the method is too large for a class file.
+     */
+    void endMethod(String name, String descriptor, int maxLocals) throws IOException, IllegalArgumentException {
+        code.flush();
+        if (codeBytes.size() > LIMIT || maxStack > LIMIT) {
+            throw new IllegalArgumentException("Expression is too large to compile: " + codeBytes.size() + " bytes of code and "
+                    + maxStack + " stack slots, the limit is " + LIMIT);
+        }
+        methods.add(new Method(utf8(name), utf8(descriptor), maxStack, maxLocals, codeBytes.toByteArray()));
+        codeBytes.reset();
+        stack = 0;
+        maxStack = 0;
+    }
+
+    /**
+     * Defines the class once its methods have been written
+     *
+     * @return ExpressionKernel Returns an instance of the new class.
+     * @throws IllegalArgumentException If the constant pool is too large for a class file.
+     */
+    ExpressionKernel define() throws IOException, ReflectiveOperationException, IllegalArgumentException {
+        String name = KernelWriter.class.getPackage().getName().replace('.', '/') + "/ExpressionKernel$" + COUNT.incrementAndGet();
+        String kernel = ExpressionKernel.class.getName().replace('.', '/');
+
+        int thisClass = classref(name);
+        int superClass = classref("java/lang/Object");
+        int kernelClass = classref(kernel);
+        int superInit = methodref(0x0a, "java/lang/Object", "<init>", "()V");
+        int init = utf8("<init>");
+        int initDescriptor = utf8("()V");
+        int codeAttribute = utf8("Code");
+        if (poolCount > LIMIT) {
+            throw new IllegalArgumentException("Expression is too large to compile: " + poolCount + " constants, the limit is " + LIMIT);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(MAJOR_VERSION);
+        out.writeShort(poolCount);
+        pool.flush();
+        poolBytes.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(kernelClass);
+        out.writeShort(0);
+
+        out.writeShort(1 + methods.size());
+        // public <init>() { super(); }
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(init);
+        out.writeShort(initDescriptor);
+        out.writeShort(1);
+        byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit, (byte) RETURN};
+        writeCode(out, codeAttribute, 1, 1, initCode);
+
+        for (Method method : methods) {
+            out.writeShort(ACC_PUBLIC | ACC_FINAL);
+            out.writeShort(method.name);
+            out.writeShort(method.descriptor);
+            out.writeShort(1);
+            writeCode(out, codeAttribute, method.maxStack, method.maxLocals, method.code);
+        }
+
+        out.writeShort(0);
+        out.flush();
+
+        Class<?> type = new KernelLoader().define(name.replace('/', '.'), bytes.toByteArray());
+        return (ExpressionKernel) type.getDeclaredConstructor().newInstance();
+    }
+
+    private static void writeCode(DataOutputStream out, int codeAttribute, int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * A finished method: its constant pool indices, limits and code
+     */
+    private static final class Method {
+        private final int name;
+        private final int descriptor;
+        private final int maxStack;
+        private final int maxLocals;
+        private final byte[] code;
+
+        Method(int name, int descriptor, int maxStack, int maxLocals, byte[] code) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Defines one kernel class; the class, and this loader, are unloaded once the kernel is unreachable
+     */
+    private static final class KernelLoader extends ClassLoader {
+        KernelLoader() {
+            super(ExpressionKernel.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Adds a constant pool entry unless an equal one exists
+     */
+    private int entry(String key, int tag, EntryWriter writer) throws IOException {
+        Integer index = entries.get(key);
+        if (index == null) {
+            pool.writeByte(tag);
+            writer.write(pool);
+            index = poolCount++;
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    private int utf8(String value) throws IOException {
+        return entry("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    private int classref(String name) throws IOException {
+        int index = utf8(name);
+        return entry("C" + name, 7, out -> out.writeShort(index));
+    }
+
+    private int methodref(int tag, String owner, String name, String descriptor) throws IOException {
+        int ownerIndex = classref(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return entry("M" + owner + "." + name + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+}
@@ -2,6 +2,7 @@ package com.nicky.factories;
 
 import com.google.gson.JsonObject;
 import com.nicky.brdfs.BRDF;
+import com.nicky.definitions.ComponentDefinition;
 
 /**
  * <h1>BRDF Factory</h1>
@@ -19,6 +20,16 @@ public interface BRDFFactory {
      */
     void setProperties(JsonObject propertiesJSON) throws IndexOutOfBoundsException;
 
+    /**
+     * Sets up values for a BRDF from a parsed definition
+     * Factories that only read JSON get the definition converted back to a JsonObject.
+     *
+     * @param definition The parsed component definition
+     */
+    default void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        setProperties(definition.toJson());
+    }
+
     /**
      * Creates an instance of the relevant BRDF and initialises it with default values
      *
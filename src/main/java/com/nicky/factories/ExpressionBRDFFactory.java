@@ -0,0 +1,100 @@
+package com.nicky.factories;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.ExpressionBRDF;
+import com.nicky.definitions.ComponentDefinition;
+import com.nicky.expression.Expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Expression BRDF Factory</h1>
+ * Represents a Factory for the Expression BRDF
+ * The "expression" property holds the reflectance expression, the optional "reflectionType" defaults to diffuse, and
+ * every other numeric property is a parameter: a number is a scalar and an array of 3 numbers an RGB spectrum.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ExpressionBRDFFactory implements BRDFFactory {
+
+    private Expression expression;
+    private String reflectionType;
+    private final Map<String, Float> scalars = new LinkedHashMap<>();
+    private final Map<String, Spectrum> spectra = new LinkedHashMap<>();
+
+    @Override
+    public void setProperties(JsonObject propertiesJSON) throws IndexOutOfBoundsException, IllegalArgumentException {
+        // Parameters of a previous definition must not leak into this one
+        scalars.clear();
+        spectra.clear();
+        if (!propertiesJSON.has("expression")) {
+            throw new IllegalArgumentException("Missing property expression of ExpressionBRDF");
+        }
+        expression = Expression.parse(propertiesJSON.get("expression").getAsString());
+        reflectionType = propertiesJSON.has("reflectionType") ? propertiesJSON.get("reflectionType").getAsString() : "diffuse";
+
+        for (Map.Entry<String, JsonElement> entry : propertiesJSON.entrySet()) {
+            String property = entry.getKey();
+            JsonElement value = entry.getValue();
+            if (!expression.getParameters().contains(property)) {
+                continue;
+            }
+            if (value.isJsonArray()) {
+                Spectrum spectrum = new Spectrum();
+                spectrum.setR(value.getAsJsonArray().get(0).getAsFloat());
+                spectrum.setG(value.getAsJsonArray().get(1).getAsFloat());
+                spectrum.setB(value.getAsJsonArray().get(2).getAsFloat());
+                spectra.put(property, spectrum);
+            } else {
+                scalars.put(property, value.getAsFloat());
+            }
+        }
+        validate();
+    }
+
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        scalars.clear();
+        spectra.clear();
+        String source = definition.getString("expression");
+        if (source == null) {
+            throw new IllegalArgumentException("Missing property expression of " + definition.getName());
+        }
+        expression = Expression.parse(source);
+        reflectionType = definition.getString("reflectionType") != null ? definition.getString("reflectionType") : "diffuse";
+
+        for (String property : definition.getNumericProperties()) {
+            if (!expression.getParameters().contains(property)) {
+                continue;
+            }
+            if (definition.getLength(property) == 1) {
+                scalars.put(property, definition.getFloat(property));
+            } else {
+                spectra.put(property, definition.getSpectrum(property));
+            }
+        }
+        validate();
+    }
+
+    /**
+     * Checks every parameter of the expression has a value
+     */
+    private void validate() throws IllegalArgumentException {
+        for (String parameter : expression.getParameters()) {
+            if (!scalars.containsKey(parameter) && !spectra.containsKey(parameter)) {
+                throw new IllegalArgumentException("Missing parameter " + parameter + " of expression: " + expression);
+            }
+        }
+    }
+
+    @Override
+    public BRDF createBRDF() {
+        return new ExpressionBRDF(expression, scalars, spectra, reflectionType);
+    }
+}
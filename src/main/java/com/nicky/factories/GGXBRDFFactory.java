@@ -0,0 +1,54 @@
+package com.nicky.factories;
+
+import com.google.gson.JsonObject;
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.GGXBRDF;
+import com.nicky.definitions.ComponentDefinition;
+
+/**
+ * <h1>GGX BRDF Factory</h1>
+ * Represents a Factory for the GGX microfacet BRDF
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class GGXBRDFFactory implements BRDFFactory {
+
+    private Spectrum specularReflectivity = new Spectrum();
+
+    private float roughness;
+
+    @Override
+    public void setProperties(JsonObject propertiesJSON) throws IndexOutOfBoundsException, IllegalArgumentException {
+
+        try {
+            specularReflectivity.setR(propertiesJSON.getAsJsonArray("specularReflectivity").get(0).getAsFloat());
+            specularReflectivity.setG(propertiesJSON.getAsJsonArray("specularReflectivity").get(1).getAsFloat());
+            specularReflectivity.setB(propertiesJSON.getAsJsonArray("specularReflectivity").get(2).getAsFloat());
+            roughness = propertiesJSON.get("roughness").getAsFloat();
+            specularReflectivity.validate();
+            if (!(roughness > 0 && roughness <= 1)) {
+                throw new IllegalArgumentException("Roughness is invalid: " + roughness);
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        specularReflectivity = definition.getSpectrum("specularReflectivity");
+        roughness = definition.getFloat("roughness");
+        specularReflectivity.validate();
+        if (!(roughness > 0 && roughness <= 1)) {
+            throw new IllegalArgumentException("Roughness is invalid: " + roughness);
+        }
+    }
+
+    @Override
+    public BRDF createBRDF() {
+        return new GGXBRDF(specularReflectivity, roughness);
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import com.nicky.Spectrum;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.definitions.ComponentDefinition;
 
 /**
  * <h1>Lambertian BRDF Factory</h1>
@@ -29,6 +30,12 @@ public class LambertianBRDFFactory implements BRDFFactory {
         }
     }
 
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        reflectivity = definition.getSpectrum("reflectivity");
+        reflectivity.validate();
+    }
+
     @Override
     public BRDF createBRDF() {
         return new LambertianBRDF(reflectivity);
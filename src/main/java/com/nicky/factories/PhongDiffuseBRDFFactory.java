@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import com.nicky.Spectrum;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.PhongDiffuseBRDF;
+import com.nicky.definitions.ComponentDefinition;
 
 /**
  * <h1>Lambertian BRDF Factory</h1>
@@ -33,6 +34,12 @@ public class PhongDiffuseBRDFFactory implements BRDFFactory {
         }
     }
 
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        reflectivity = definition.getSpectrum("diffuseReflectivity");
+        reflectivity.validate();
+    }
+
     @Override
     public BRDF createBRDF() {
         return new PhongDiffuseBRDF(reflectivity);
@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import com.nicky.Spectrum;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.definitions.ComponentDefinition;
 
 /**
  * <h1>Phong Specular BRDF Factory</h1>
@@ -33,6 +34,13 @@ public class PhongSpecularBRDFFactory implements BRDFFactory {
         }
     }
 
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        specularReflectivity = definition.getSpectrum("specularReflectivity");
+        specularExponent = definition.getFloat("specularExponent");
+        specularReflectivity.validate();
+    }
+
     @Override
     public BRDF createBRDF() {
         return new PhongSpecularBRDF(specularReflectivity, specularExponent);
@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import com.nicky.Spectrum;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.ShinyDiffuseBRDF;
+import com.nicky.definitions.ComponentDefinition;
 
 /**
  * <h1>ShinyDiffuse BRDF Factory</h1>
@@ -31,6 +32,13 @@ public class ShinyDiffuseBRDFFactory implements BRDFFactory {
         }
     }
 
+    @Override
+    public void setProperties(ComponentDefinition definition) throws IndexOutOfBoundsException, IllegalArgumentException {
+        reflectivity = definition.getSpectrum("diffuseReflectivity");
+        reflection = definition.getFloat("reflection");
+        reflectivity.validate();
+    }
+
     @Override
     public BRDF createBRDF() {
         return new ShinyDiffuseBRDF(reflectivity, reflection);
@@ -0,0 +1,304 @@
+package com.nicky.fitting;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.resources.Utils;
+import com.nicky.resources.Pair;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleBounds;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.BOBYQAOptimizer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>BRDF Fitter</h1>
+ * Fits the parameters of an analytic model to reference BRDF data.
+ * Minimises the weighted squared RGB error over a fixed set of direction pairs with the BOBYQA optimiser.
+ * The error is evaluated in parallel over chunks of direction pairs, and several starts from random initial
+ * guesses run in parallel; the best result wins.
+ * <p>
+ * Directions are in the local frame with the normal along +x. Incident rays travel towards the surface.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFFitter {
+
+    private static final Logger LOGGER = Logger.getLogger(BRDFFitter.class.getName());
+
+    /**
+     * Direction pairs per parallel error task
+     */
+    private static final int CHUNK_SIZE = 2048;
+
+    /**
+     * Exponent of the lobe around the mirror direction used to place half of the generated samples
+     */
+    private static final double SAMPLING_EXPONENT = 100;
+
+    /**
+     * Packed (in.xyz, out.xyz) directions
+     */
+    private final float[] directions;
+    /**
+     * Packed reference RGB values
+     */
+    private final float[] values;
+    /**
+     * Weight of each direction pair, normalised to sum to 1
+     */
+    private final float[] weights;
+    private final int count;
+
+    private int starts = Runtime.getRuntime().availableProcessors();
+    private int maxEvaluations = 2000;
+    private long seed = 100;
+
+    /**
+     * Fits to tabulated reference data
+     *
+     * @param directions Packed (in.xyz, out.xyz) directions
+     * @param values     Packed reference RGB values
+     * @param weights    Weight of each direction pair
+     * @param count      Number of direction pairs
+     */
+    public BRDFFitter(float[] directions, float[] values, float[] weights, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("No reference data");
+        }
+        this.directions = directions;
+        this.values = values;
+        this.count = count;
+        this.weights = new float[count];
+
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += weights[i];
+        }
+        for (int i = 0; i < count; i++) {
+            this.weights[i] = (float) (weights[i] / total);
+        }
+    }
+
+    /**
+     * Samples a reference BRDF
+     * Half of the outgoing directions are uniform over the hemisphere and half are concentrated around the
+     * mirror direction. Weights are cos theta / pdf, so the error estimates the cosine-weighted L2 distance.
+     *
+     * @param reference The reference BRDF
+     * @param samples   Number of direction pairs
+     * @param seed      Random seed
+     * @return BRDFFitter Returns the fitter.
+     */
+    public static BRDFFitter fromBRDF(BRDF reference, int samples, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] directions = new float[samples * 6];
+        float[] values = new float[samples * 3];
+        float[] weights = new float[samples];
+
+        for (int i = 0; i < samples; i++) {
+            int d = i * 6;
+            // Incident ray travelling towards the surface
+            double[] in = uniformHemisphere(random);
+            double inX = -in[0], inY = -in[1], inZ = -in[2];
+            double mirrorX = -inX;
+
+            double[] out;
+            if (random.nextBoolean()) {
+                out = uniformHemisphere(random);
+            } else {
+                out = aroundAxis(mirrorX, inY, inZ, random);
+            }
+            if (out[0] <= 0) {
+                // Below the surface: keep the sample but give it no weight
+                out = uniformHemisphere(random);
+                weights[i] = 0;
+            } else {
+                double cosAlpha = Math.max(0, out[0] * mirrorX + out[1] * inY + out[2] * inZ);
+                double pdf = 0.5 / (2 * Math.PI) + 0.5 * (SAMPLING_EXPONENT + 1) / (2 * Math.PI) * Math.pow(cosAlpha, SAMPLING_EXPONENT);
+                weights[i] = (float) (out[0] / pdf);
+            }
+
+            directions[d] = (float) inX;
+            directions[d + 1] = (float) inY;
+            directions[d + 2] = (float) inZ;
+            directions[d + 3] = (float) out[0];
+            directions[d + 4] = (float) out[1];
+            directions[d + 5] = (float) out[2];
+            reference.accumulateF(directions[d], directions[d + 1], directions[d + 2], directions[d + 3], directions[d + 4], directions[d + 5], 1, values, i * 3);
+        }
+
+        return new BRDFFitter(directions, values, weights, samples);
+    }
+
+    private static double[] uniformHemisphere(SplittableRandom random) {
+        double cosTheta = random.nextDouble();
+        double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+        double phi = 2 * Math.PI * random.nextDouble();
+        return new double[]{cosTheta, sinTheta * Math.cos(phi), sinTheta * Math.sin(phi)};
+    }
+
+    /**
+     * Samples a cos^n lobe around a unit axis
+     */
+    private static double[] aroundAxis(double ax, double ay, double az, SplittableRandom random) {
+        double cosAlpha = Math.pow(random.nextDouble(), 1.0 / (SAMPLING_EXPONENT + 1));
+        double sinAlpha = Math.sqrt(Math.max(0, 1 - cosAlpha * cosAlpha));
+        double phi = 2 * Math.PI * random.nextDouble();
+
+        // Orthonormal basis around the axis (Duff et al.)
+        double sign = Math.copySign(1.0, az);
+        double a = -1.0 / (sign + az);
+        double b = ax * ay * a;
+        double tx = 1.0 + sign * ax * ax * a, ty = sign * b, tz = -sign * ax;
+        double bx = b, by = sign + ay * ay * a, bz = -ay;
+
+        double u = sinAlpha * Math.cos(phi);
+        double v = sinAlpha * Math.sin(phi);
+        return new double[]{ax * cosAlpha + tx * u + bx * v, ay * cosAlpha + ty * u + by * v, az * cosAlpha + tz * u + bz * v};
+    }
+
+    /**
+     * Weighted mean squared RGB error of a BRDF against the reference, evaluated in parallel
+     *
+     * @param brdf The BRDF to compare
+     * @return double Returns the error.
+     */
+    public double error(BRDF brdf) {
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks).parallel().mapToDouble(chunk -> {
+            float[] rgb = new float[3];
+            double sum = 0;
+            for (int i = chunk * CHUNK_SIZE, end = Math.min(i + CHUNK_SIZE, count); i < end; i++) {
+                int d = i * 6;
+                rgb[0] = 0;
+                rgb[1] = 0;
+                rgb[2] = 0;
+                brdf.accumulateF(directions[d], directions[d + 1], directions[d + 2], directions[d + 3], directions[d + 4], directions[d + 5], 1, rgb, 0);
+                double dr = rgb[0] - values[i * 3];
+                double dg = rgb[1] - values[i * 3 + 1];
+                double db = rgb[2] - values[i * 3 + 2];
+                sum += weights[i] * (dr * dr + dg * dg + db * db);
+            }
+            return sum;
+        }).sum();
+    }
+
+    /**
+     * Fits a model, running several starts in parallel
+     *
+     * @param model The model to fit
+     * @return FitResult Returns the best fit.
+     */
+    public FitResult fit(ParametricModel model) {
+        int dimension = model.dimension();
+        if (dimension < 2) {
+            throw new IllegalArgumentException("Models need at least 2 parameters to be fitted: " + dimension);
+        }
+        long start = System.nanoTime();
+        AtomicLong evaluations = new AtomicLong();
+
+        double[] lower = new double[dimension];
+        double[] upper = new double[dimension];
+        Arrays.fill(upper, 1);
+
+        List<PointValuePair> results = IntStream.range(0, starts).parallel().mapToObj(s -> {
+            SplittableRandom random = new SplittableRandom(seed + s);
+            double[] guess = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                guess[i] = s == 0 ? 0.5 : random.nextDouble();
+            }
+
+            BOBYQAOptimizer optimizer = new BOBYQAOptimizer(2 * dimension + 1, 0.25, 1e-6);
+            return optimizer.optimize(
+                    new MaxEval(maxEvaluations),
+                    new ObjectiveFunction(params -> {
+                        evaluations.incrementAndGet();
+                        return error(model.create(params, 0));
+                    }),
+                    GoalType.MINIMIZE,
+                    new InitialGuess(guess),
+                    new SimpleBounds(lower, upper));
+        }).collect(Collectors.toList());
+
+        PointValuePair best = results.stream().min(Comparator.comparingDouble(PointValuePair::getValue)).get();
+        FitResult result = new FitResult(model.create(best.getPoint(), 0), best.getPoint(), best.getValue(), evaluations.get());
+
+        LOGGER.info("[" + result.getBRDF().getName() + "] Fitted in " + (System.nanoTime() - start) / 1000000 + "ms over "
+                + starts + " starts and " + evaluations.get() + " error evaluations, RMS error " + Math.sqrt(best.getValue()));
+        return result;
+    }
+
+    public void setStarts(int starts) {
+        this.starts = starts;
+    }
+
+    public void setMaxEvaluations(int maxEvaluations) {
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * <h1>Fit Result</h1>
+     * The fitted BRDF and its error.
+     */
+    public static class FitResult {
+        private final BRDF brdf;
+        private final double[] params;
+        private final double error;
+        private final long evaluations;
+
+        FitResult(BRDF brdf, double[] params, double error, long evaluations) {
+            this.brdf = brdf;
+            this.params = params;
+            this.error = error;
+            this.evaluations = evaluations;
+        }
+
+        public BRDF getBRDF() {
+            return brdf;
+        }
+
+        /**
+         * @return double[] The normalised parameters.
+         */
+        public double[] getParams() {
+            return params;
+        }
+
+        /**
+         * @return double The weighted mean squared error.
+         */
+        public double getError() {
+            return error;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        /**
+         * Serialises the fitted BRDF as a definition file BRDFManager can load
+         *
+         * @param alias The alias of the definition
+         * @return String Returns the JSON definition.
+         */
+        public String toJson(String alias) {
+            return Utils.serialiseBRDFJson(new Pair<>(alias, brdf));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.nicky.fitting;
+
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.GGXBRDF;
+import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+
+
+/**
+ * <h1>Parametric Model</h1>
+ * An analytic BRDF model whose parameters can be fitted.
+ * Parameters are normalised to [0, 1] so that optimisers see a well-scaled search space; each model maps
+ * them onto its own ranges (exponents are mapped logarithmically).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public interface ParametricModel {
+
+    /**
+     * Largest specular exponent the fitted models can reach
+     */
+    float MAX_EXPONENT = 10000f;
+
+    /**
+     * Gets the number of parameters
+     *
+     * @return int The number of normalised parameters.
+     */
+    int dimension();
+
+    /**
+     * Creates the BRDF for a set of normalised parameters
+     *
+     * @param params Normalised parameters, each in [0, 1]
+     * @param offset Index of the model's first parameter in params
+     * @return BRDF The BRDF instance.
+     */
+    BRDF create(double[] params, int offset);
+
+    /**
+     * Lambertian BRDF: diffuse reflectivity (r, g, b)
+     *
+     * @return ParametricModel The model.
+     */
+    static ParametricModel lambertian() {
+        return new ParametricModel() {
+            @Override
+            public int dimension() {
+                return 3;
+            }
+
+            @Override
+            public BRDF create(double[] params, int offset) {
+                return new LambertianBRDF(spectrum(params, offset));
+            }
+        };
+    }
+
+    /**
+     * Phong Specular BRDF: specular reflectivity (r, g, b) and specular exponent
+     *
+     * @return ParametricModel The model.
+     */
+    static ParametricModel phongSpecular() {
+        return new ParametricModel() {
+            @Override
+            public int dimension() {
+                return 4;
+            }
+
+            @Override
+            public BRDF create(double[] params, int offset) {
+                return new PhongSpecularBRDF(spectrum(params, offset), exponent(params[offset + 3]));
+            }
+        };
+    }
+
+    /**
+     * ShinyDiffuse BRDF: diffuse reflectivity (r, g, b) and reflection
+     *
+     * @return ParametricModel The model.
+     */
+    static ParametricModel shinyDiffuse() {
+        return new ParametricModel() {
+            @Override
+            public int dimension() {
+                return 4;
+            }
+
+            @Override
+            public BRDF create(double[] params, int offset) {
+                return new ShinyDiffuseBRDF(spectrum(params, offset), exponent(params[offset + 3]));
+            }
+        };
+    }
+
+    /**
+     * GGX BRDF: specular reflectivity (r, g, b) and roughness
+     *
+     * @return ParametricModel The model.
+     */
+    static ParametricModel ggx() {
+        return new ParametricModel() {
+            @Override
+            public int dimension() {
+                return 4;
+            }
+
+            @Override
+            public BRDF create(double[] params, int offset) {
+                return new GGXBRDF(spectrum(params, offset), (float) Math.max(1e-3, params[offset + 3]));
+            }
+        };
+    }
+
+    /**
+     * Composite BRDF: the parameters of each component followed by one weighting per component
+     *
+     * @param alias      Alias of the fitted composite
+     * @param components The component models
+     * @return ParametricModel The model.
+     */
+    static ParametricModel composite(String alias, ParametricModel... components) {
+        int dimension = components.length;
+        for (ParametricModel component : components) {
+            dimension += component.dimension();
+        }
+        final int totalDimension = dimension;
+
+        return new ParametricModel() {
+            @Override
+            public int dimension() {
+                return totalDimension;
+            }
+
+            @Override
+            public BRDF create(double[] params, int offset) {
+                BRDF[] brdfs = new BRDF[components.length];
+                float[] weightings = new float[components.length];
+                int weightOffset = offset + totalDimension - components.length;
+                int o = offset;
+                for (int i = 0; i < components.length; i++) {
+                    brdfs[i] = components[i].create(params, o);
+                    weightings[i] = (float) params[weightOffset + i];
+                    o += components[i].dimension();
+                }
+                return new CompositeBRDF(alias, brdfs, weightings);
+            }
+        };
+    }
+
+    static Spectrum spectrum(double[] params, int offset) {
+        return new Spectrum((float) params[offset], (float) params[offset + 1], (float) params[offset + 2]);
+    }
+
+    /**
+     * Maps a normalised parameter onto [0, MAX_EXPONENT] logarithmically
+     */
+    static float exponent(double normalised) {
+        return (float) (Math.pow(MAX_EXPONENT + 1, normalised) - 1);
+    }
+}
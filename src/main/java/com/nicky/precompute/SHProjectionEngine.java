@@ -0,0 +1,218 @@
+package com.nicky.precompute;
+
+import com.nicky.ShadingFrame;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>SH Projection Engine</h1>
+ * Projects BRDFs into spherical harmonic coefficients for low-frequency lighting.
+ * For each of a fixed set of incident elevations, the cosine-weighted BRDF lobe over the outgoing hemisphere
+ * is projected onto the SH basis, so shading under SH lighting becomes a dot product of coefficient vectors.
+ * Incident directions are projected in parallel and results are cached by BRDF definition.
+ * <p>
+ * Directions are expressed in a z-up frame with incident directions in the xz plane (phi = 0).
+ * Coefficients are packed as [incident][coefficient][rgb], see {@link #index(int, int, int)}.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SHProjectionEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(SHProjectionEngine.class.getName());
+
+    private final int bands;
+    private final int numCoefficients;
+    private final int incidentDirections;
+    private final int samples;
+
+    /**
+     * Stratified outgoing directions shared by every projection, packed (x, y, z)
+     */
+    private final float[] outDirections;
+    /**
+     * Basis values of each outgoing direction, premultiplied by cos theta / (pdf * samples)
+     */
+    private final float[] weightedBasis;
+    private final ShadingFrame frame = new ShadingFrame(new Vector3f(0, 0, 1));
+
+    /**
+     * Projections keyed by the BRDF's serialised definition
+     */
+    private final Map<String, float[]> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param bands              Number of SH bands (bands * bands coefficients)
+     * @param incidentDirections Number of incident elevations, uniformly spaced in cos theta
+     * @param samples            Number of outgoing samples per incident direction (rounded up to a square)
+     */
+    public SHProjectionEngine(int bands, int incidentDirections, int samples) {
+        if (bands <= 0 || incidentDirections <= 0 || samples <= 0) {
+            throw new IllegalArgumentException("Invalid SH projection settings: bands=" + bands
+                    + ", incidentDirections=" + incidentDirections + ", samples=" + samples);
+        }
+        int strata = (int) Math.ceil(Math.sqrt(samples));
+
+        this.bands = bands;
+        this.numCoefficients = SphericalHarmonics.numCoefficients(bands);
+        this.incidentDirections = incidentDirections;
+        this.samples = strata * strata;
+        this.outDirections = new float[this.samples * 3];
+        this.weightedBasis = new float[this.samples * numCoefficients];
+
+        // Uniform hemisphere sampling, pdf = 1 / (2 pi)
+        double weight = 2 * Math.PI / this.samples;
+        SplittableRandom random = new SplittableRandom(100);
+        int s = 0;
+        for (int i = 0; i < strata; i++) {
+            for (int j = 0; j < strata; j++, s++) {
+                double cosTheta = (i + random.nextDouble()) / strata;
+                double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+                double phi = 2 * Math.PI * (j + random.nextDouble()) / strata;
+                double x = sinTheta * Math.cos(phi);
+                double y = sinTheta * Math.sin(phi);
+
+                outDirections[s * 3] = (float) x;
+                outDirections[s * 3 + 1] = (float) y;
+                outDirections[s * 3 + 2] = (float) cosTheta;
+
+                int offset = s * numCoefficients;
+                SphericalHarmonics.evaluate(bands, x, y, cosTheta, weightedBasis, offset);
+                for (int c = 0; c < numCoefficients; c++) {
+                    weightedBasis[offset + c] *= (float) (cosTheta * weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * Projects a BRDF, or returns its cached projection
+     * The returned array is shared with the cache and must not be modified.
+     *
+     * @param brdf The BRDF to project
+     * @return float[] Returns the packed RGB coefficients for every incident direction.
+     */
+    public float[] project(BRDF brdf) {
+        String key = brdf.getName() + ":" + brdf.serialise();
+        float[] coefficients = cache.get(key);
+        if (coefficients != null) {
+            return coefficients;
+        }
+
+        long start = System.nanoTime();
+        coefficients = new float[incidentDirections * numCoefficients * 3];
+        final float[] dest = coefficients;
+        IntStream.range(0, incidentDirections).parallel().forEach(i -> projectIncident(brdf, i, dest));
+        LOGGER.info("[" + brdf.getName() + "] Projected into " + bands + " SH bands over " + incidentDirections
+                + " incident directions in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+        float[] previous = cache.putIfAbsent(key, coefficients);
+        return previous != null ? previous : coefficients;
+    }
+
+    /**
+     * Projects the BRDF lobe of one incident direction
+     */
+    private void projectIncident(BRDF brdf, int incident, float[] dest) {
+        float cosTheta = getIncidentCosTheta(incident);
+        float sinTheta = (float) Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+
+        // Incident ray travels towards the surface
+        float[] in = new float[samples * 3];
+        for (int s = 0; s < samples; s++) {
+            in[s * 3] = -sinTheta;
+            in[s * 3 + 2] = -cosTheta;
+        }
+        float[] values = new float[samples * 3];
+        brdf.f(frame, in, outDirections, values, samples);
+
+        int base = incident * numCoefficients * 3;
+        for (int s = 0; s < samples; s++) {
+            float r = values[s * 3];
+            float g = values[s * 3 + 1];
+            float b = values[s * 3 + 2];
+            int basisOffset = s * numCoefficients;
+            for (int c = 0; c < numCoefficients; c++) {
+                float y = weightedBasis[basisOffset + c];
+                int i = base + c * 3;
+                dest[i] += r * y;
+                dest[i + 1] += g * y;
+                dest[i + 2] += b * y;
+            }
+        }
+    }
+
+    /**
+     * Shades an incident direction under SH lighting: the dot product of the BRDF and lighting coefficients
+     *
+     * @param coefficients A projection returned by {@link #project(BRDF)}
+     * @param incident     Incident direction index
+     * @param lighting     Lighting coefficients, packed [coefficient][rgb]
+     * @param rgb          Will hold the reflected radiance
+     */
+    public void shade(float[] coefficients, int incident, float[] lighting, float[] rgb) {
+        float r = 0, g = 0, b = 0;
+        int base = index(incident, 0, 0);
+        for (int c = 0, i = 0; c < numCoefficients; c++, i += 3) {
+            r += coefficients[base + i] * lighting[i];
+            g += coefficients[base + i + 1] * lighting[i + 1];
+            b += coefficients[base + i + 2] * lighting[i + 2];
+        }
+        rgb[0] = r;
+        rgb[1] = g;
+        rgb[2] = b;
+    }
+
+    /**
+     * Index of a value in a packed projection
+     *
+     * @param incident    Incident direction index
+     * @param coefficient SH coefficient index, see {@link SphericalHarmonics#index(int, int)}
+     * @param channel     0, 1 or 2 for R, G or B
+     * @return int Returns the index.
+     */
+    public int index(int incident, int coefficient, int channel) {
+        return (incident * numCoefficients + coefficient) * 3 + channel;
+    }
+
+    /**
+     * Cosine of the elevation of an incident direction
+     *
+     * @param incident Incident direction index
+     * @return float Returns cos theta.
+     */
+    public float getIncidentCosTheta(int incident) {
+        return (incident + 0.5f) / incidentDirections;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getNumCoefficients() {
+        return numCoefficients;
+    }
+
+    public int getIncidentDirections() {
+        return incidentDirections;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+}
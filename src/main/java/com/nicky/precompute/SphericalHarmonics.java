@@ -0,0 +1,109 @@
+package com.nicky.precompute;
+
+/**
+ * <h1>Spherical Harmonics</h1>
+ * Evaluates the real spherical harmonic basis.
+ * Coefficient (l, m) is stored at index l * (l + 1) + m, so a projection up to n bands holds n * n coefficients.
+ * Directions are given in a z-up frame.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SphericalHarmonics {
+
+    private SphericalHarmonics() {
+    }
+
+    /**
+     * Number of coefficients needed for a number of bands
+     *
+     * @param bands Number of bands
+     * @return int Returns bands * bands.
+     */
+    public static int numCoefficients(int bands) {
+        return bands * bands;
+    }
+
+    /**
+     * Index of coefficient (l, m)
+     *
+     * @param l Band
+     * @param m Order, -l to l
+     * @return int Returns the coefficient index.
+     */
+    public static int index(int l, int m) {
+        return l * (l + 1) + m;
+    }
+
+    /**
+     * Evaluates all basis functions for a unit direction
+     *
+     * @param bands  Number of bands
+     * @param x      Direction x
+     * @param y      Direction y
+     * @param z      Direction z (cos theta)
+     * @param dest   Will hold the bands * bands basis values
+     * @param offset Index of the first value in dest
+     */
+    public static void evaluate(int bands, double x, double y, double z, float[] dest, int offset) {
+        double phi = Math.atan2(y, x);
+
+        for (int l = 0; l < bands; l++) {
+            for (int m = -l; m <= l; m++) {
+                double value;
+                if (m == 0) {
+                    value = normalisation(l, 0) * legendre(l, 0, z);
+                } else if (m > 0) {
+                    value = Math.sqrt(2) * normalisation(l, m) * Math.cos(m * phi) * legendre(l, m, z);
+                } else {
+                    value = Math.sqrt(2) * normalisation(l, -m) * Math.sin(-m * phi) * legendre(l, -m, z);
+                }
+                dest[offset + index(l, m)] = (float) value;
+            }
+        }
+    }
+
+    /**
+     * Associated Legendre polynomial P(l, m) evaluated with the standard recurrence in l
+     */
+    private static double legendre(int l, int m, double x) {
+        double pmm = 1.0;
+        if (m > 0) {
+            double somx2 = Math.sqrt((1.0 - x) * (1.0 + x));
+            double fact = 1.0;
+            for (int i = 1; i <= m; i++) {
+                pmm *= -fact * somx2;
+                fact += 2.0;
+            }
+        }
+        if (l == m) {
+            return pmm;
+        }
+
+        double pmmp1 = x * (2.0 * m + 1.0) * pmm;
+        if (l == m + 1) {
+            return pmmp1;
+        }
+
+        double pll = 0.0;
+        for (int ll = m + 2; ll <= l; ll++) {
+            pll = ((2.0 * ll - 1.0) * x * pmmp1 - (ll + m - 1.0) * pmm) / (ll - m);
+            pmm = pmmp1;
+            pmmp1 = pll;
+        }
+        return pll;
+    }
+
+    /**
+     * Normalisation constant K(l, m)
+     */
+    private static double normalisation(int l, int m) {
+        double ratio = 1.0;
+        // (l - m)! / (l + m)!
+        for (int i = l - m + 1; i <= l + m; i++) {
+            ratio /= i;
+        }
+        return Math.sqrt((2.0 * l + 1.0) / (4.0 * Math.PI) * ratio);
+    }
+}
@@ -0,0 +1,141 @@
+package com.nicky.precompute;
+
+import com.nicky.resources.HalfFloat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <h1>Split-Sum LUT</h1>
+ * A pre-integrated (N.V, exponent) table of scale and bias terms for split-sum image-based lighting.
+ * The specular response is reconstructed as prefilteredRadiance * (F0 * scale + bias).
+ * <p>
+ * File format (big-endian): magic "BLUT", int version, int width (N.V), int height (exponent),
+ * float minExponent, float maxExponent, then width * height (scale, bias) pairs as half floats, row by row.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SplitSumLUT {
+
+    private static final int MAGIC = ('B' << 24) | ('L' << 16) | ('U' << 8) | 'T';
+    private static final int VERSION = 1;
+
+    private final int width;
+    private final int height;
+    private final float minExponent;
+    private final float maxExponent;
+    /**
+     * Packed (scale, bias) pairs, row-major with rows indexed by exponent
+     */
+    private final float[] values;
+
+    SplitSumLUT(int width, int height, float minExponent, float maxExponent, float[] values) {
+        this.width = width;
+        this.height = height;
+        this.minExponent = minExponent;
+        this.maxExponent = maxExponent;
+        this.values = values;
+    }
+
+    /**
+     * N.V at the centre of a column
+     *
+     * @param column Column index
+     * @return float Returns N.V.
+     */
+    public float getNdotV(int column) {
+        return (column + 0.5f) / width;
+    }
+
+    /**
+     * Exponent of a row; rows are spaced logarithmically between minExponent and maxExponent
+     *
+     * @param row Row index
+     * @return float Returns the exponent.
+     */
+    public float getExponent(int row) {
+        if (height == 1) {
+            return minExponent;
+        }
+        return (float) (minExponent * Math.pow(maxExponent / minExponent, row / (double) (height - 1)));
+    }
+
+    public float getScale(int column, int row) {
+        return values[(row * width + column) * 2];
+    }
+
+    public float getBias(int column, int row) {
+        return values[(row * width + column) * 2 + 1];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getMinExponent() {
+        return minExponent;
+    }
+
+    public float getMaxExponent() {
+        return maxExponent;
+    }
+
+    /**
+     * Writes the table in the compact half-float format
+     *
+     * @param path The output file
+     * @throws IOException On write failure.
+     */
+    public void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeFloat(minExponent);
+            out.writeFloat(maxExponent);
+            for (float value : values) {
+                out.writeShort(HalfFloat.fromFloat(value));
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #write(String)}
+     *
+     * @param path The input file
+     * @return SplitSumLUT Returns the table.
+     * @throws IOException On read failure or invalid file.
+     */
+    public static SplitSumLUT read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a split-sum LUT: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported split-sum LUT version " + version + ": " + path);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            float minExponent = in.readFloat();
+            float maxExponent = in.readFloat();
+            float[] values = new float[width * height * 2];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = HalfFloat.toFloat(in.readShort());
+            }
+            return new SplitSumLUT(width, height, minExponent, maxExponent, values);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.nicky.precompute;
+
+import com.nicky.ShadingFrame;
+import com.nicky.Spectrum;
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+import org.joml.Vector3f;
+
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Split-Sum LUT Generator</h1>
+ * Pre-integrates specular models into (N.V, exponent) scale and bias tables for split-sum image-based lighting.
+ * For each cell the cosine-weighted BRDF is integrated over the hemisphere with a Schlick Fresnel split:
+ * scale = integral of f * (1 - Fc) * cos and bias = integral of f * Fc * cos, where Fc = (1 - V.H)^5.
+ * <p>
+ * Samples are drawn half from a cosine-weighted hemisphere and half from a Phong lobe around the mirror
+ * direction, weighted by the combined pdf, so both diffuse and very glossy responses converge quickly.
+ * Rows (exponents) are integrated in parallel.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SplitSumLUTGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(SplitSumLUTGenerator.class.getName());
+
+    /**
+     * Creates the BRDF integrated for a table row
+     */
+    public interface LobeModel {
+        /**
+         * @param exponent The specular exponent of the row
+         * @return BRDF The BRDF to integrate.
+         */
+        BRDF create(float exponent);
+    }
+
+    private final int width;
+    private final int height;
+    private final float minExponent;
+    private final float maxExponent;
+    private final int samples;
+
+    /**
+     * @param width       Number of N.V columns
+     * @param height      Number of exponent rows
+     * @param minExponent Exponent of the first row
+     * @param maxExponent Exponent of the last row
+     * @param samples     Samples per table cell
+     */
+    public SplitSumLUTGenerator(int width, int height, float minExponent, float maxExponent, int samples) {
+        if (width <= 0 || height <= 0 || samples <= 0 || minExponent <= 0 || maxExponent < minExponent) {
+            throw new IllegalArgumentException("Invalid split-sum LUT settings: " + width + "x" + height
+                    + ", exponents [" + minExponent + ", " + maxExponent + "], samples=" + samples);
+        }
+        this.width = width;
+        this.height = height;
+        this.minExponent = minExponent;
+        this.maxExponent = maxExponent;
+        this.samples = samples;
+    }
+
+    /**
+     * Phong specular lobe with unit reflectivity; the reflectivity is applied as F0 at runtime
+     *
+     * @return LobeModel Returns the model.
+     */
+    public static LobeModel forPhongSpecular() {
+        return exponent -> new PhongSpecularBRDF(new Spectrum(1, 1, 1), exponent);
+    }
+
+    /**
+     * ShinyDiffuse lobe with unit reflectivity; the exponent axis drives the reflection parameter
+     *
+     * @return LobeModel Returns the model.
+     */
+    public static LobeModel forShinyDiffuse() {
+        return exponent -> new ShinyDiffuseBRDF(new Spectrum(1, 1, 1), exponent);
+    }
+
+    /**
+     * A composite whose specular components all take the row's exponent
+     * Component reflectivities and weightings are kept, so the table holds the full response (use F0 = 1).
+     *
+     * @param composite The composite BRDF
+     * @return LobeModel Returns the model.
+     */
+    public static LobeModel forComposite(CompositeBRDF composite) {
+        return exponent -> withExponent(composite, exponent);
+    }
+
+    private static BRDF withExponent(BRDF brdf, float exponent) {
+        if (brdf instanceof PhongSpecularBRDF) {
+            return new PhongSpecularBRDF(((PhongSpecularBRDF) brdf).getSpecularReflectivity(), exponent);
+        } else if (brdf instanceof ShinyDiffuseBRDF) {
+            return new ShinyDiffuseBRDF(((ShinyDiffuseBRDF) brdf).getDiffuseReflectivity(), exponent);
+        } else if (brdf instanceof CompositeBRDF) {
+            // Rebuild from the unoptimised tree, which is the one that samples
+            CompositeBRDF composite = ((CompositeBRDF) brdf).getOriginal();
+            BRDF[] components = new BRDF[composite.getComponentCount()];
+            float[] weightings = new float[components.length];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = withExponent(composite.getComponent(i), exponent);
+                weightings[i] = composite.getWeighting(i);
+            }
+            return new CompositeBRDF(brdf.getName(), components, weightings);
+        }
+        return brdf;
+    }
+
+    /**
+     * Generates the table for a model
+     *
+     * @param model The model to integrate
+     * @return SplitSumLUT Returns the table.
+     */
+    public SplitSumLUT generate(LobeModel model) {
+        long start = System.nanoTime();
+        float[] values = new float[width * height * 2];
+        SplitSumLUT lut = new SplitSumLUT(width, height, minExponent, maxExponent, values);
+
+        IntStream.range(0, height).parallel().forEach(row -> {
+            float exponent = lut.getExponent(row);
+            BRDF brdf = model.create(exponent);
+            for (int column = 0; column < width; column++) {
+                integrate(brdf, exponent, lut.getNdotV(column), new SplittableRandom(row * (long) width + column), values, (row * width + column) * 2);
+            }
+        });
+
+        LOGGER.info("Generated " + width + "x" + height + " split-sum LUT with " + samples + " samples per cell in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        return lut;
+    }
+
+    /**
+     * Integrates one table cell
+     */
+    private void integrate(BRDF brdf, float exponent, float nDotV, SplittableRandom random, float[] dest, int offset) {
+        ShadingFrame zUp = new ShadingFrame(new Vector3f(0, 0, 1));
+        float sinV = (float) Math.sqrt(1 - nDotV * nDotV);
+        Vector3f view = new Vector3f(sinV, 0, nDotV);
+        Vector3f in = new Vector3f(view).negate();
+        Vector3f mirror = new Vector3f(-sinV, 0, nDotV);
+        ShadingFrame lobeFrame = new ShadingFrame(mirror);
+        Vector3f local = new Vector3f();
+        Vector3f light = new Vector3f();
+        float[] rgb = new float[3];
+
+        double scale = 0;
+        double bias = 0;
+
+        for (int s = 0; s < samples; s++) {
+            double u1 = random.nextDouble();
+            double u2 = random.nextDouble();
+            double phi = 2 * Math.PI * u2;
+
+            if (random.nextBoolean()) {
+                // Cosine-weighted hemisphere
+                double cosTheta = Math.sqrt(1 - u1);
+                double sinTheta = Math.sqrt(u1);
+                light.set((float) (sinTheta * Math.cos(phi)), (float) (sinTheta * Math.sin(phi)), (float) cosTheta);
+            } else {
+                // Phong lobe around the mirror direction (normal along +x in the lobe frame)
+                double cosAlpha = Math.pow(u1, 1.0 / (exponent + 1));
+                double sinAlpha = Math.sqrt(Math.max(0, 1 - cosAlpha * cosAlpha));
+                local.set((float) cosAlpha, (float) (sinAlpha * Math.cos(phi)), (float) (sinAlpha * Math.sin(phi)));
+                lobeFrame.toWorld(local, light);
+            }
+
+            float cosL = light.z;
+            if (cosL <= 0) {
+                continue;
+            }
+
+            double cosAlpha = Math.max(0, light.dot(mirror));
+            double pdf = 0.5 * cosL / Math.PI + 0.5 * (exponent + 1) / (2 * Math.PI) * Math.pow(cosAlpha, exponent);
+
+            brdf.f(zUp, in, light, rgb, 0);
+            double value = (rgb[0] + rgb[1] + rgb[2]) / 3 * cosL / pdf;
+
+            // Schlick Fresnel term from the half vector
+            float hx = view.x + light.x, hy = view.y + light.y, hz = view.z + light.z;
+            float vDotH = Math.max(0, (view.x * hx + view.y * hy + view.z * hz) / (float) Math.sqrt(hx * hx + hy * hy + hz * hz));
+            double fc = Math.pow(1 - vDotH, 5);
+
+            scale += value * (1 - fc);
+            bias += value * fc;
+        }
+
+        dest[offset] = (float) (scale / samples);
+        dest[offset + 1] = (float) (bias / samples);
+    }
+}
@@ -0,0 +1,281 @@
+package com.nicky.render;
+
+import com.nicky.ShadingFrame;
+import com.nicky.brdfs.BRDF;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * <h1>BRDF Renderer</h1>
+ * Renders preview images of a BRDF: a lit sphere and a (theta_h, theta_d) slice.
+ * The image is split into tiles that are scheduled on a work-stealing ForkJoinPool. Samples are accumulated
+ * progressively, one jittered sample per pixel per pass, and the number of BRDF evaluations per second is
+ * measured so the renderer doubles as a macro-benchmark.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFRenderer {
+
+    private static final Logger LOGGER = Logger.getLogger(BRDFRenderer.class.getName());
+
+    /**
+     * Notified after each progressive pass
+     */
+    public interface PassListener {
+        /**
+         * @param pass  Number of passes completed so far
+         * @param image The image holding the samples so far
+         */
+        void passCompleted(int pass, RenderImage image);
+    }
+
+    /**
+     * Computes the radiance of a sample position inside the image
+     */
+    private interface PixelShader {
+        /**
+         * @param u    Horizontal image position in [0, 1)
+         * @param v    Vertical image position in [0, 1), from the top
+         * @param ctx  Per-tile scratch state
+         * @param rgb  Will hold the sample value
+         * @return int Returns the number of BRDF evaluations performed.
+         */
+        int shade(float u, float v, TileContext ctx, float[] rgb);
+    }
+
+    /**
+     * Scratch objects owned by one tile task, so shading does not allocate per pixel
+     */
+    private static class TileContext {
+        final ShadingFrame frame = new ShadingFrame();
+        final Vector3f normal = new Vector3f();
+        final Vector3f in = new Vector3f();
+        final Vector3f out = new Vector3f();
+        final float[] rgb = new float[3];
+    }
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+    private PassListener passListener;
+
+    /**
+     * Direction towards the light for the lit sphere
+     */
+    private final Vector3f lightDir = new Vector3f(1, 1, 1).normalize();
+    /**
+     * Direction towards the viewer for the lit sphere (orthographic camera looking down -z)
+     */
+    private final Vector3f viewDir = new Vector3f(0, 0, 1);
+    private float lightIntensity = (float) Math.PI;
+
+    private long lastEvaluations;
+    private double lastEvaluationsPerSecond;
+
+    public BRDFRenderer() {
+        this(ForkJoinPool.commonPool(), 16);
+    }
+
+    public BRDFRenderer(ForkJoinPool pool, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Renders a sphere lit by a single directional light and viewed orthographically
+     *
+     * @param brdf   The BRDF to render
+     * @param size   Image width and height in pixels
+     * @param passes Number of progressive passes (samples per pixel)
+     * @return RenderImage Returns the rendered image.
+     */
+    public RenderImage renderSphere(BRDF brdf, int size, int passes) {
+        PixelShader shader = (u, v, ctx, rgb) -> {
+            // Map to [-1, 1], y up
+            float px = 2 * u - 1;
+            float py = 1 - 2 * v;
+            float r2 = px * px + py * py;
+            if (r2 >= 1) {
+                return 0;
+            }
+            ctx.normal.set(px, py, (float) Math.sqrt(1 - r2));
+
+            float cosL = ctx.normal.dot(lightDir);
+            if (cosL <= 0) {
+                return 0;
+            }
+            // Incident ray travels towards the surface
+            ctx.in.set(lightDir).negate();
+            brdf.f(ctx.frame.set(ctx.normal), ctx.in, viewDir, rgb, 0);
+
+            float scale = cosL * lightIntensity;
+            rgb[0] *= scale;
+            rgb[1] *= scale;
+            rgb[2] *= scale;
+            return 1;
+        };
+        return render(brdf.getName() + " sphere", shader, size, size, passes);
+    }
+
+    /**
+     * Renders the (theta_h, theta_d) slice of the BRDF at phi_d = 90 degrees
+     * theta_h runs along the x axis and theta_d down the y axis, both over [0, 90] degrees.
+     *
+     * @param brdf   The BRDF to render
+     * @param size   Image width and height in pixels
+     * @param passes Number of progressive passes (samples per pixel)
+     * @return RenderImage Returns the rendered image.
+     */
+    public RenderImage renderSlice(BRDF brdf, int size, int passes) {
+        final ShadingFrame zUp = new ShadingFrame(new Vector3f(0, 0, 1));
+
+        PixelShader shader = (u, v, ctx, rgb) -> {
+            double thetaH = u * Math.PI / 2;
+            double thetaD = v * Math.PI / 2;
+            double phiD = Math.PI / 2;
+
+            // Difference vector around the half vector, then rotate the half vector from +z by theta_h about y
+            double dx = Math.sin(thetaD) * Math.cos(phiD);
+            double dy = Math.sin(thetaD) * Math.sin(phiD);
+            double dz = Math.cos(thetaD);
+            double cosH = Math.cos(thetaH);
+            double sinH = Math.sin(thetaH);
+
+            float wiX = (float) (dx * cosH + dz * sinH);
+            float wiZ = (float) (-dx * sinH + dz * cosH);
+            float woX = (float) (-dx * cosH + dz * sinH);
+            float woZ = (float) (dx * sinH + dz * cosH);
+            if (wiZ <= 0 || woZ <= 0) {
+                return 0;
+            }
+
+            // Incident ray travels towards the surface
+            ctx.in.set(-wiX, (float) -dy, -wiZ);
+            ctx.out.set(woX, (float) -dy, woZ);
+            brdf.f(zUp, ctx.in, ctx.out, rgb, 0);
+            return 1;
+        };
+        return render(brdf.getName() + " slice", shader, size, size, passes);
+    }
+
+    private RenderImage render(String label, PixelShader shader, int width, int height, int passes) {
+        RenderImage image = new RenderImage(width, height);
+        List<int[]> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new int[]{x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height)});
+            }
+        }
+
+        LongAdder evaluations = new LongAdder();
+        long start = System.nanoTime();
+
+        for (int pass = 0; pass < passes; pass++) {
+            final int passIndex = pass;
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<RecursiveAction> tasks = new ArrayList<>(tiles.size());
+                    for (int t = 0; t < tiles.size(); t++) {
+                        tasks.add(new TileTask(shader, image, tiles.get(t), seed(passIndex, t), evaluations));
+                    }
+                    invokeAll(tasks);
+                }
+            });
+            image.completePass();
+            if (passListener != null) {
+                passListener.passCompleted(pass + 1, image);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        lastEvaluations = evaluations.sum();
+        lastEvaluationsPerSecond = seconds > 0 ? lastEvaluations / seconds : 0;
+        LOGGER.info("[" + label + "] " + width + "x" + height + ", " + passes + " passes, " + lastEvaluations
+                + " evaluations in " + String.format("%.3f", seconds) + "s (" + String.format("%.0f", lastEvaluationsPerSecond) + " evaluations/s)");
+        return image;
+    }
+
+    private static long seed(int pass, int tile) {
+        return ((long) pass << 32) ^ (tile * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Renders one sample per pixel for a single tile
+     */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PixelShader shader;
+        private final RenderImage image;
+        private final int[] bounds;
+        private final long seed;
+        private final LongAdder evaluations;
+
+        TileTask(PixelShader shader, RenderImage image, int[] bounds, long seed, LongAdder evaluations) {
+            this.shader = shader;
+            this.image = image;
+            this.bounds = bounds;
+            this.seed = seed;
+            this.evaluations = evaluations;
+        }
+
+        @Override
+        protected void compute() {
+            SplittableRandom random = new SplittableRandom(seed);
+            TileContext ctx = new TileContext();
+            float invW = 1.0f / image.getWidth();
+            float invH = 1.0f / image.getHeight();
+            int count = 0;
+
+            for (int y = bounds[1]; y < bounds[3]; y++) {
+                for (int x = bounds[0]; x < bounds[2]; x++) {
+                    float u = (float) ((x + random.nextDouble()) * invW);
+                    float v = (float) ((y + random.nextDouble()) * invH);
+                    if (shader.shade(u, v, ctx, ctx.rgb) > 0) {
+                        image.addSample(x, y, ctx.rgb[0], ctx.rgb[1], ctx.rgb[2]);
+                        count++;
+                    }
+                }
+            }
+            evaluations.add(count);
+        }
+    }
+
+    public void setPassListener(PassListener passListener) {
+        this.passListener = passListener;
+    }
+
+    public void setLightIntensity(float lightIntensity) {
+        this.lightIntensity = lightIntensity;
+    }
+
+    /**
+     * Number of BRDF evaluations performed by the last render
+     *
+     * @return long The evaluation count.
+     */
+    public long getLastEvaluations() {
+        return lastEvaluations;
+    }
+
+    /**
+     * Throughput of the last render
+     *
+     * @return double BRDF evaluations per second.
+     */
+    public double getLastEvaluationsPerSecond() {
+        return lastEvaluationsPerSecond;
+    }
+}
@@ -0,0 +1,131 @@
+package com.nicky.render;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>Render Image</h1>
+ * An RGB float image that accumulates samples progressively.
+ * Each pixel holds the running sum of its samples; the average is taken when the image is read or written.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class RenderImage {
+
+    private final int width;
+    private final int height;
+    /**
+     * Packed per-pixel RGB sums, row-major from the top-left pixel
+     */
+    private final float[] sum;
+    /**
+     * Number of samples accumulated into every pixel
+     */
+    private int samples;
+
+    public RenderImage(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.sum = new float[width * height * 3];
+    }
+
+    /**
+     * Adds a sample to a pixel
+     * Tiles never overlap, so pixels are only ever written by one thread per pass.
+     */
+    void addSample(int x, int y, float r, float g, float b) {
+        int i = (y * width + x) * 3;
+        sum[i] += r;
+        sum[i + 1] += g;
+        sum[i + 2] += b;
+    }
+
+    /**
+     * Marks the end of a pass, in which every pixel received one more sample
+     */
+    void completePass() {
+        samples++;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Gets the averaged value of a pixel channel
+     *
+     * @param x       Pixel column
+     * @param y       Pixel row, from the top
+     * @param channel 0, 1 or 2 for R, G or B
+     * @return float Returns the pixel value.
+     */
+    public float get(int x, int y, int channel) {
+        return samples == 0 ? 0 : sum[(y * width + x) * 3 + channel] / samples;
+    }
+
+    /**
+     * Writes the image as a little-endian Portable Float Map (linear, unclamped)
+     *
+     * @param path The output file
+     * @throws IOException On write failure.
+     */
+    public void writePFM(String path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            out.write(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+
+            ByteBuffer row = ByteBuffer.allocate(width * 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+            // PFM stores rows from the bottom up
+            for (int y = height - 1; y >= 0; y--) {
+                row.clear();
+                for (int x = 0; x < width; x++) {
+                    for (int c = 0; c < 3; c++) {
+                        row.putFloat(get(x, y, c));
+                    }
+                }
+                out.write(row.array(), 0, row.position());
+            }
+        }
+    }
+
+    /**
+     * Writes the image as a binary Portable Pixmap, clamped to [0, 1] and gamma encoded
+     *
+     * @param path  The output file
+     * @param gamma Display gamma, e.g. 2.2
+     * @throws IOException On write failure.
+     */
+    public void writePPM(String path, float gamma) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+
+            double invGamma = 1.0 / gamma;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    for (int c = 0; c < 3; c++) {
+                        float v = Math.min(Math.max(get(x, y, c), 0), 1);
+                        out.writeByte((int) (Math.pow(v, invGamma) * 255 + 0.5));
+                    }
+                }
+            }
+        }
+    }
+}
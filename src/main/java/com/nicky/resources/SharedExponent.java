@@ -0,0 +1,105 @@
+package com.nicky.resources;
+
+/**
+ * <h1>Shared Exponent</h1>
+ * Conversion between non-negative RGB triples and the RGB9E5 shared-exponent format: three 9-bit mantissas and one
+ * 5-bit exponent (bias 15) packed into an int, red in the low bits. Every channel is stored relative to the largest,
+ * so small channels of a bright colour lose precision while the largest keeps about 3 significant digits.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SharedExponent {
+
+    private static final int MANTISSA_BITS = 9;
+    private static final int EXPONENT_BIAS = 15;
+    private static final int MAX_EXPONENT = 31;
+    private static final int MANTISSA_MASK = (1 << MANTISSA_BITS) - 1;
+
+    /**
+     * Largest representable value, 511/512 * 2^16
+     */
+    public static final float MAX_VALUE = (float) MANTISSA_MASK / (1 << MANTISSA_BITS) * (1 << (MAX_EXPONENT - EXPONENT_BIAS));
+
+    /**
+     * Scale of a mantissa for each exponent, 2^(exponent - bias - mantissa bits)
+     */
+    private static final float[] SCALES = new float[MAX_EXPONENT + 1];
+
+    static {
+        for (int e = 0; e <= MAX_EXPONENT; e++) {
+            SCALES[e] = (float) Math.pow(2, e - EXPONENT_BIAS - MANTISSA_BITS);
+        }
+    }
+
+    private SharedExponent() {
+    }
+
+    /**
+     * Packs an RGB triple, rounding each mantissa to nearest
+     * Negative values and NaN become zero; values above {@link #MAX_VALUE} are clamped.
+     *
+     * @return int Returns the RGB9E5 bits.
+     */
+    public static int fromRGB(float r, float g, float b) {
+        r = clamp(r);
+        g = clamp(g);
+        b = clamp(b);
+        float max = Math.max(r, Math.max(g, b));
+
+        // floor(log2(max)), with zero and subnormals falling to the smallest exponent
+        int exponent = Math.max(-EXPONENT_BIAS - 1, Math.getExponent(max)) + 1 + EXPONENT_BIAS;
+        if (Math.round(max / SCALES[exponent]) == 1 << MANTISSA_BITS) {
+            exponent++;
+        }
+        float scale = SCALES[exponent];
+        int rm = Math.round(r / scale);
+        int gm = Math.round(g / scale);
+        int bm = Math.round(b / scale);
+        return rm | (gm << MANTISSA_BITS) | (bm << 2 * MANTISSA_BITS) | (exponent << 3 * MANTISSA_BITS);
+    }
+
+    private static float clamp(float value) {
+        // Also maps NaN to zero
+        return value > 0 ? Math.min(value, MAX_VALUE) : 0;
+    }
+
+    /**
+     * @param bits    RGB9E5 bits
+     * @param channel 0 for red, 1 for green, 2 for blue
+     * @return float Returns the channel's value.
+     */
+    public static float toFloat(int bits, int channel) {
+        return ((bits >>> channel * MANTISSA_BITS) & MANTISSA_MASK) * SCALES[bits >>> 3 * MANTISSA_BITS];
+    }
+
+    /**
+     * Unpacks all three channels
+     *
+     * @param bits   RGB9E5 bits
+     * @param dest   Receives R, G, B
+     * @param offset Index of the red channel in dest
+     */
+    public static void toRGB(int bits, float[] dest, int offset) {
+        float scale = SCALES[bits >>> 3 * MANTISSA_BITS];
+        dest[offset] = (bits & MANTISSA_MASK) * scale;
+        dest[offset + 1] = ((bits >>> MANTISSA_BITS) & MANTISSA_MASK) * scale;
+        dest[offset + 2] = ((bits >>> 2 * MANTISSA_BITS) & MANTISSA_MASK) * scale;
+    }
+
+    /**
+     * Adds the weighted channels to an RGB buffer
+     *
+     * @param bits   RGB9E5 bits
+     * @param weight Weight applied to the value
+     * @param dest   RGB buffer accumulated into
+     * @param offset Index of the red channel in dest
+     */
+    public static void accumulate(int bits, float weight, float[] dest, int offset) {
+        float scale = SCALES[bits >>> 3 * MANTISSA_BITS] * weight;
+        dest[offset] += (bits & MANTISSA_MASK) * scale;
+        dest[offset + 1] += ((bits >>> MANTISSA_BITS) & MANTISSA_MASK) * scale;
+        dest[offset + 2] += ((bits >>> 2 * MANTISSA_BITS) & MANTISSA_MASK) * scale;
+    }
+}
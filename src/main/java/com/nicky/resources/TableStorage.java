@@ -0,0 +1,378 @@
+package com.nicky.resources;
+
+/**
+ * <h1>Table Storage</h1>
+ * Storage for large tables of non-negative RGB values, such as tabulated and measured BRDFs, in one of several
+ * precisions. Lookups decode a single entry with a few scalar operations:
+ * <ul>
+ * <li>FLOAT: 12 bytes per entry, exact.</li>
+ * <li>HALF: 6 bytes per entry, IEEE half floats decoded through a shared 64K-entry table; about 3 significant
+ * digits above 6.1e-5, with values below that stored as subnormals.</li>
+ * <li>LOG16: 6 bytes per entry, 16-bit codes evenly spaced in log space between the table's smallest non-zero and
+ * largest values, decoded through a per-table 64K-entry table; constant relative error over the whole range.</li>
+ * <li>SHARED_EXPONENT: 4 bytes per entry, RGB9E5; relative error of the largest channel about 0.1%.</li>
+ * </ul>
+ * Tables are immutable once encoded and may be read from any number of threads.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public abstract class TableStorage {
+
+    public enum Mode {
+        FLOAT, HALF, LOG16, SHARED_EXPONENT
+    }
+
+    protected final int count;
+
+    protected TableStorage(int count) {
+        this.count = count;
+    }
+
+    /**
+     * Encodes packed RGB values
+     *
+     * @param rgb   Packed RGB values, 3 per entry; negative values are stored as zero
+     * @param count Number of entries
+     * @param mode  The storage mode
+     * @return TableStorage Returns the encoded table.
+     * @throws IllegalArgumentException If rgb holds fewer than 3 * count values.
+     */
+    public static TableStorage encode(float[] rgb, int count, Mode mode) throws IllegalArgumentException {
+        if (rgb.length < count * 3) {
+            throw new IllegalArgumentException("Table of " + count + " entries needs " + count * 3 + " values, got " + rgb.length);
+        }
+        switch (mode) {
+            case HALF:
+                return new HalfStorage(rgb, count);
+            case LOG16:
+                return new LogStorage(rgb, count);
+            case SHARED_EXPONENT:
+                return new SharedExponentStorage(rgb, count);
+            default:
+                return new FloatStorage(rgb, count);
+        }
+    }
+
+    /**
+     * Re-encodes this table's values in another mode
+     * Errors compound: re-encoding from a lossy mode starts from its decoded values.
+     *
+     * @param mode The storage mode
+     * @return TableStorage Returns the encoded table.
+     */
+    public TableStorage convert(Mode mode) {
+        return encode(decode(), count, mode);
+    }
+
+    /**
+     * Decodes one channel of one entry
+     *
+     * @param entry   The entry index
+     * @param channel 0 for red, 1 for green, 2 for blue
+     * @return float Returns the value.
+     */
+    public abstract float get(int entry, int channel);
+
+    /**
+     * Adds the weighted RGB value of an entry to a buffer
+     *
+     * @param entry  The entry index
+     * @param weight Weight applied to the value
+     * @param dest   RGB buffer accumulated into
+     * @param offset Index of the red channel in dest
+     */
+    public abstract void accumulate(int entry, float weight, float[] dest, int offset);
+
+    /**
+     * @return long Returns the size of the encoded values and any decode table, in bytes.
+     */
+    public abstract long getBytes();
+
+    public abstract Mode getMode();
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Decodes the whole table
+     *
+     * @return float[] Returns packed RGB values, 3 per entry.
+     */
+    public float[] decode() {
+        float[] rgb = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            accumulate(i, 1, rgb, i * 3);
+        }
+        return rgb;
+    }
+
+    /**
+     * Compares the decoded table with full-precision values
+     *
+     * @param reference Packed RGB values, 3 per entry, normally those the table was encoded from
+     * @return ErrorReport Returns the error and memory report.
+     * @throws IllegalArgumentException If reference holds fewer than 3 * count values.
+     */
+    public ErrorReport measureError(float[] reference) throws IllegalArgumentException {
+        if (reference.length < count * 3) {
+            throw new IllegalArgumentException("Reference of " + reference.length + " values for a table of " + count + " entries");
+        }
+        double maxAbsolute = 0, sumAbsolute = 0, maxRelative = 0, sumRelative = 0;
+        long relativeCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (int c = 0; c < 3; c++) {
+                // Compare with what the encoder actually stores
+                double expected = Math.max(0, reference[i * 3 + c]);
+                double error = Math.abs(get(i, c) - expected);
+                maxAbsolute = Math.max(maxAbsolute, error);
+                sumAbsolute += error * error;
+                if (expected > 0) {
+                    double relative = error / expected;
+                    maxRelative = Math.max(maxRelative, relative);
+                    sumRelative += relative * relative;
+                    relativeCount++;
+                }
+            }
+        }
+        int values = Math.max(1, count * 3);
+        return new ErrorReport(getMode(), count, getBytes(), maxAbsolute, Math.sqrt(sumAbsolute / values),
+                maxRelative, relativeCount > 0 ? Math.sqrt(sumRelative / relativeCount) : 0);
+    }
+
+    private static class FloatStorage extends TableStorage {
+        private final float[] values;
+
+        FloatStorage(float[] rgb, int count) {
+            super(count);
+            values = new float[count * 3];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Math.max(0, rgb[i]);
+            }
+        }
+
+        @Override
+        public float get(int entry, int channel) {
+            return values[entry * 3 + channel];
+        }
+
+        @Override
+        public void accumulate(int entry, float weight, float[] dest, int offset) {
+            int i = entry * 3;
+            dest[offset] += values[i] * weight;
+            dest[offset + 1] += values[i + 1] * weight;
+            dest[offset + 2] += values[i + 2] * weight;
+        }
+
+        @Override
+        public long getBytes() {
+            return values.length * 4L;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.FLOAT;
+        }
+    }
+
+    private static class HalfStorage extends TableStorage {
+        /**
+         * Float value of every half-precision bit pattern, shared by all half tables
+         */
+        private static final float[] DECODE = new float[1 << 16];
+
+        static {
+            for (int h = 0; h < DECODE.length; h++) {
+                DECODE[h] = HalfFloat.toFloat((short) h);
+            }
+        }
+
+        private final short[] values;
+
+        HalfStorage(float[] rgb, int count) {
+            super(count);
+            values = new short[count * 3];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = HalfFloat.fromFloat(Math.max(0, rgb[i]));
+            }
+        }
+
+        @Override
+        public float get(int entry, int channel) {
+            return DECODE[values[entry * 3 + channel] & 0xffff];
+        }
+
+        @Override
+        public void accumulate(int entry, float weight, float[] dest, int offset) {
+            int i = entry * 3;
+            dest[offset] += DECODE[values[i] & 0xffff] * weight;
+            dest[offset + 1] += DECODE[values[i + 1] & 0xffff] * weight;
+            dest[offset + 2] += DECODE[values[i + 2] & 0xffff] * weight;
+        }
+
+        @Override
+        public long getBytes() {
+            return values.length * 2L;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.HALF;
+        }
+    }
+
+    private static class LogStorage extends TableStorage {
+        private static final int MAX_CODE = (1 << 16) - 1;
+
+        private final short[] values;
+        /**
+         * Value of each code; code 0 is zero
+         */
+        private final float[] decode = new float[1 << 16];
+
+        LogStorage(float[] rgb, int count) {
+            super(count);
+            float min = Float.MAX_VALUE, max = 0;
+            for (int i = 0; i < count * 3; i++) {
+                if (rgb[i] > 0) {
+                    min = Math.min(min, rgb[i]);
+                    max = Math.max(max, rgb[i]);
+                }
+            }
+            double logMin = max > 0 ? Math.log(min) : 0;
+            double range = max > min ? Math.log(max) - logMin : 1;
+            double step = range / (MAX_CODE - 1);
+
+            for (int code = 1; code <= MAX_CODE; code++) {
+                decode[code] = (float) Math.exp(logMin + (code - 1) * step);
+            }
+
+            values = new short[count * 3];
+            for (int i = 0; i < values.length; i++) {
+                if (rgb[i] > 0) {
+                    long code = 1 + Math.round((Math.log(rgb[i]) - logMin) / step);
+                    values[i] = (short) Math.max(1, Math.min(MAX_CODE, code));
+                }
+            }
+        }
+
+        @Override
+        public float get(int entry, int channel) {
+            return decode[values[entry * 3 + channel] & 0xffff];
+        }
+
+        @Override
+        public void accumulate(int entry, float weight, float[] dest, int offset) {
+            int i = entry * 3;
+            dest[offset] += decode[values[i] & 0xffff] * weight;
+            dest[offset + 1] += decode[values[i + 1] & 0xffff] * weight;
+            dest[offset + 2] += decode[values[i + 2] & 0xffff] * weight;
+        }
+
+        @Override
+        public long getBytes() {
+            return values.length * 2L + decode.length * 4L;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.LOG16;
+        }
+    }
+
+    private static class SharedExponentStorage extends TableStorage {
+        private final int[] values;
+
+        SharedExponentStorage(float[] rgb, int count) {
+            super(count);
+            values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = SharedExponent.fromRGB(rgb[i * 3], rgb[i * 3 + 1], rgb[i * 3 + 2]);
+            }
+        }
+
+        @Override
+        public float get(int entry, int channel) {
+            return SharedExponent.toFloat(values[entry], channel);
+        }
+
+        @Override
+        public void accumulate(int entry, float weight, float[] dest, int offset) {
+            SharedExponent.accumulate(values[entry], weight, dest, offset);
+        }
+
+        @Override
+        public long getBytes() {
+            return values.length * 4L;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.SHARED_EXPONENT;
+        }
+    }
+
+    /**
+     * <h1>Error Report</h1>
+     * Error of a storage mode against full precision, and its memory use.
+     * Relative errors are taken over non-zero reference values only.
+     */
+    public static class ErrorReport {
+        private final Mode mode;
+        private final int count;
+        private final long bytes;
+        private final double maxAbsolute;
+        private final double rmsAbsolute;
+        private final double maxRelative;
+        private final double rmsRelative;
+
+        ErrorReport(Mode mode, int count, long bytes, double maxAbsolute, double rmsAbsolute, double maxRelative, double rmsRelative) {
+            this.mode = mode;
+            this.count = count;
+            this.bytes = bytes;
+            this.maxAbsolute = maxAbsolute;
+            this.rmsAbsolute = rmsAbsolute;
+            this.maxRelative = maxRelative;
+            this.rmsRelative = rmsRelative;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return double Returns the memory saving over 3 doubles per entry, the precision of MERL files.
+         */
+        public double getRatioToDouble() {
+            return bytes > 0 ? count * 24.0 / bytes : 0;
+        }
+
+        public double getMaxAbsolute() {
+            return maxAbsolute;
+        }
+
+        public double getRmsAbsolute() {
+            return rmsAbsolute;
+        }
+
+        public double getMaxRelative() {
+            return maxRelative;
+        }
+
+        public double getRmsRelative() {
+            return rmsRelative;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d bytes (%.1fx smaller than double), abs error max %.3g rms %.3g, rel error max %.3g rms %.3g",
+                    mode, bytes, getRatioToDouble(), maxAbsolute, rmsAbsolute, maxRelative, rmsRelative);
+        }
+    }
+}
@@ -5,7 +5,6 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.nicky.brdfs.BRDF;
 import com.nicky.brdfs.CompositeBRDF;
-import javafx.util.Pair;
 
 import java.io.*;
 import java.net.URISyntaxException;
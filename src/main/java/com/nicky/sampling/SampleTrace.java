@@ -0,0 +1,199 @@
+package com.nicky.sampling;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * <h1>Sample Trace</h1>
+ * Records per-sample diagnostics of Monte Carlo estimators into a preallocated ring buffer of primitives.
+ * Recording does no string building or allocation, and does nothing while the trace is disabled. Only every
+ * stride-th record is kept; once the buffer is full the oldest records are overwritten.
+ * A trace is not thread-safe; give each thread its own.
+ * <p>
+ * Binary format (big-endian): magic "STRC", int version, int record count, then per record (oldest first):
+ * int test, long sample, double cosTheta, double value, double estimate.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SampleTrace {
+
+    private static final int MAGIC = ('S' << 24) | ('T' << 16) | ('R' << 8) | 'C';
+    private static final int VERSION = 1;
+
+    private final int capacity;
+    private final int stride;
+
+    private final int[] tests;
+    private final long[] samples;
+    private final double[] cosThetas;
+    private final double[] values;
+    private final double[] estimates;
+
+    private boolean enabled;
+    /**
+     * Records offered since the last clear, including those skipped by the stride
+     */
+    private long offered;
+    /**
+     * Records written to the buffer since the last clear, including those since overwritten
+     */
+    private long written;
+
+    /**
+     * Creates an enabled trace
+     *
+     * @param capacity Number of records kept
+     * @param stride   Keep every stride-th record
+     * @throws IllegalArgumentException On a capacity or stride below 1.
+     */
+    public SampleTrace(int capacity, int stride) throws IllegalArgumentException {
+        if (capacity < 1 || stride < 1) {
+            throw new IllegalArgumentException("Capacity and stride must be at least 1: " + capacity + ", " + stride);
+        }
+        this.capacity = capacity;
+        this.stride = stride;
+        this.tests = new int[capacity];
+        this.samples = new long[capacity];
+        this.cosThetas = new double[capacity];
+        this.values = new double[capacity];
+        this.estimates = new double[capacity];
+        this.enabled = true;
+    }
+
+    /**
+     * Records one sample if the trace is enabled and the sample falls on the stride
+     *
+     * @param test     Index of the test (incident direction)
+     * @param sample   Index of the sample within the test
+     * @param cosTheta Cosine of the sampled direction
+     * @param value    Value of the sample
+     * @param estimate Running estimate after the sample
+     */
+    public void record(int test, long sample, double cosTheta, double value, double estimate) {
+        if (!enabled || offered++ % stride != 0) {
+            return;
+        }
+        int i = (int) (written++ % capacity);
+        tests[i] = test;
+        samples[i] = sample;
+        cosThetas[i] = cosTheta;
+        values[i] = value;
+        estimates[i] = estimate;
+    }
+
+    /**
+     * @return int Number of records held, at most the capacity.
+     */
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /**
+     * @return long Number of kept records that have been overwritten.
+     */
+    public long getOverwritten() {
+        return Math.max(0, written - capacity);
+    }
+
+    public long getOffered() {
+        return offered;
+    }
+
+    /**
+     * Buffer index of the i-th held record, oldest first
+     */
+    private int index(int i) {
+        return (int) ((written - size() + i) % capacity);
+    }
+
+    public int getTest(int i) {
+        return tests[index(i)];
+    }
+
+    public long getSample(int i) {
+        return samples[index(i)];
+    }
+
+    public double getCosTheta(int i) {
+        return cosThetas[index(i)];
+    }
+
+    public double getValue(int i) {
+        return values[index(i)];
+    }
+
+    public double getEstimate(int i) {
+        return estimates[index(i)];
+    }
+
+    /**
+     * Discards all records
+     */
+    public void clear() {
+        offered = 0;
+        written = 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Writes the held records as CSV, oldest first
+     *
+     * @param path The output file
+     * @throws IOException On write failure.
+     */
+    public void writeCSV(String path) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+            out.write("test,sample,cosTheta,value,estimate");
+            out.newLine();
+            for (int r = 0, n = size(); r < n; r++) {
+                int i = index(r);
+                out.write(tests[i] + "," + samples[i] + "," + cosThetas[i] + "," + values[i] + "," + estimates[i]);
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the held records in the binary format, oldest first
+     *
+     * @param path The output file
+     * @throws IOException On write failure.
+     */
+    public void writeBinary(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            int n = size();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            for (int r = 0; r < n; r++) {
+                int i = index(r);
+                out.writeInt(tests[i]);
+                out.writeLong(samples[i]);
+                out.writeDouble(cosThetas[i]);
+                out.writeDouble(values[i]);
+                out.writeDouble(estimates[i]);
+            }
+        }
+    }
+}
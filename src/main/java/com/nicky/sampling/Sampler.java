@@ -0,0 +1,79 @@
+package com.nicky.sampling;
+
+/**
+ * <h1>Sampler</h1>
+ * A source of uniform random numbers used for Monte Carlo sampling.
+ * Samplers are not thread-safe; {@link #split()} gives each thread its own independent stream.
+ * The bulk methods fill primitive arrays with hemisphere directions, packed as (x, y, z) triples in the
+ * local frame with the normal along +x.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public interface Sampler {
+
+    /**
+     * Gets the next random number
+     *
+     * @return double Returns a uniform number in [0, 1).
+     */
+    double nextDouble();
+
+    /**
+     * Gets the next 64 random bits
+     *
+     * @return long Returns the random bits.
+     */
+    long nextLong();
+
+    /**
+     * Restarts the stream from a seed
+     *
+     * @param seed The seed
+     */
+    void setSeed(long seed);
+
+    /**
+     * Creates a new sampler whose stream is independent of this one, e.g. for another thread
+     *
+     * @return Sampler Returns the new sampler.
+     */
+    Sampler split();
+
+    /**
+     * Fills an array with directions uniformly distributed over the hemisphere (pdf = 1 / (2 pi))
+     *
+     * @param dest   Will hold the packed directions
+     * @param offset Index of the first direction's x in dest
+     * @param count  Number of directions
+     */
+    default void uniformHemisphere(float[] dest, int offset, int count) {
+        for (int i = offset, end = offset + count * 3; i < end; i += 3) {
+            double cosTheta = nextDouble();
+            double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+            double phi = 2 * Math.PI * nextDouble();
+            dest[i] = (float) cosTheta;
+            dest[i + 1] = (float) (sinTheta * Math.cos(phi));
+            dest[i + 2] = (float) (sinTheta * Math.sin(phi));
+        }
+    }
+
+    /**
+     * Fills an array with cosine-weighted directions over the hemisphere (pdf = cos theta / pi)
+     *
+     * @param dest   Will hold the packed directions
+     * @param offset Index of the first direction's x in dest
+     * @param count  Number of directions
+     */
+    default void cosineHemisphere(float[] dest, int offset, int count) {
+        for (int i = offset, end = offset + count * 3; i < end; i += 3) {
+            double u = nextDouble();
+            double sinTheta = Math.sqrt(u);
+            double phi = 2 * Math.PI * nextDouble();
+            dest[i] = (float) Math.sqrt(1 - u);
+            dest[i + 1] = (float) (sinTheta * Math.cos(phi));
+            dest[i + 2] = (float) (sinTheta * Math.sin(phi));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.nicky.sampling;
+
+import java.util.SplittableRandom;
+
+/**
+ * <h1>SplittableRandom Sampler</h1>
+ * A Sampler backed by java.util.SplittableRandom (SplitMix64).
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class SplittableRandomSampler implements Sampler {
+
+    private SplittableRandom random;
+
+    public SplittableRandomSampler(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    private SplittableRandomSampler(SplittableRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    @Override
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public Sampler split() {
+        return new SplittableRandomSampler(random.split());
+    }
+}
@@ -0,0 +1,97 @@
+package com.nicky.sampling;
+
+/**
+ * <h1>Xoroshiro Sampler</h1>
+ * A Sampler using the xoroshiro128+ generator (Blackman and Vigna), which needs only a few shifts and adds per number.
+ * The state is seeded with SplitMix64.
+ * <p>
+ * {@link #split()} hands the child this stream's next 2^64 numbers and jumps this stream past them, so the samplers
+ * split from one sampler draw disjoint blocks of the same sequence as long as none draws more than 2^64 numbers.
+ * Splitting a split sampler again carves its child from the block that follows it, which may already belong to a
+ * sibling; split every stream from one root sampler when they must be disjoint.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class XoroshiroSampler implements Sampler {
+
+    /**
+     * Jump polynomial advancing the state by 2^64 steps
+     */
+    private static final long[] JUMP = {0xdf900294d8f554a5L, 0x170865df4b3201fcL};
+
+    private long s0;
+    private long s1;
+
+    public XoroshiroSampler(long seed) {
+        setSeed(seed);
+    }
+
+    private XoroshiroSampler(long s0, long s1) {
+        this.s0 = s0;
+        this.s1 = s1;
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+        // The low bits of xoroshiro128+ are weaker, so use the top 53
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        long x = seed;
+        x += 0x9E3779B97F4A7C15L;
+        s0 = mix(x);
+        x += 0x9E3779B97F4A7C15L;
+        s1 = mix(x);
+    }
+
+    @Override
+    public Sampler split() {
+        XoroshiroSampler child = new XoroshiroSampler(s0, s1);
+        jump();
+        return child;
+    }
+
+    /**
+     * Advances the stream by 2^64 numbers, as if nextLong had been called 2^64 times
+     */
+    public void jump() {
+        long j0 = 0;
+        long j1 = 0;
+        for (long word : JUMP) {
+            for (int bit = 0; bit < 64; bit++) {
+                if ((word & (1L << bit)) != 0) {
+                    j0 ^= s0;
+                    j1 ^= s1;
+                }
+                nextLong();
+            }
+        }
+        s0 = j0;
+        s1 = j1;
+    }
+
+    /**
+     * SplitMix64 finaliser
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
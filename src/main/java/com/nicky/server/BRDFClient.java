@@ -0,0 +1,92 @@
+package com.nicky.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>BRDF Client</h1>
+ * Connects to a local BRDFServer and evaluates BRDFs remotely.
+ * A client holds one connection and is not thread-safe; use one client per thread.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public BRDFClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Evaluates a batch of direction pairs
+     *
+     * @param alias      BRDF Alias
+     * @param directions Packed (in.xyz, out.xyz) local directions
+     * @param count      Number of direction pairs
+     * @param dest       Will hold the packed RGB results
+     * @throws IOException              On connection failure or server error.
+     * @throws IllegalArgumentException If count is negative or greater than BRDFProtocol.MAX_COUNT.
+     */
+    public void evaluate(String alias, float[] directions, int count, float[] dest) throws IOException, IllegalArgumentException {
+        if (count < 0 || count > BRDFProtocol.MAX_COUNT) {
+            throw new IllegalArgumentException("Direction count " + count + " is outside [0, " + BRDFProtocol.MAX_COUNT + "]");
+        }
+        out.writeByte(BRDFProtocol.EVALUATE);
+        BRDFProtocol.writeString(out, alias);
+        out.writeInt(count);
+        BRDFProtocol.writeFloats(out, directions, count * 6);
+        out.flush();
+
+        readStatus();
+        int resultCount = in.readInt();
+        if (resultCount != count) {
+            throw new IOException("Expected " + count + " results, received " + resultCount);
+        }
+        BRDFProtocol.readFloats(in, dest, count * 3);
+    }
+
+    /**
+     * Lists the aliases registered on the server
+     *
+     * @return List<String> Returns the aliases.
+     * @throws IOException On connection failure or server error.
+     */
+    public List<String> list() throws IOException {
+        out.writeByte(BRDFProtocol.LIST);
+        out.flush();
+
+        readStatus();
+        int n = in.readInt();
+        List<String> aliases = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            aliases.add(BRDFProtocol.readString(in));
+        }
+        return aliases;
+    }
+
+    private void readStatus() throws IOException {
+        if (in.readByte() != BRDFProtocol.OK) {
+            throw new IOException("Server error: " + BRDFProtocol.readString(in));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,122 @@
+package com.nicky.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>BRDF Protocol</h1>
+ * The binary protocol spoken between BRDFServer and BRDFClient. All values are big-endian.
+ * <pre>
+ * Request:  byte opcode
+ *           EVALUATE: short aliasLength, alias (UTF-8), int count, count * 6 floats (in.xyz, out.xyz)
+ *           LIST:     (no body)
+ * Response: byte status
+ *           OK + EVALUATE: int count, count * 3 floats (r, g, b)
+ *           OK + LIST:     int n, n * (short length, alias (UTF-8))
+ *           ERROR:         short length, message (UTF-8)
+ * </pre>
+ * Directions are in the BRDF's local frame, with the normal along +x.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public final class BRDFProtocol {
+
+    public static final byte EVALUATE = 1;
+    public static final byte LIST = 2;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    /**
+     * Upper bound on the direction pairs in one request, guarding against corrupt lengths. At 24 bytes a pair a
+     * request buffers at most 24 MB, so a few clients cannot exhaust the shared server's heap.
+     */
+    public static final int MAX_COUNT = 1 << 20;
+
+    /**
+     * Longest string a short length prefix can describe, in UTF-8 bytes
+     */
+    public static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /**
+     * Floats copied per bulk read or write, bounding the temporary byte buffer
+     */
+    private static final int CHUNK_FLOATS = 8192;
+
+    private BRDFProtocol() {
+    }
+
+    /**
+     * Writes a length-prefixed string
+     *
+     * @throws IOException If the string is longer than MAX_STRING_BYTES in UTF-8, or on connection failure.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IOException("String of " + bytes.length + " bytes is longer than " + MAX_STRING_BYTES);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a length-prefixed message, truncated to MAX_STRING_BYTES at a character boundary
+     */
+    static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        // Back off continuation bytes (10xxxxxx) so a multi-byte character is not split
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes floats in bulk copies of at most CHUNK_FLOATS rather than one call per value
+     */
+    static void writeFloats(DataOutputStream out, float[] values, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, CHUNK_FLOATS) * 4);
+        for (int i = 0; i < length; i += CHUNK_FLOATS) {
+            int n = Math.min(CHUNK_FLOATS, length - i);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, i, n);
+            out.write(buffer.array(), 0, n * 4);
+        }
+    }
+
+    /**
+     * Reads floats in bulk copies of at most CHUNK_FLOATS rather than one call per value
+     */
+    static void readFloats(DataInputStream in, float[] values, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, CHUNK_FLOATS) * 4];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < length; i += CHUNK_FLOATS) {
+            int n = Math.min(CHUNK_FLOATS, length - i);
+            in.readFully(bytes, 0, n * 4);
+            buffer.clear();
+            buffer.asFloatBuffer().get(values, i, n);
+        }
+    }
+
+    static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Invalid direction count: " + count);
+        }
+        return count;
+    }
+}
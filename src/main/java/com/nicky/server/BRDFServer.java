@@ -0,0 +1,168 @@
+package com.nicky.server;
+
+import com.nicky.brdfs.BRDF;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * <h1>BRDF Server</h1>
+ * Hosts one registry of BRDFs and serves evaluation requests to local processes over a loopback socket.
+ * Each connection is handled by its own thread; evaluations from all connections are merged into batches
+ * by a BatchingEvaluator. See BRDFProtocol for the wire format.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFServer implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(BRDFServer.class.getName());
+
+    private final Map<String, BRDF> brdfs;
+    private final ServerSocket serverSocket;
+    private final BatchingEvaluator evaluator;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "brdf-server-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Binds the server to a loopback port
+     *
+     * @param brdfs The registered BRDFs and their alias
+     * @param port  Port to listen on, or 0 for any free port
+     * @throws IOException On bind failure.
+     */
+    public BRDFServer(Map<String, BRDF> brdfs, int port) throws IOException {
+        this.brdfs = brdfs;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.evaluator = new BatchingEvaluator(brdfs);
+    }
+
+    /**
+     * Accepts connections until the server is closed
+     */
+    public void serve() {
+        LOGGER.info("Serving " + brdfs.size() + " BRDFs on " + serverSocket.getLocalSocketAddress());
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.submit(() -> handle(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.warning("Failed to accept connection: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts serving on a background thread
+     */
+    public void start() {
+        Thread thread = new Thread(this::serve, "brdf-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                byte opcode;
+                try {
+                    opcode = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                switch (opcode) {
+                    case BRDFProtocol.EVALUATE:
+                        evaluate(in, out);
+                        break;
+                    case BRDFProtocol.LIST:
+                        list(out);
+                        break;
+                    default:
+                        error(out, "Unknown opcode: " + opcode);
+                        return;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Connection closed: " + e);
+        }
+    }
+
+    private void evaluate(DataInputStream in, DataOutputStream out) throws IOException {
+        String alias = BRDFProtocol.readString(in);
+        int count = BRDFProtocol.readCount(in);
+        float[] directions = new float[count * 6];
+        BRDFProtocol.readFloats(in, directions, directions.length);
+
+        float[] result;
+        try {
+            result = evaluator.submit(alias, directions, count).get();
+        } catch (IllegalArgumentException e) {
+            error(out, e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            error(out, String.valueOf(e.getCause()));
+            return;
+        }
+
+        out.writeByte(BRDFProtocol.OK);
+        out.writeInt(count);
+        BRDFProtocol.writeFloats(out, result, result.length);
+    }
+
+    private void list(DataOutputStream out) throws IOException {
+        List<String> aliases = new ArrayList<>(brdfs.keySet());
+        out.writeByte(BRDFProtocol.OK);
+        out.writeInt(aliases.size());
+        for (String alias : aliases) {
+            BRDFProtocol.writeString(out, alias);
+        }
+    }
+
+    private void error(DataOutputStream out, String message) throws IOException {
+        out.writeByte(BRDFProtocol.ERROR);
+        BRDFProtocol.writeMessage(out, String.valueOf(message));
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public BatchingEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+        evaluator.close();
+    }
+}
@@ -0,0 +1,184 @@
+package com.nicky.server;
+
+import com.nicky.brdfs.BRDF;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Batching Evaluator</h1>
+ * Merges concurrent evaluation requests into large batches.
+ * Requests are queued by the connection handlers; a single dispatcher thread drains everything that has
+ * arrived, splits it into fixed-size chunks and evaluates the chunks in parallel. While one batch is being
+ * evaluated the next one builds up, so batches grow with load.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BatchingEvaluator implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchingEvaluator.class.getName());
+
+    /**
+     * Direction pairs evaluated by one parallel task
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * A pending evaluation
+     */
+    private static class Request {
+        final BRDF brdf;
+        final float[] directions;
+        final int count;
+        final float[] result;
+        final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+        Request(BRDF brdf, float[] directions, int count) {
+            this.brdf = brdf;
+            this.directions = directions;
+            this.count = count;
+            this.result = new float[count * 3];
+        }
+    }
+
+    /**
+     * A range of direction pairs within one request
+     */
+    private static class Chunk {
+        final Request request;
+        final int start;
+        final int end;
+
+        Chunk(Request request, int start, int end) {
+            this.request = request;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final Map<String, BRDF> brdfs;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    // Written by the dispatcher only
+    private volatile long batches;
+    private volatile long requests;
+    private volatile long evaluations;
+
+    public BatchingEvaluator(Map<String, BRDF> brdfs) {
+        this.brdfs = brdfs;
+        this.dispatcher = new Thread(this::dispatch, "brdf-batch-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues an evaluation
+     *
+     * @param alias      BRDF Alias
+     * @param directions Packed (in.xyz, out.xyz) local directions
+     * @param count      Number of direction pairs
+     * @return CompletableFuture Completes with the packed RGB results.
+     * @throws IllegalArgumentException On unknown alias.
+     */
+    public CompletableFuture<float[]> submit(String alias, float[] directions, int count) throws IllegalArgumentException {
+        BRDF brdf = brdfs.get(alias);
+        if (brdf == null) {
+            throw new IllegalArgumentException("BRDF not found: " + alias);
+        }
+        Request request = new Request(brdf, directions, count);
+        if (count == 0) {
+            request.future.complete(request.result);
+        } else {
+            queue.add(request);
+        }
+        return request.future;
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+
+            long batchEvaluations = 0;
+            for (Request request : batch) {
+                for (int start = 0; start < request.count; start += CHUNK_SIZE) {
+                    chunks.add(new Chunk(request, start, Math.min(start + CHUNK_SIZE, request.count)));
+                }
+                batchEvaluations += request.count;
+            }
+
+            try {
+                chunks.parallelStream().forEach(BatchingEvaluator::evaluate);
+                for (Request request : batch) {
+                    request.future.complete(request.result);
+                }
+            } catch (Throwable e) {
+                // Errors too (e.g. StackOverflowError from a bad definition), or callers would wait forever
+                LOGGER.warning("Batch evaluation failed: " + e);
+                for (Request request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+
+            batches++;
+            requests += batch.size();
+            evaluations += batchEvaluations;
+            batch.clear();
+            chunks.clear();
+        }
+    }
+
+    private static void evaluate(Chunk chunk) {
+        BRDF brdf = chunk.request.brdf;
+        float[] d = chunk.request.directions;
+        float[] result = chunk.request.result;
+
+        for (int i = chunk.start; i < chunk.end; i++) {
+            int in = i * 6;
+            int out = i * 3;
+            brdf.accumulateF(d[in], d[in + 1], d[in + 2], d[in + 3], d[in + 4], d[in + 5], 1, result, out);
+        }
+    }
+
+    /**
+     * Average number of requests merged into one batch
+     *
+     * @return double Returns requests per batch.
+     */
+    public double getAverageBatchSize() {
+        long b = batches;
+        return b == 0 ? 0 : (double) requests / b;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Request request : pending) {
+            request.future.completeExceptionally(new IllegalStateException("Evaluator closed"));
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.nicky.sweep;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.nicky.BRDFBootstrapper;
+import com.nicky.BRDFVerifier;
+import com.nicky.brdfs.BRDF;
+import com.nicky.factories.BRDFFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Parameter Sweep</h1>
+ * Finds where a BRDF model stops being physically plausible as its parameters vary.
+ * A definition template is varied over a grid of fixed parameters and one swept parameter. The verifier is run over
+ * the whole grid in parallel, then the boundary between the last plausible and first implausible swept value is
+ * refined by bisection for each combination of the fixed parameters.
+ * <p>
+ * Parameters are top-level properties of the template. A numeric property is set to the value; an array property
+ * (a spectrum) has every channel set to the value. Definitions the factory rejects count as implausible.
+ * Verification results are cached by definition, so repeated points and repeated runs are not verified twice.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ParameterSweep {
+
+    private static final Logger LOGGER = Logger.getLogger(ParameterSweep.class.getName());
+
+    private final Function<JsonObject, BRDF> builder;
+    private final JsonObject template;
+
+    /**
+     * Fixed parameters and their grid values, in insertion order
+     */
+    private final LinkedHashMap<String, double[]> grid = new LinkedHashMap<>();
+
+    private String sweptParameter;
+    private double[] sweptValues;
+
+    private double tolerance = 1e-3;
+    private int numTests = 4;
+    private int samplesPerTest = (int) Math.pow(4, 5);
+    private BRDFVerifier.Heuristic heuristic = BRDFVerifier.Heuristic.POWER;
+
+    /**
+     * Plausibility of each verified definition, keyed by its JSON
+     */
+    private final ConcurrentHashMap<String, Boolean> cache = new ConcurrentHashMap<>();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Sweeps a simple BRDF created by a factory
+     *
+     * @param factory  Creates a factory for the model, e.g. PhongSpecularBRDFFactory::new
+     * @param template The component definition to vary
+     */
+    public ParameterSweep(Supplier<BRDFFactory> factory, JsonObject template) {
+        this(definition -> {
+            BRDFBootstrapper bootstrapper = new BRDFBootstrapper();
+            bootstrapper.setBrdfFactory(factory.get());
+            return bootstrapper.setupBRDF(definition);
+        }, template);
+    }
+
+    /**
+     * Sweeps any BRDF that can be built from a definition
+     *
+     * @param builder  Builds a BRDF from a definition, throwing IllegalArgumentException on invalid values
+     * @param template The definition to vary
+     */
+    public ParameterSweep(Function<JsonObject, BRDF> builder, JsonObject template) {
+        this.builder = builder;
+        this.template = template;
+    }
+
+    /**
+     * Adds a fixed parameter; a boundary is found for every combination of the fixed parameters' values
+     *
+     * @param property The template property
+     * @param values   Values to try
+     * @return ParameterSweep Returns this sweep.
+     */
+    public ParameterSweep addParameter(String property, double... values) {
+        grid.put(property, values.clone());
+        return this;
+    }
+
+    /**
+     * Sets the swept parameter, whose plausibility boundary is refined by bisection
+     *
+     * @param property The template property
+     * @param min      Lowest value
+     * @param max      Highest value
+     * @param steps    Number of evenly spaced grid values, at least 2
+     * @return ParameterSweep Returns this sweep.
+     * @throws IllegalArgumentException On fewer than 2 steps or an empty range.
+     */
+    public ParameterSweep sweep(String property, double min, double max, int steps) throws IllegalArgumentException {
+        if (steps < 2 || !(max > min)) {
+            throw new IllegalArgumentException("Invalid sweep of " + property + ": [" + min + ", " + max + "] in " + steps + " steps");
+        }
+        sweptParameter = property;
+        sweptValues = new double[steps];
+        for (int i = 0; i < steps; i++) {
+            sweptValues[i] = min + (max - min) * i / (steps - 1);
+        }
+        return this;
+    }
+
+    /**
+     * Runs the sweep
+     *
+     * @return List<Boundary> Returns one boundary per combination of the fixed parameters.
+     * @throws IllegalStateException If no swept parameter has been set.
+     */
+    public List<Boundary> run() throws IllegalStateException {
+        if (sweptParameter == null) {
+            throw new IllegalStateException("No swept parameter set");
+        }
+        long start = System.nanoTime();
+        long verificationsBefore = verifications.get();
+
+        List<double[]> combinations = combinations();
+        int steps = sweptValues.length;
+
+        // Coarse pass: every (combination, swept value) point in parallel
+        boolean[] plausible = new boolean[combinations.size() * steps];
+        IntStream.range(0, plausible.length).parallel().forEach(i ->
+                plausible[i] = isPlausible(combinations.get(i / steps), sweptValues[i % steps]));
+
+        // Refine each combination's first transition in parallel
+        List<Boundary> boundaries = IntStream.range(0, combinations.size()).parallel().mapToObj(c -> {
+            double[] fixed = combinations.get(c);
+            boolean first = plausible[c * steps];
+            for (int i = 1; i < steps; i++) {
+                if (plausible[c * steps + i] != first) {
+                    return bisect(fixed, sweptValues[i - 1], sweptValues[i], first);
+                }
+            }
+            return new Boundary(fixed, first ? sweptValues[steps - 1] : Double.NaN, first ? Double.NaN : sweptValues[0], first);
+        }).collect(Collectors.toList());
+
+        LOGGER.info("Swept " + sweptParameter + " over " + combinations.size() + " combinations in " + (System.nanoTime() - start) / 1000000
+                + "ms: " + (verifications.get() - verificationsBefore) + " verifications, " + cacheHits.get() + " cache hits so far");
+        return boundaries;
+    }
+
+    /**
+     * Bisects between a value with the given plausibility and one without it
+     */
+    private Boundary bisect(double[] fixed, double low, double high, boolean lowPlausible) {
+        while (high - low > tolerance) {
+            double mid = 0.5 * (low + high);
+            if (isPlausible(fixed, mid) == lowPlausible) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return lowPlausible ? new Boundary(fixed, low, high, true) : new Boundary(fixed, high, low, false);
+    }
+
+    /**
+     * Verifies one point, using the cache
+     */
+    private boolean isPlausible(double[] fixed, double swept) {
+        JsonObject definition = template.deepCopy();
+        int p = 0;
+        for (String property : grid.keySet()) {
+            set(definition, property, fixed[p++]);
+        }
+        set(definition, sweptParameter, swept);
+
+        // Verified at most once per definition, even when parallel points race for the same key
+        boolean[] computed = new boolean[1];
+        boolean result = cache.computeIfAbsent(definition.toString(), key -> {
+            computed[0] = true;
+            return verify(definition);
+        });
+        if (!computed[0]) {
+            cacheHits.incrementAndGet();
+        }
+        return result;
+    }
+
+    private boolean verify(JsonObject definition) {
+        try {
+            BRDF brdf = builder.apply(definition);
+            // A fresh verifier with a fixed seed, so the result only depends on the definition
+            BRDFVerifier verifier = new BRDFVerifier(100);
+            boolean result = verifier.isPhysicallyBased(brdf, numTests, samplesPerTest, heuristic);
+            verifications.incrementAndGet();
+            return result;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private static void set(JsonObject definition, String property, double value) {
+        if (definition.has(property) && definition.get(property).isJsonArray()) {
+            JsonArray array = definition.getAsJsonArray(property);
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, new JsonPrimitive(value));
+            }
+        } else {
+            definition.addProperty(property, value);
+        }
+    }
+
+    /**
+     * Cartesian product of the fixed parameters' values
+     */
+    private List<double[]> combinations() {
+        List<double[]> combinations = new ArrayList<>();
+        combinations.add(new double[0]);
+        for (double[] values : grid.values()) {
+            List<double[]> next = new ArrayList<>(combinations.size() * values.length);
+            for (double[] combination : combinations) {
+                for (double value : values) {
+                    double[] extended = new double[combination.length + 1];
+                    System.arraycopy(combination, 0, extended, 0, combination.length);
+                    extended[combination.length] = value;
+                    next.add(extended);
+                }
+            }
+            combinations = next;
+        }
+        return combinations;
+    }
+
+    /**
+     * Formats boundaries as a table with one row per combination of the fixed parameters
+     * Columns are the fixed parameters, the last plausible and first implausible swept values, and whether the low
+     * end of the sweep is plausible. Missing values are shown as "-".
+     *
+     * @param boundaries Boundaries returned by {@link #run()}
+     * @return String Returns the table.
+     */
+    public String toTable(List<Boundary> boundaries) {
+        StringBuilder sb = new StringBuilder();
+        for (String property : grid.keySet()) {
+            sb.append(property).append('\t');
+        }
+        sb.append("plausible ").append(sweptParameter).append('\t')
+                .append("implausible ").append(sweptParameter).append('\t')
+                .append("lowPlausible\n");
+
+        for (Boundary boundary : boundaries) {
+            for (double value : boundary.getFixed()) {
+                sb.append(format(value)).append('\t');
+            }
+            sb.append(format(boundary.getLastPlausible())).append('\t')
+                    .append(format(boundary.getFirstImplausible())).append('\t')
+                    .append(boundary.isLowPlausible()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "-" : String.format("%.4g", value);
+    }
+
+    public Map<String, double[]> getGrid() {
+        return grid;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setNumTests(int numTests) {
+        this.numTests = numTests;
+    }
+
+    public void setSamplesPerTest(int samplesPerTest) {
+        this.samplesPerTest = samplesPerTest;
+    }
+
+    public void setHeuristic(BRDFVerifier.Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    public long getVerifications() {
+        return verifications.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * <h1>Boundary</h1>
+     * Where the swept parameter changes plausibility for one combination of the fixed parameters.
+     * The missing side is NaN when the whole sweep has the same plausibility.
+     */
+    public static class Boundary {
+        private final double[] fixed;
+        private final double lastPlausible;
+        private final double firstImplausible;
+        private final boolean lowPlausible;
+
+        Boundary(double[] fixed, double lastPlausible, double firstImplausible, boolean lowPlausible) {
+            this.fixed = fixed;
+            this.lastPlausible = lastPlausible;
+            this.firstImplausible = firstImplausible;
+            this.lowPlausible = lowPlausible;
+        }
+
+        /**
+         * @return double[] Values of the fixed parameters, in the order they were added.
+         */
+        public double[] getFixed() {
+            return fixed;
+        }
+
+        public double getLastPlausible() {
+            return lastPlausible;
+        }
+
+        public double getFirstImplausible() {
+            return firstImplausible;
+        }
+
+        /**
+         * @return boolean Whether the lowest swept value is plausible, i.e. plausibility is lost as the value increases.
+         */
+        public boolean isLowPlausible() {
+            return lowPlausible;
+        }
+    }
+}
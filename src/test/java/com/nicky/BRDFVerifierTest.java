@@ -0,0 +1,158 @@
+package com.nicky;
+
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.sampling.Sampler;
+import com.nicky.sampling.XoroshiroSampler;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>BRDF Verifier Test</h1>
+ * Tests the verifier's random streams and albedo estimators.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFVerifierTest {
+
+    private static final Vector3f INCOMING = new Vector3f(-0.8f, 0.6f, 0).normalize();
+
+    private static PhongSpecularBRDF phong() {
+        return new PhongSpecularBRDF(new Spectrum(0.5f, 0.5f, 0.5f), 20);
+    }
+
+    @Test
+    public void splitVerifiersDrawIndependentStreams() {
+        BRDFVerifier verifier = new BRDFVerifier(7);
+        BRDFVerifier first = verifier.split();
+        BRDFVerifier second = verifier.split();
+
+        double a = first.estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.POWER);
+        double b = second.estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.POWER);
+        assertNotEquals(a, b, 0);
+
+        // Running a test must not reset both streams to the same seed
+        first.isEnergyConserving(phong(), 1, 64);
+        second.isEnergyConserving(phong(), 1, 64);
+        double c = first.estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.POWER);
+        double d = second.estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.POWER);
+        assertNotEquals(c, d, 0);
+    }
+
+    @Test
+    public void sameSeedReproducesEstimates() {
+        double a = new BRDFVerifier(7).estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.BALANCE);
+        double b = new BRDFVerifier(7).estimateAlbedo(phong(), INCOMING, 256, BRDFVerifier.Heuristic.BALANCE);
+        assertEquals(a, b, 0);
+    }
+
+    @Test
+    public void estimateAlbedoTakesExactlyTheRequestedSamples() {
+        for (int samples = 0; samples <= 7; samples++) {
+            CountingSampler sampler = new CountingSampler(new XoroshiroSampler(7));
+            new BRDFVerifier(sampler).estimateAlbedo(phong(), INCOMING, samples, BRDFVerifier.Heuristic.POWER);
+            // Two random numbers per sample
+            assertEquals(2L * samples, sampler.count);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyAsyncRejectsBatchesSmallerThanTheTechniques() {
+        new BRDFVerifier(7).verifyAsync(phong(), 1, 64, BRDFVerifier.MIS_TECHNIQUES - 1, BRDFVerifier.Heuristic.POWER, Runnable::run);
+    }
+
+    @Test
+    public void verifyAsyncCompletesOnASingleThreadExecutor() throws InterruptedException {
+        // More batches than the subscriber buffer holds, with the run occupying the executor's only thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch done = new CountDownLatch(1);
+        VerificationProgress[] last = new VerificationProgress[1];
+        try {
+            new BRDFVerifier(7).verifyAsync(phong(), 1, BRDFVerifier.MIS_TECHNIQUES * 2 * Flow.defaultBufferSize(),
+                    BRDFVerifier.MIS_TECHNIQUES, BRDFVerifier.Heuristic.POWER, executor)
+                    .subscribe(new Flow.Subscriber<VerificationProgress>() {
+                        @Override
+                        public void onSubscribe(Flow.Subscription subscription) {
+                            subscription.request(Long.MAX_VALUE);
+                        }
+
+                        @Override
+                        public void onNext(VerificationProgress item) {
+                            last[0] = item;
+                        }
+
+                        @Override
+                        public void onError(Throwable throwable) {
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            done.countDown();
+                        }
+                    });
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            assertTrue(last[0].isComplete());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void splitStreamsStartWhereTheirParentLeftOff() {
+        XoroshiroSampler parent = new XoroshiroSampler(7);
+        Sampler child = parent.split();
+        assertEquals(new XoroshiroSampler(7).nextLong(), child.nextLong());
+
+        // The parent jumped 2^64 numbers ahead, past the child's block
+        XoroshiroSampler jumped = new XoroshiroSampler(7);
+        jumped.jump();
+        assertEquals(jumped.nextLong(), parent.nextLong());
+        assertNotEquals(child.nextLong(), parent.nextLong());
+    }
+
+    /**
+     * Counts the random numbers drawn from a sampler
+     */
+    private static class CountingSampler implements Sampler {
+        private final Sampler sampler;
+        private long count;
+
+        CountingSampler(Sampler sampler) {
+            this.sampler = sampler;
+        }
+
+        @Override
+        public double nextDouble() {
+            count++;
+            return sampler.nextDouble();
+        }
+
+        @Override
+        public long nextLong() {
+            count++;
+            return sampler.nextLong();
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            sampler.setSeed(seed);
+        }
+
+        @Override
+        public Sampler split() {
+            return new CountingSampler(sampler.split());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.nicky;
+
+import com.nicky.brdfs.BRDF;
+import com.nicky.brdfs.BRDFSample;
+import com.nicky.brdfs.CompositeBRDF;
+import com.nicky.brdfs.LambertianBRDF;
+import com.nicky.brdfs.PhongDiffuseBRDF;
+import com.nicky.brdfs.PhongSpecularBRDF;
+import com.nicky.brdfs.ShinyDiffuseBRDF;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Composite Optimiser Test</h1>
+ * Tests that optimised composites evaluate as the originals do, but keep the originals' alias and sampling, including
+ * when one component or none remains.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class CompositeOptimiserTest {
+
+    private static final Vector3f IN = new Vector3f(-0.8f, 0.6f, 0).normalize();
+    private static final Vector3f NORMAL = new Vector3f(1, 0, 0);
+
+    private static void assertSameSample(BRDFSample expected, BRDFSample actual) {
+        assertEquals(expected.getDirection().x, actual.getDirection().x, 1e-6);
+        assertEquals(expected.getDirection().y, actual.getDirection().y, 1e-6);
+        assertEquals(expected.getDirection().z, actual.getDirection().z, 1e-6);
+        assertEquals(expected.getValue().getR(), actual.getValue().getR(), 1e-5);
+        assertEquals(expected.getValue().getG(), actual.getValue().getG(), 1e-5);
+        assertEquals(expected.getValue().getB(), actual.getValue().getB(), 1e-5);
+        assertEquals(expected.getFlags(), actual.getFlags());
+    }
+
+    @Test
+    public void mergedCompositeSamplesLikeTheOriginal() {
+        LinkedHashMap<BRDF, Float> nested = new LinkedHashMap<>();
+        nested.put(new LambertianBRDF(new Spectrum(0.3f, 0.2f, 0.1f)), 0.5f);
+        nested.put(new PhongSpecularBRDF(new Spectrum(0.1f, 0.1f, 0.1f), 40), 0.5f);
+
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        components.put(new CompositeBRDF("nested", nested), 0.4f);
+        components.put(new LambertianBRDF(new Spectrum(0.6f, 0.5f, 0.4f)), 0.2f);
+        components.put(new PhongDiffuseBRDF(new Spectrum(0.2f, 0.4f, 0.6f)), 0.2f);
+        components.put(new ShinyDiffuseBRDF(new Spectrum(0.5f, 0.5f, 0.5f), 0), 0.1f);
+        components.put(new PhongSpecularBRDF(new Spectrum(0.3f, 0.3f, 0.3f), 40), 0.1f);
+        CompositeBRDF composite = new CompositeBRDF("composite", components);
+
+        CompositeOptimiser optimiser = new CompositeOptimiser(null);
+        BRDF optimised = optimiser.optimise(composite);
+        CompositeOptimiser.Report report = optimiser.getReports().get("composite");
+        assertTrue(report.getMerged() > 0);
+        assertEquals(1, report.getFolded());
+
+        Vector3f out = new Vector3f(0.6f, 0.8f, 0);
+        assertEquals(composite.f(IN, out).getR(), optimised.f(IN, out).getR(), 1e-6);
+        assertEquals(composite.f(IN, out).getB(), optimised.f(IN, out).getB(), 1e-6);
+        assertSameSample(composite.sampleF(IN, NORMAL), optimised.sampleF(IN, NORMAL));
+        assertEquals(composite.serialise(), optimised.serialise());
+        // ShinyDiffuse keeps its own reflection type
+        assertTrue(optimised.f(IN, NORMAL, "both") != null);
+    }
+
+    @Test
+    public void allPrunedCompositeEvaluatesBlackButSamplesLikeTheOriginal() {
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        components.put(new LambertianBRDF(new Spectrum(1e-6f, 1e-6f, 1e-6f)), 0.5f);
+        components.put(new PhongSpecularBRDF(new Spectrum(0, 0, 0), 40), 0.5f);
+        CompositeBRDF composite = new CompositeBRDF("composite", components);
+
+        BRDF optimised = new CompositeOptimiser(null).optimise(composite);
+        assertEquals("composite", optimised.getName());
+        assertEquals(0, ((CompositeBRDF) optimised).getComponentCount());
+        assertEquals(0, optimised.f(IN, NORMAL).getR(), 0);
+        assertSameSample(composite.sampleF(IN, NORMAL), optimised.sampleF(IN, NORMAL));
+    }
+
+    @Test
+    public void singleComponentKeepsTheAlias() {
+        LambertianBRDF lambertian = new LambertianBRDF(new Spectrum(0.5f, 0.5f, 0.5f));
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        components.put(lambertian, 1f);
+        CompositeBRDF composite = new CompositeBRDF("matte", components);
+
+        BRDF optimised = new CompositeOptimiser(null).optimise(composite);
+        assertTrue(optimised instanceof CompositeBRDF);
+        assertNotEquals(lambertian.getName(), optimised.getName());
+        assertEquals("matte", optimised.getName());
+        assertSame(composite, ((CompositeBRDF) optimised).getOriginal());
+        assertSame(lambertian, ((CompositeBRDF) optimised).getComponent(0));
+    }
+
+    @Test
+    public void pruningCanBeTurnedOff() {
+        LambertianBRDF dim = new LambertianBRDF(new Spectrum(1e-6f, 1e-6f, 1e-6f));
+        LinkedHashMap<BRDF, Float> components = new LinkedHashMap<>();
+        components.put(dim, 1f);
+
+        CompositeOptimiser optimiser = new CompositeOptimiser(null);
+        optimiser.setPruning(false);
+        CompositeBRDF optimised = (CompositeBRDF) optimiser.optimise(new CompositeBRDF("composite", components));
+        assertEquals(1, optimised.getComponentCount());
+        assertSame(dim, optimised.getComponent(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThresholdIsRejected() {
+        new CompositeOptimiser(null).setThreshold(-1);
+    }
+}
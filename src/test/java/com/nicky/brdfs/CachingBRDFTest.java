@@ -0,0 +1,71 @@
+package com.nicky.brdfs;
+
+import com.nicky.Spectrum;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * <h1>Caching BRDF Test</h1>
+ * Tests that lookups in the same bins hit and return the bin-centre value, and that a full probe window evicts.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class CachingBRDFTest {
+
+    /**
+     * Unit direction at (theta, phi) degrees, with theta from the normal (+x) and phi from +y towards +z
+     */
+    private static float[] direction(double theta, double phi) {
+        double t = Math.toRadians(theta), p = Math.toRadians(phi);
+        return new float[]{(float) Math.cos(t), (float) (Math.sin(t) * Math.cos(p)), (float) (Math.sin(t) * Math.sin(p))};
+    }
+
+    private static float[] evaluate(BRDF brdf, float[] in, float[] out) {
+        float[] rgb = new float[3];
+        brdf.accumulateF(in[0], in[1], in[2], out[0], out[1], out[2], 1, rgb, 0);
+        return rgb;
+    }
+
+    @Test
+    public void repeatedLookupInTheSameBinsHitsWithTheBinCentreValue() {
+        BRDF phong = new PhongSpecularBRDF(new Spectrum(0.5f, 0.5f, 0.5f), 10);
+        CachingBRDF cache = new CachingBRDF(phong, 10, 1024);
+
+        // 10 degree bins: both pairs fall in the bins centred on (165, 45) and (15, 45)
+        float[] first = evaluate(cache, direction(161, 41), direction(11, 41));
+        float[] second = evaluate(cache, direction(168, 48), direction(18, 48));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        float[] centre = evaluate(phong, direction(165, 45), direction(15, 45));
+        assertEquals(centre[0], first[0], 1e-6);
+        assertEquals(centre[0], second[0], 1e-6);
+        assertNotEquals(evaluate(phong, direction(161, 41), direction(11, 41))[0], first[0], 1e-6);
+    }
+
+    @Test
+    public void fullProbeWindowEvictsAndCountsTheEviction() {
+        // One stripe of four slots, so every probe window covers the whole table
+        CachingBRDF cache = new CachingBRDF(new LambertianBRDF(new Spectrum(0.5f, 0.5f, 0.5f)), 10, 4, 1);
+        float[] in = direction(165, 45);
+        for (int i = 0; i < 4; i++) {
+            evaluate(cache, in, direction(5 + 10 * i, 45));
+        }
+        assertEquals(0, cache.getEvictions());
+
+        evaluate(cache, in, direction(45, 45));
+        assertEquals(5, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+
+        // The newest entry is the one kept
+        evaluate(cache, in, direction(45, 45));
+        assertEquals(1, cache.getHits());
+
+        cache.clear();
+        assertEquals(0, cache.getEvictions());
+    }
+}
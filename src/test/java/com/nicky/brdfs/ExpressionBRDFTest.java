@@ -0,0 +1,45 @@
+package com.nicky.brdfs;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nicky.factories.ExpressionBRDFFactory;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Expression BRDF Test</h1>
+ * Tests expression BRDFs built by the factory.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ExpressionBRDFTest {
+
+    private static JsonObject json(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+    @Test
+    public void factoryDoesNotKeepParametersOfEarlierDefinitions() {
+        ExpressionBRDFFactory factory = new ExpressionBRDFFactory();
+        factory.setProperties(json("{\"expression\": \"kd * n\", \"kd\": [0.1, 0.2, 0.3], \"n\": 2}"));
+        factory.createBRDF();
+        factory.setProperties(json("{\"expression\": \"a\", \"a\": 0.5}"));
+        ExpressionBRDF brdf = (ExpressionBRDF) factory.createBRDF();
+        assertEquals(1, brdf.getScalars().size());
+        assertTrue(brdf.getSpectra().isEmpty());
+    }
+
+    @Test
+    public void reflectionTypeIsCaseInsensitive() {
+        ExpressionBRDFFactory factory = new ExpressionBRDFFactory();
+        factory.setProperties(json("{\"expression\": \"a\", \"a\": 0.5, \"reflectionType\": \"Specular\"}"));
+        BRDF brdf = factory.createBRDF();
+        BRDFSample sample = brdf.sampleF(new Vector3f(-0.8f, 0.6f, 0).normalize(), new Vector3f(1, 0, 0));
+        assertEquals(BRDFSample.SPECULAR, sample.getFlags());
+    }
+}
@@ -0,0 +1,102 @@
+package com.nicky.brdfs;
+
+import com.nicky.SampledSpectrum;
+import com.nicky.SampledWavelengths;
+import com.nicky.Spectrum;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * <h1>Material View Test</h1>
+ * Tests that views evaluate and sample from the table's columns as the materialised models do.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class MaterialViewTest {
+
+    @Test
+    public void ggxSamplingMatchesTheModel() {
+        MaterialTable table = new MaterialTable();
+        int id = table.addGGX(0.9f, 0.8f, 0.7f, 0.4f);
+        MaterialView view = table.view(id);
+        GGXBRDF ggx = new GGXBRDF(new Spectrum(0.9f, 0.8f, 0.7f), 0.4f);
+
+        Vector3f expected = new Vector3f();
+        Vector3f actual = new Vector3f();
+        float expectedPdf = ggx.sampleDirection(-0.8f, 0.6f, 0, 0.3f, 0.7f, expected);
+        float actualPdf = view.sampleDirection(-0.8f, 0.6f, 0, 0.3f, 0.7f, actual);
+        assertEquals(expectedPdf, actualPdf, 0);
+        assertEquals(expected.x, actual.x, 0);
+        assertEquals(expected.y, actual.y, 0);
+        assertEquals(expected.z, actual.z, 0);
+        assertEquals(ggx.pdf(-0.8f, 0.6f, 0, actual.x, actual.y, actual.z), view.pdf(-0.8f, 0.6f, 0, actual.x, actual.y, actual.z), 0);
+
+        // Parameter changes are seen without rebuilding a BRDF
+        table.setParameter(id, 0.1f);
+        GGXBRDF smoother = new GGXBRDF(new Spectrum(0.9f, 0.8f, 0.7f), 0.1f);
+        assertEquals(smoother.sampleDirection(-0.8f, 0.6f, 0, 0.3f, 0.7f, expected),
+                view.sampleDirection(-0.8f, 0.6f, 0, 0.3f, 0.7f, actual), 0);
+    }
+
+    @Test
+    public void spectralEvaluationReadsTheColumns() {
+        MaterialTable table = new MaterialTable();
+        int ggx = table.addGGX(0.9f, 0.6f, 0.2f, 0.4f);
+        int shiny = table.addShinyDiffuse(0.2f, 0.5f, 0.7f, 3);
+        int composite = table.addComposite("composite", new int[]{ggx, shiny}, new float[]{0.3f, 0.7f});
+        SampledWavelengths lambda = new SampledWavelengths(0.37f);
+
+        for (int id : new int[]{ggx, shiny, composite}) {
+            assertSameSpectrum(table.materialise(id), table.view(id), lambda);
+        }
+
+        // Parameter changes are seen without rebuilding a BRDF
+        table.setReflectivity(shiny, 0.8f, 0.1f, 0.1f);
+        assertSameSpectrum(table.materialise(composite), table.view(composite), lambda);
+    }
+
+    @Test
+    public void compositeSamplesAndTypedEvaluationMatchTheModel() {
+        MaterialTable table = new MaterialTable();
+        int lambertian = table.addLambertian(0.4f, 0.4f, 0.4f);
+        int phong = table.addPhongSpecular(0.2f, 0.2f, 0.2f, 10);
+        int shiny = table.addShinyDiffuse(0.3f, 0.2f, 0.1f, 2);
+        int composite = table.addComposite("composite", new int[]{lambertian, phong, shiny, lambertian}, new float[]{0.2f, 0.3f, 0.1f, 0.4f});
+        BRDF model = table.materialise(composite);
+        MaterialView view = table.view(composite);
+
+        Vector3f in = new Vector3f(-0.8f, 0.6f, 0);
+        Vector3f normal = new Vector3f(1, 0, 0);
+        BRDFSample expected = model.sampleF(in, normal);
+        BRDFSample actual = view.sampleF(in, normal);
+        assertEquals(expected.getDirection().x, actual.getDirection().x, 1e-6);
+        assertEquals(expected.getDirection().y, actual.getDirection().y, 1e-6);
+        assertEquals(expected.getValue().getR(), actual.getValue().getR(), 1e-6);
+        assertEquals(expected.getFlags(), actual.getFlags());
+
+        Vector3f out = new Vector3f(0.6f, 0.8f, 0);
+        for (String type : new String[]{"diffuse", "specular", "both"}) {
+            assertEquals(model.f(in, out, type).getR(), view.f(in, out, type).getR(), 1e-6);
+        }
+        assertEquals(null, table.view(lambertian).f(in, out, "specular"));
+        assertEquals(0, table.view(shiny).f(in, out, "specular").getR(), 0);
+
+        // Materialising builds a new object graph every time
+        assertNotSame(model, table.materialise(composite));
+    }
+
+    private static void assertSameSpectrum(BRDF expected, BRDF actual, SampledWavelengths lambda) {
+        SampledSpectrum e = new SampledSpectrum();
+        SampledSpectrum a = new SampledSpectrum();
+        expected.accumulateF(-0.8f, 0.6f, 0, 0.6f, 0.8f, 0, 0.5f, lambda, e);
+        actual.accumulateF(-0.8f, 0.6f, 0, 0.6f, 0.8f, 0, 0.5f, lambda, a);
+        for (int i = 0; i < SampledSpectrum.SAMPLES; i++) {
+            assertEquals(e.get(i), a.get(i), 1e-6);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.nicky.brdfs;
+
+import com.nicky.BRDFInterner;
+import com.nicky.Spectrum;
+import com.nicky.resources.TableStorage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * <h1>Tabulated BRDF Test</h1>
+ * Tests that tables of different sources with the same name stay distinct.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class TabulatedBRDFTest {
+
+    private static TabulatedBRDF table(float reflectivity) {
+        return TabulatedBRDF.fromBRDF(new LambertianBRDF(new Spectrum(reflectivity, reflectivity, reflectivity)), 4, 4, 8, TableStorage.Mode.FLOAT);
+    }
+
+    @Test
+    public void sameNameDifferentContentsSerialiseDifferently() {
+        TabulatedBRDF dark = table(0.2f);
+        TabulatedBRDF light = table(0.8f);
+        assertEquals(dark.getName(), light.getName());
+        assertNotEquals(dark.serialise(), light.serialise());
+        assertEquals(dark.serialise(), table(0.2f).serialise());
+
+        BRDFInterner interner = new BRDFInterner();
+        assertNotSame(interner.intern(dark), interner.intern(light));
+    }
+}
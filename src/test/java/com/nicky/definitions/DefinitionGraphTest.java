@@ -0,0 +1,103 @@
+package com.nicky.definitions;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Definition Graph Test</h1>
+ * Tests cycle and missing-reference detection, and the level order of nested composites.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class DefinitionGraphTest {
+
+    private static final Predicate<String> MODELS = name -> name.endsWith("BRDF");
+
+    /**
+     * A composite definition of the named components
+     */
+    private static BRDFDefinition composite(String alias, String... components) throws IOException {
+        StringBuilder json = new StringBuilder("{\"alias\": \"").append(alias).append("\", \"type\": \"composite\", \"components\": [");
+        for (int i = 0; i < components.length; i++) {
+            json.append(i > 0 ? ", " : "").append("{\"name\": \"").append(components[i]).append("\", \"weighting\": 0.5}");
+        }
+        return DefinitionParser.parse(json.append("]}").toString());
+    }
+
+    private static LinkedHashMap<String, BRDFDefinition> definitions(BRDFDefinition... definitions) {
+        LinkedHashMap<String, BRDFDefinition> map = new LinkedHashMap<>();
+        for (BRDFDefinition definition : definitions) {
+            map.put(definition.getAlias(), definition);
+        }
+        return map;
+    }
+
+    private static List<List<String>> aliases(DefinitionGraph graph) {
+        List<List<String>> levels = new ArrayList<>();
+        for (List<BRDFDefinition> level : graph.getLevels()) {
+            List<String> aliases = new ArrayList<>();
+            for (BRDFDefinition definition : level) {
+                aliases.add(definition.getAlias());
+            }
+            levels.add(aliases);
+        }
+        return levels;
+    }
+
+    @Test
+    public void compositeOfCompositesIsBuiltAfterItsComponents() throws IOException {
+        // Listed outermost first, so the file order alone would build it too early
+        DefinitionGraph graph = new DefinitionGraph(definitions(
+                composite("outer", "middle", "plastic", "LambertianBRDF"),
+                composite("middle", "plastic", "PhongSpecularBRDF"),
+                composite("plastic", "LambertianBRDF", "PhongSpecularBRDF"),
+                composite("metal", "GGXBRDF")), MODELS);
+
+        assertEquals(Arrays.asList(Arrays.asList("plastic", "metal"), Arrays.asList("middle"), Arrays.asList("outer")), aliases(graph));
+    }
+
+    @Test
+    public void registeredAliasesNeedNoDefinition() throws IOException {
+        DefinitionGraph graph = new DefinitionGraph(definitions(composite("coated", "plastic", "GGXBRDF")),
+                MODELS.or("plastic"::equals));
+
+        assertEquals(Arrays.asList(Arrays.asList("coated")), aliases(graph));
+    }
+
+    @Test
+    public void cycleIsRejectedWithItsMembers() throws IOException {
+        try {
+            new DefinitionGraph(definitions(
+                    composite("a", "b", "LambertianBRDF"),
+                    composite("b", "c"),
+                    composite("c", "a"),
+                    composite("d", "a")), MODELS);
+            fail("expected a cycle");
+        } catch (IllegalArgumentException e) {
+            // d depends on the cycle but is not part of it
+            assertTrue(e.getMessage(), e.getMessage().contains("[a, b, c]"));
+        }
+    }
+
+    @Test
+    public void missingAliasIsRejected() throws IOException {
+        try {
+            new DefinitionGraph(definitions(composite("coated", "plastic", "GGXBRDF")), MODELS);
+            fail("expected a missing reference");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("coated") && e.getMessage().contains("plastic"));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.nicky.definitions;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <h1>Definition Parser Test</h1>
+ * Tests how parsed properties are read back: numeric strings, and arrays of the wrong length.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class DefinitionParserTest {
+
+    private static ComponentDefinition component(String properties) throws IOException {
+        return DefinitionParser.parse("{\"alias\": \"test\", \"type\": \"composite\", \"components\": [{\"name\": \"LambertianBRDF\", "
+                + properties + "}]}").getComponents().get(0);
+    }
+
+    @Test
+    public void numericStringWeightingIsConverted() throws IOException {
+        assertEquals(0.5, component("\"weighting\": \"0.5\"").getWeighting(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonNumericWeightingIsRejected() throws IOException {
+        component("\"weighting\": \"half\"").getWeighting();
+    }
+
+    @Test
+    public void missingWeightingDefaultsToOne() throws IOException {
+        assertEquals(1, component("\"reflectivity\": [0.1, 0.2, 0.3]").getWeighting(), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void longSpectrumIsRejected() throws IOException {
+        component("\"reflectivity\": [0.1, 0.2, 0.3, 0.4]").getSpectrum("reflectivity");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void arrayScalarIsRejected() throws IOException {
+        component("\"weighting\": [0.5, 0.5]").getWeighting();
+    }
+}
@@ -0,0 +1,83 @@
+package com.nicky.expression;
+
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * <h1>Expression Test</h1>
+ * Tests kernel compilation: per-channel values, sharing of kernels and the class file size limit.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class ExpressionTest {
+
+    private static Function<String, Float> n(float value) {
+        return name -> value;
+    }
+
+    @Test
+    public void channelsAreEvaluatedByOneKernel() {
+        Expression expression = Expression.parse("n * dot(out, normal)");
+        ExpressionKernel kernel = expression.compile(n(1), n(2), n(3));
+        float[] rgb = new float[3];
+        kernel.accumulate(0.5f, 0.25f, 0, 0, 0, 0, 2, rgb, 0);
+        assertEquals(0.5, rgb[0], 1e-6);
+        assertEquals(1.0, rgb[1], 1e-6);
+        assertEquals(1.5, rgb[2], 1e-6);
+        assertEquals(0.25, kernel.evaluate(0.5f, 0.25f, 0, 0, 0, 0), 1e-6);
+
+        ExpressionKernel scaled = expression.compile(n(4), 0.5f, 1, 2);
+        rgb = new float[3];
+        scaled.accumulate(0.5f, 0.25f, 0, 0, 0, 0, 1, rgb, 0);
+        assertEquals(0.5, rgb[0], 1e-6);
+        assertEquals(1.0, rgb[1], 1e-6);
+        assertEquals(2.0, rgb[2], 1e-6);
+    }
+
+    @Test
+    public void equalFoldedExpressionsShareAKernel() {
+        ExpressionKernel first = Expression.parse("n * dot(out, normal)").compile(n(2));
+        ExpressionKernel second = Expression.parse("n*dot(out,normal)").compile(n(2));
+        assertSame(first, second);
+        assertNotSame(first, Expression.parse("n * dot(out, normal)").compile(n(3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedExpressionIsRejected() {
+        // A balanced sum of 2^13 terms: shallow, but over 64KB of bytecode
+        String source = "pow(dot(out, reflect), dot(out, normal))";
+        for (int i = 0; i < 13; i++) {
+            source = "(" + source + " + " + source + ")";
+        }
+        Expression.parse(source).compile(n(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deeplyNestedExpressionIsRejected() {
+        StringBuilder source = new StringBuilder("dot(out, normal)");
+        for (int i = 0; i < 10000; i++) {
+            source.append(" + dot(out, normal)");
+        }
+        Expression.parse(source.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deeplyParenthesisedExpressionIsRejected() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            source.append('(');
+        }
+        source.append("dot(out, normal)");
+        for (int i = 0; i < 10000; i++) {
+            source.append(')');
+        }
+        Expression.parse(source.toString());
+    }
+}
@@ -0,0 +1,63 @@
+package com.nicky.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <h1>BRDF Protocol Test</h1>
+ * Tests the chunked float copies and the string length limit of the wire format.
+ *
+ * @author Nicky Buttigieg
+ * @version 1.0
+ * @since 2018-05-23
+ */
+public class BRDFProtocolTest {
+
+    @Test
+    public void floatsSpanningChunksRoundTrip() throws IOException {
+        float[] values = new float[20000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.25f;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BRDFProtocol.writeFloats(new DataOutputStream(bytes), values, values.length);
+        assertEquals(values.length * 4, bytes.size());
+
+        float[] read = new float[values.length];
+        BRDFProtocol.readFloats(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), read, read.length);
+        assertArrayEquals(values, read, 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void longStringIsRejected() throws IOException {
+        BRDFProtocol.writeString(new DataOutputStream(new ByteArrayOutputStream()), repeat('a', 70000));
+    }
+
+    @Test
+    public void longMessageIsTruncatedAtACharacterBoundary() throws IOException {
+        // Two-byte characters, so the limit falls inside one
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BRDFProtocol.writeMessage(new DataOutputStream(bytes), repeat('\u00e9', 40000));
+
+        String message = BRDFProtocol.readString(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(BRDFProtocol.MAX_STRING_BYTES - 1, message.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(repeat('\u00e9', message.length()), message);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}